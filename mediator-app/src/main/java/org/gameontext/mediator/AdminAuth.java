@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.StringTokenizer;
+
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Basic authentication for the admin resources: user "admin", with
+ * the map's API key as the password. Used by {@link LogView} and the other admin views.
+ */
+public final class AdminAuth {
+
+    private AdminAuth() {}
+
+    /**
+     * Check the request's credentials. If they're missing or wrong, an
+     * error has been sent and the caller should return without doing anything else.
+     *
+     * @param realm realm for the authentication challenge
+     * @return true if the request is from the admin
+     * @throws IOException
+     */
+    public static boolean check(HttpServletRequest request, HttpServletResponse response, String realm) throws IOException {
+        String authHeader = request.getHeader("Authorization");
+        if ( authHeader == null ) {
+            response.addHeader("WWW-Authenticate", "Basic realm=\"" + realm + "\"");
+            response.sendError(HttpServletResponse.SC_UNAUTHORIZED, "Access denied");
+            return false;
+        }
+
+        StringTokenizer st = new StringTokenizer(authHeader);
+        if ( st.countTokens() != 2 || !"Basic".equalsIgnoreCase(st.nextToken()) ) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN, "badly formed auth header.");
+            return false;
+        }
+
+        String credentials;
+        try {
+            credentials = new String(Base64.getDecoder().decode(st.nextToken()), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN, "Error decoding auth");
+            return false;
+        }
+
+        int p = credentials.indexOf(':');
+        if ( p == -1 ) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN, "badly formed auth header.");
+            return false;
+        }
+
+        String expectedPassword;
+        try {
+            expectedPassword = (String) new InitialContext().lookup("mapApiKey");
+        } catch (NamingException e) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN, "unable to obtain pw to auth against");
+            return false;
+        }
+
+        String login = credentials.substring(0, p).trim();
+        String password = credentials.substring(p + 1).trim();
+        if ( "admin".equals(login) && expectedPassword != null && expectedPassword.equals(password) ) {
+            return true;
+        }
+
+        response.sendError(HttpServletResponse.SC_FORBIDDEN, "Access denied");
+        return false;
+    }
+}
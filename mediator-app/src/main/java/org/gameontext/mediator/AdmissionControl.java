@@ -0,0 +1,221 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.websocket.CloseReason;
+import javax.websocket.CloseReason.CloseCodes;
+
+import org.eclipse.microprofile.metrics.Gauge;
+import org.eclipse.microprofile.metrics.Metadata;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.MetricType;
+import org.eclipse.microprofile.metrics.MetricUnits;
+
+/**
+ * Decides whether a new client connection is let in, before we spend any
+ * time validating its JWT, building a {@link ClientMediator} or starting
+ * its drain.
+ * <p>
+ * A connection is turned away if this node is already full or struggling:
+ * <ul>
+ * <li>the node is being drained (see {@link NodeDrain}),</li>
+ * <li>{@link #maxSessions} client sessions are already open,</li>
+ * <li>more than {@link #maxHeapPercent}% of the heap is in use,</li>
+ * <li>tasks are waiting longer than the readiness limit for an executor thread, or</li>
+ * <li>more messages are waiting to be written to clients than the readiness limit
+ *     (see {@link HealthChecks}).</li>
+ * </ul>
+ * Otherwise, at most {@link #maxOpening} connections are set up at once.
+ * Others wait (up to {@link #queueWait} milliseconds, and no more than
+ * {@link #maxWaiting} of them) for their turn, which keeps a reconnect storm
+ * from swamping the executor and the map service all at once. Waiting
+ * happens on the container thread running onOpen, so the queue is kept
+ * short and brief: past that, clients are told to come back later.
+ * </p>
+ * Rejected connections are closed with {@link CloseCodes#TRY_AGAIN_LATER}, and a
+ * reason saying when to try again. The delay is randomized so clients turned
+ * away together don't all come back together.
+ */
+@ApplicationScoped
+public class AdmissionControl {
+
+    @Inject
+    MetricRegistry metrics;
+
+    @Inject
+    HealthChecks healthChecks;
+
+    @Inject
+    DrainMonitor drainMonitor;
+
+    @Inject
+    NodeDrain nodeDrain;
+
+    /** Maximum open client sessions (0 for no limit) */
+    long maxSessions = 10000;
+
+    /** Maximum heap in use (percent) to accept new sessions (0 for no limit) */
+    long maxHeapPercent = 90;
+
+    /** Maximum number of connections being set up at once */
+    long maxOpening = 50;
+
+    /**
+     * Maximum number of connections waiting their turn. Each one holds a
+     * websocket container thread while it waits, so this stays well below
+     * the size of the container's thread pool.
+     */
+    long maxWaiting = 20;
+
+    /** How long a connection will wait for its turn (milliseconds) */
+    long queueWait = 500;
+
+    /** Minimum number of seconds rejected clients are told to wait */
+    long retryAfter = 10;
+
+    /** Connections being set up */
+    Semaphore opening;
+
+    /** Admitted sessions that haven't closed yet */
+    final AtomicInteger sessions = new AtomicInteger();
+
+    /** Connections waiting for their turn */
+    final AtomicInteger waiting = new AtomicInteger();
+
+    @PostConstruct
+    public void postConstruct() {
+        maxSessions = Settings.getLong("admissionMaxSessions", maxSessions);
+        maxHeapPercent = Settings.getLong("admissionMaxHeap", maxHeapPercent);
+        maxOpening = Settings.getLong("admissionMaxOpening", maxOpening);
+        maxWaiting = Settings.getLong("admissionMaxWaiting", maxWaiting);
+        queueWait = Settings.getLong("admissionQueueWait", queueWait);
+        retryAfter = Settings.getLong("admissionRetryAfter", retryAfter);
+        opening = new Semaphore((int) Math.max(1, maxOpening));
+
+        if ( metrics != null ) {
+            gauge("admission_sessions", MetricUnits.NONE, () -> (long) sessions.get());
+            gauge("admission_waiting", MetricUnits.NONE, () -> (long) waiting.get());
+        }
+    }
+
+    /**
+     * Called before a new connection is set up. Might wait for a turn.
+     * If the connection is admitted, {@link #openComplete()} must be called
+     * once it has been set up, and {@link #sessionClosed()} when it closes.
+     *
+     * @return null if the connection should go ahead, or the reason it should be closed
+     */
+    public CloseReason admit() {
+        String busy = overloaded();
+        if ( busy != null ) {
+            return reject(busy);
+        }
+
+        if ( !opening.tryAcquire() ) {
+            if ( waiting.incrementAndGet() > maxWaiting ) {
+                waiting.decrementAndGet();
+                return reject("too many connections waiting");
+            }
+            count("admission_queued");
+            try {
+                if ( !opening.tryAcquire(queueWait, TimeUnit.MILLISECONDS) ) {
+                    return reject("timed out waiting");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return reject("interrupted");
+            } finally {
+                waiting.decrementAndGet();
+            }
+        }
+
+        sessions.incrementAndGet();
+        count("admission_accepted");
+        return null;
+    }
+
+    /**
+     * An admitted connection has been set up (or failed): let the next one in.
+     */
+    public void openComplete() {
+        opening.release();
+    }
+
+    /**
+     * An admitted session has closed.
+     */
+    public void sessionClosed() {
+        sessions.decrementAndGet();
+    }
+
+    /**
+     * @return why this node can't take another session, or null if it can
+     */
+    String overloaded() {
+        if ( nodeDrain.isDraining() ) {
+            return "draining";
+        }
+        if ( maxSessions > 0 && sessions.get() >= maxSessions ) {
+            return "session limit";
+        }
+        if ( maxHeapPercent > 0 && heapPercent() > maxHeapPercent ) {
+            return "heap";
+        }
+        long maxDelay = TimeUnit.MILLISECONDS.toNanos(healthChecks.maxExecutorDelay);
+        if ( maxDelay > 0 && healthChecks.executorDelay(System.nanoTime()) > maxDelay ) {
+            return "executor backlog";
+        }
+        if ( healthChecks.maxQueued > 0 && drainMonitor.last.totalDepth > healthChecks.maxQueued ) {
+            return "client backlog";
+        }
+        return null;
+    }
+
+    /**
+     * @return percentage of the maximum heap in use
+     */
+    long heapPercent() {
+        Runtime rt = Runtime.getRuntime();
+        long used = rt.totalMemory() - rt.freeMemory();
+        return used * 100 / rt.maxMemory();
+    }
+
+    private CloseReason reject(String why) {
+        long delay = retryAfter + ThreadLocalRandom.current().nextLong(retryAfter + 1);
+        Log.log(Level.FINER, this, "Rejecting connection ({0}), retry after {1}s", why, delay);
+        count("admission_rejected");
+        return new CloseReason(CloseCodes.TRY_AGAIN_LATER, "Busy (" + why + "), retry after " + delay + "s");
+    }
+
+    private void count(String name) {
+        if ( metrics != null ) {
+            metrics.counter(name).inc();
+        }
+    }
+
+    private void gauge(String name, String unit, Gauge<Long> gauge) {
+        metrics.register(new Metadata(name, MetricType.GAUGE, unit), gauge);
+    }
+}
@@ -15,9 +15,12 @@
  *******************************************************************************/
 package org.gameontext.mediator;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.Level;
 
 import org.gameontext.mediator.MediatorNexus.UserView;
+import org.gameontext.mediator.MessageTrace.Direction;
 import org.gameontext.mediator.RoutedMessage.FlowTarget;
 import org.gameontext.mediator.room.FirstRoom;
 import org.gameontext.mediator.room.RoomMediator;
@@ -59,6 +62,19 @@ public class ClientMediator implements UserView {
     /** The mediator for the connected room */
     private volatile RoomMediator roomMediator = null;
 
+    /** Recent messages to and from this session */
+    private MessageTrace trace = MessageTrace.DISABLED;
+
+    /**
+     * Messages from the client that arrived after ready, but before the
+     * (queued) join assigned a room mediator. Replayed, in order, once it has.
+     * Null when not waiting for a join.
+     */
+    private volatile List<RoutedMessage> waitingForRoom = null;
+
+    /** Most messages held while waiting for the first join */
+    static final int MAX_WAITING_FOR_ROOM = 50;
+
     public ClientMediator(MediatorNexus nexus, Drain drain, String userId, SignedJWT clientJwt, String serverJwt) {
         this.nexus = nexus;
         this.userId = userId;
@@ -91,6 +107,27 @@ public class ClientMediator implements UserView {
         return roomMediator;
     }
 
+    public MessageTrace getTrace() {
+        return trace;
+    }
+
+    /**
+     * @param trace records recent messages to and from this session
+     */
+    public void setTrace(MessageTrace trace) {
+        this.trace = trace;
+    }
+
+    /**
+     * Write the recent messages to and from this session to the log
+     * @param reason why
+     */
+    public void dumpTrace(String reason) {
+        if ( trace.capacity() > 0 ) {
+            Log.log(Level.INFO, toClient, "Recent messages for {0} ({1}):{2}", userId, reason, trace.toString());
+        }
+    }
+
     /**
      * Called by the Nexus to change the mediator for the session.
      * Join/part indications should be sent to _each client session_
@@ -102,6 +139,7 @@ public class ClientMediator implements UserView {
 
         if ( roomMediator == null || ! roomMediator.getId().equals(targetRoom.getId()) ) {
             if ( splinched ) {
+                dumpTrace("splinched");
                 sendToClient(RoutedMessage.createSimpleEventMessage(FlowTarget.player, userId, Constants.EVENTMSG_SPLINCH_RECOVERY));
 
                 sendToClient(targetRoom.getLocationEventMessage(this));
@@ -117,6 +155,17 @@ public class ClientMediator implements UserView {
 
         // always pick up the new mediator instance, refresh client cached information
         roomMediator = targetRoom;
+
+        if ( waitingForRoom != null ) {
+            synchronized(this) {
+                // messages arriving meanwhile wait for the lock, so they stay in order
+                List<RoutedMessage> waiting = waitingForRoom;
+                if ( waiting != null ) {
+                    waiting.forEach(this::dispatch);
+                    waitingForRoom = null;
+                }
+            }
+        }
     }
 
     /**
@@ -124,17 +173,50 @@ public class ClientMediator implements UserView {
      * @param message
      */
     public void ready(RoutedMessage message) {
+        trace.record(Direction.FROM_CLIENT, message);
         userName = message.getString(Constants.KEY_USERNAME, "anonymous");
 
         String roomId = message.getString(Constants.KEY_ROOM_ID);
         String lastmessage = message.getString(Constants.KEY_BOOKMARK, "");
 
-        // Join a room: this will come back via setRoomMediator
+        // Join a room: this will come back via setRoomMediator.
+        // Messages that arrive before it does are held until then.
+        if ( roomMediator == null ) {
+            waitingForRoom = new ArrayList<>();
+        }
         nexus.join(this, roomId, lastmessage);
     }
 
+    /**
+     * Called from onMessage before the message is handled
+     * @param message
+     * @return true if the message is within the player's rate limits
+     */
+    public boolean tryAccept(RoutedMessage message) {
+        return nexus.tryAccept(this, message);
+    }
+
     public void handleMessage(RoutedMessage message) {
-        Log.log(Level.FINEST, toClient, "handleMessage -- {0}", message);
+        Log.route(toClient, "handleMessage -- {0}", message);
+        trace.record(Direction.FROM_CLIENT, message);
+
+        if ( waitingForRoom != null ) {
+            synchronized(this) {
+                List<RoutedMessage> waiting = waitingForRoom;
+                if ( waiting != null ) {
+                    if ( waiting.size() < MAX_WAITING_FOR_ROOM ) {
+                        waiting.add(message);
+                    } else {
+                        Log.log(Level.FINE, toClient, "handleMessage -- still waiting for a room, dropping {0}", message);
+                    }
+                    return;
+                }
+            }
+        }
+        dispatch(message);
+    }
+
+    private void dispatch(RoutedMessage message) {
         if ( roomMediator != null ) {
             if ( message.isSOS() ) {
                 switchRooms(message);
@@ -196,12 +278,22 @@ public class ClientMediator implements UserView {
         // make sure we're only dealing with messages for everyone,
         // or messages for this user (ignore all others)
         if (message.isForUser(userId)) {
-            toClient.send(message);
+            deliver(message);
         } else {
-            Log.log(Level.FINEST, toClient, "sendToClient -- Dropping message {0}", message);
+            Log.route(toClient, "sendToClient -- Dropping message {0}", message);
         }
     }
 
+    /**
+     * Send a message that the caller has already checked is for this user
+     * (e.g. a room broadcast, checked once for all players by the nexus)
+     * @param message
+     */
+    void deliver(RoutedMessage message) {
+        trace.record(Direction.TO_CLIENT, message);
+        toClient.send(message);
+    }
+
     public Object getSource() {
         return toClient;
     }
@@ -0,0 +1,70 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import org.gameontext.mediator.room.RoomMediator;
+
+/**
+ * Carries broadcasts for rooms hosted by the mediator itself (First Room,
+ * empty and sick rooms, ..) between mediator nodes. Without it, each node's
+ * copy of First Room is its own little shard: players only see the players
+ * connected to the same node.
+ * <p>
+ * {@link MediatorNexus} publishes every local room broadcast, and delivers
+ * broadcasts received from other nodes to its own players in that room. A bus
+ * must not hand a node its own broadcasts back.
+ * </p>
+ * @see LocalClusterBus
+ * @see org.gameontext.mediator.kafka.KafkaClusterBus
+ */
+public interface ClusterBus {
+
+    /**
+     * Receives broadcasts published by other nodes
+     */
+    interface Receiver {
+        /**
+         * @param roomId room the broadcast is for
+         * @param type only deliver to players whose room delegate is of this type, or null for all players
+         * @param message the broadcast
+         */
+        void receive(String roomId, RoomMediator.Type type, RoutedMessage message);
+    }
+
+    /** A bus that goes nowhere: a single node */
+    ClusterBus NONE = new ClusterBus() {
+        @Override
+        public void publish(String roomId, RoomMediator.Type type, RoutedMessage message) {
+        }
+
+        @Override
+        public void setReceiver(Receiver receiver) {
+        }
+    };
+
+    /**
+     * Send a broadcast to the other nodes
+     * @param roomId room the broadcast is for
+     * @param type only deliver to players whose room delegate is of this type, or null for all players
+     * @param message the broadcast
+     */
+    void publish(String roomId, RoomMediator.Type type, RoutedMessage message);
+
+    /**
+     * @param receiver where broadcasts from other nodes should be delivered
+     */
+    void setReceiver(Receiver receiver);
+}
@@ -55,6 +55,7 @@ public interface Constants {
     String CONNECTING = "{\"type\": \"joinpart\",\"content\": \"connecting to %s\"}";
     String JOIN = "{\"type\": \"joinpart\",\"content\": \"enter %s\"}";
     String PART = "{\"type\": \"joinpart\",\"content\": \"exit %s\"}";
+    String AFFINITY = "{\"type\": \"affinity\",\"node\": \"%s\"}";
 
     String EVENT_HELLO = "{\"type\": \"event\",\"content\": {\"*\": \"%s is here\",\"%s\": \"%s\"},\"bookmark\": \"go-%d\"}";
     String EVENT_GOODBYE =  "{\"type\": \"event\",\"content\": {\"*\": \"%s has gone\",\"%s\": \"%s\"},\"bookmark\": \"g-%d\"}";
@@ -69,6 +70,8 @@ public interface Constants {
     String EVENTMSG_REJOIN_ADVENTURE = "... Your adventure is already in progress on another device, joining ... ";
     String EVENTMSG_MOVING = "You tried to leave when you'd already left! Sadly, it meant going nowhere new.";
     String EVENTMSG_ALREADY_THERE = "You're already right where you wanted to be.";
+    String EVENTMSG_CLIENT_SLOW_DOWN = "Whoa there! You're going faster than the mediator can follow. Some of what you just did was ignored: slow down a little.";
+    String EVENTMSG_ROOM_SLOW_DOWN = "The room can't keep up with you. What you just said or did was lost in the noise: give it a moment and try again.";
 
     String EXIT_ELECTRIC_THUMB = "{\"type\": \"exit\",\"content\": \"In a desperate plea for rescue, you stick out your [Electric Thumb](http://hitchhikers.wikia.com/wiki/Electronic_Thumb) and hope for the best.\"}";
 
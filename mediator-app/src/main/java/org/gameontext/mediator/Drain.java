@@ -7,6 +7,16 @@ public interface Drain {
 
     void send(RoutedMessage message);
 
+    /**
+     * Queue the message if the drain's rate limit (if any) allows it.
+     * @param message
+     * @return true if the message was queued, false if it was refused
+     */
+    default boolean trySend(RoutedMessage message) {
+        send(message);
+        return true;
+    }
+
     void close(CloseReason reason);
 
     void start();
@@ -14,4 +24,17 @@ public interface Drain {
     void start(Session session);
 
     void stop();
+
+    /**
+     * Stop once the messages that are already queued have been written
+     */
+    default void finish() {
+        stop();
+    }
+
+    /**
+     * Wait (for a bounded time) for a drain that is finishing to stop
+     */
+    default void awaitFinished() {
+    }
 }
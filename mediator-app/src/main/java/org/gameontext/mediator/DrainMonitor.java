@@ -0,0 +1,227 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedScheduledExecutorService;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.websocket.CloseReason;
+import javax.websocket.CloseReason.CloseCodes;
+
+import org.eclipse.microprofile.metrics.Gauge;
+import org.eclipse.microprofile.metrics.Metadata;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.MetricType;
+import org.eclipse.microprofile.metrics.MetricUnits;
+
+/**
+ * Keeps an eye on the drains writing to client sessions. A client that
+ * can't keep up leaves messages piling up in its drain's queue, which is
+ * where heap goes when a few connections fall behind.
+ * <p>
+ * Every {@link #sweepInterval} seconds, each drain's queue depth, the age of
+ * its oldest unwritten message, and its longest write are checked. A session
+ * over {@link #slowDepth} messages or {@link #slowAgeMillis} is flagged as slow.
+ * If {@link #slowDisconnect} is set, a session that is still slow after
+ * {@link #slowSweeps} consecutive sweeps is closed with {@link #SLOW_CONSUMER}:
+ * the client can reconnect, and will start over with an empty queue.
+ * </p>
+ * The results of the last sweep are published as {@code drain_*} gauges.
+ * <p>
+ * The monitor also sends the keep-alive ping to client sessions: one task
+ * walks all drains every {@link #pingInterval} seconds, rather than each
+ * session having its own scheduled task.
+ * </p>
+ */
+@ApplicationScoped
+public class DrainMonitor {
+
+    /** Close reason used for chronically slow clients */
+    public static final CloseReason SLOW_CONSUMER = new CloseReason(CloseCodes.TRY_AGAIN_LATER, "Too far behind");
+
+    @Inject
+    MetricRegistry metrics;
+
+    @Resource
+    ManagedScheduledExecutorService scheduledExecutor;
+
+    /** Seconds between sweeps */
+    long sweepInterval = 5;
+
+    /** A session with more messages than this waiting is slow */
+    long slowDepth = 1000;
+
+    /** A session with a message waiting longer than this (milliseconds) is slow */
+    long slowAgeMillis = 10000;
+
+    /** Number of consecutive slow sweeps before a session is disconnected */
+    long slowSweeps = 3;
+
+    /** Disconnect chronically slow sessions */
+    boolean slowDisconnect = false;
+
+    /** Seconds between keep-alive pings to client sessions */
+    long pingInterval = 2;
+
+    /** Seconds after a session opens before it is pinged */
+    long pingDelay = 50;
+
+    final Set<WSDrain> drains = ConcurrentHashMap.newKeySet();
+
+    /** Drains writing to remote rooms: only tracked until they stop */
+    final Set<WSDrain> roomDrains = ConcurrentHashMap.newKeySet();
+
+    final LongAdder disconnects = new LongAdder();
+
+    /** Results of the last sweep */
+    volatile Sweep last = new Sweep();
+
+    @PostConstruct
+    public void postConstruct() {
+        sweepInterval = Settings.getLong("drainSweepInterval", sweepInterval);
+        slowDepth = Settings.getLong("slowConsumerDepth", slowDepth);
+        slowAgeMillis = Settings.getLong("slowConsumerAge", slowAgeMillis);
+        slowSweeps = Settings.getLong("slowConsumerSweeps", slowSweeps);
+        slowDisconnect = Settings.getBoolean("slowConsumerDisconnect", slowDisconnect);
+
+        if ( metrics != null ) {
+            gauge("drain_sessions", MetricUnits.NONE, () -> last.sessions);
+            gauge("drain_queue_depth_total", MetricUnits.NONE, () -> last.totalDepth);
+            gauge("drain_queue_depth_max", MetricUnits.NONE, () -> last.maxDepth);
+            gauge("drain_oldest_age_max", MetricUnits.MILLISECONDS, () -> last.maxAgeMillis);
+            gauge("drain_write_latency_max", MetricUnits.MILLISECONDS, () -> last.maxWriteMillis);
+            gauge("drain_slow_sessions", MetricUnits.NONE, () -> last.slow);
+            gauge("drain_slow_disconnects", MetricUnits.NONE, disconnects::sum);
+        }
+        if ( scheduledExecutor != null ) {
+            scheduledExecutor.scheduleAtFixedRate(this::sweep, sweepInterval, sweepInterval, TimeUnit.SECONDS);
+            scheduledExecutor.scheduleAtFixedRate(this::ping, pingInterval, pingInterval, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Watch a drain writing to a client session. Drains are forgotten
+     * once they've been stopped.
+     * @param drain
+     */
+    public void watch(WSDrain drain) {
+        drains.add(drain);
+    }
+
+    /**
+     * Track a drain writing to a remote room, so a node that is shutting
+     * down can wait for it to finish (see {@link NodeDrain}).
+     * @param drain
+     */
+    public void watchRoom(WSDrain drain) {
+        roomDrains.add(drain);
+    }
+
+    /**
+     * @return number of remote room drains that have not stopped yet
+     */
+    public int openRoomDrains() {
+        roomDrains.removeIf(WSDrain::isStopped);
+        return roomDrains.size();
+    }
+
+    /**
+     * Check all drains: flag (and maybe disconnect) slow sessions,
+     * and update the gauges.
+     */
+    public void sweep() {
+        long now = System.nanoTime();
+        long slowAge = TimeUnit.MILLISECONDS.toNanos(slowAgeMillis);
+        Sweep sweep = new Sweep();
+        roomDrains.removeIf(WSDrain::isStopped);
+
+        for ( WSDrain drain : drains ) {
+            if ( drain.isStopped() ) {
+                drains.remove(drain);
+                continue;
+            }
+
+            int depth = drain.queueDepth();
+            long age = drain.oldestAge(now);
+            long write = drain.maxWriteNanos();
+            drain.resetMaxWriteNanos();
+
+            sweep.sessions++;
+            sweep.totalDepth += depth;
+            sweep.maxDepth = Math.max(sweep.maxDepth, depth);
+            sweep.maxAgeMillis = Math.max(sweep.maxAgeMillis, TimeUnit.NANOSECONDS.toMillis(age));
+            sweep.maxWriteMillis = Math.max(sweep.maxWriteMillis, TimeUnit.NANOSECONDS.toMillis(write));
+
+            if ( depth > slowDepth || age > slowAge ) {
+                sweep.slow++;
+                drain.slowSweeps++;
+
+                if ( drain.slowSweeps == 1 ) {
+                    Log.log(Level.INFO, this, "Slow session {0}: {1} messages waiting, oldest {2}ms",
+                            drain.getId(), depth, TimeUnit.NANOSECONDS.toMillis(age));
+                }
+                if ( slowDisconnect && drain.slowSweeps >= slowSweeps ) {
+                    Log.log(Level.INFO, this, "Disconnecting slow session {0} after {1} sweeps: {2} messages waiting, oldest {3}ms",
+                            drain.getId(), drain.slowSweeps, depth, TimeUnit.NANOSECONDS.toMillis(age));
+                    disconnects.increment();
+                    drains.remove(drain);
+                    drain.close(SLOW_CONSUMER);
+                }
+            } else {
+                drain.slowSweeps = 0;
+            }
+        }
+
+        last = sweep;
+    }
+
+    /**
+     * Send a keep-alive to each client session that has been open
+     * for at least {@link #pingDelay} seconds.
+     */
+    public void ping() {
+        long now = System.nanoTime();
+        long delay = TimeUnit.SECONDS.toNanos(pingDelay);
+
+        for ( WSDrain drain : drains ) {
+            long open = drain.openFor(now);
+            if ( !drain.isStopped() && open > 0 && open >= delay ) {
+                drain.send(RoutedMessage.PING_MSG);
+            }
+        }
+    }
+
+    private void gauge(String name, String unit, Gauge<Long> gauge) {
+        metrics.register(new Metadata(name, MetricType.GAUGE, unit), gauge);
+    }
+
+    static class Sweep {
+        long sessions;
+        long totalDepth;
+        long maxDepth;
+        long maxAgeMillis;
+        long maxWriteMillis;
+        long slow;
+    }
+}
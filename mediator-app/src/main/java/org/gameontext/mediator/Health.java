@@ -15,33 +15,36 @@
  *******************************************************************************/
 package org.gameontext.mediator;
 
-import javax.inject.Inject;
 import java.io.IOException;
+
+import javax.inject.Inject;
+import javax.json.Json;
+import javax.json.JsonWriter;
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import javax.ws.rs.GET;
-import javax.ws.rs.core.Response;
-
-import org.gameontext.mediator.kafka.KafkaCDIBridge;
+import javax.ws.rs.core.MediaType;
 
-@WebServlet("/health")
+/**
+ * Liveness and readiness, see {@link HealthChecks}.
+ * <ul>
+ * <li>{@code /health} and {@code /health/live}: 200 while the process is working,
+ *     503 if it should be restarted.</li>
+ * <li>{@code /health/ready}: 200 while this node should be sent new websocket
+ *     upgrades, 503 while it is overloaded.</li>
+ * </ul>
+ * Both return the details of the last probe as JSON, with a {@code status}
+ * that matches the check asked for.
+ */
+@WebServlet(urlPatterns = { "/health", "/health/live", "/health/ready" })
 public class Health extends HttpServlet {
 
     private static final long serialVersionUID = 1L;
 
     @Inject
-    KafkaCDIBridge cdiBridge;
-
-    @Inject
-    MapClient mapClient;
-
-    @GET
-    public Response basicGet() {
-        return Response.ok().build();
-    }
+    HealthChecks healthChecks;
 
    	/**
      * @throws java.io.IOException
@@ -49,12 +52,14 @@ public class Health extends HttpServlet {
      *      response)
      */
 	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
-        if ( cdiBridge.isHealthy() ) {
-            response.setStatus(200);
-            response.getWriter().append("{\"status\":\"UP\"}");
-        } else {
-            response.setStatus(503);
-            response.getWriter().append("{\"status\":\"DOWN\"}");
+        boolean readiness = "/health/ready".equals(request.getServletPath());
+        boolean up = readiness ? healthChecks.isReady() : healthChecks.isLive();
+
+        response.setStatus(up ? 200 : 503);
+        response.setContentType(MediaType.APPLICATION_JSON);
+        response.setCharacterEncoding("UTF-8");
+        try (JsonWriter writer = Json.createWriter(response.getWriter())) {
+            writer.writeObject(healthChecks.toJson(readiness));
         }
    }
 }
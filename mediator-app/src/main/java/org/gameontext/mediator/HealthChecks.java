@@ -0,0 +1,343 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedScheduledExecutorService;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.ws.rs.client.Invocation;
+
+import org.eclipse.microprofile.metrics.Gauge;
+import org.eclipse.microprofile.metrics.Metadata;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.MetricType;
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.gameontext.mediator.kafka.KafkaCDIBridge;
+
+/**
+ * Liveness and readiness of this mediator.
+ * <p>
+ * <b>Live</b> means the process is working: the kafka consumer exists and has
+ * polled recently, and the last probe (below) ran recently. Nothing outside
+ * this node is considered, so a sick map service doesn't get every mediator
+ * restarted.
+ * </p>
+ * <p>
+ * <b>Ready</b> means this node should be given new websocket upgrades. Every
+ * {@link #probeInterval} seconds we measure:
+ * <ul>
+ * <li>kafka consumer lag (records),</li>
+ * <li>how long a task waits for a thread in the managed executor, which also
+ *     runs the drains and room connections,</li>
+ * <li>the total number of messages waiting to be written to clients
+ *     (from the last {@link DrainMonitor} sweep).</li>
+ * </ul>
+ * If any of these is over its limit, the node becomes not ready. It becomes
+ * ready again once everything is back under {@link #RECOVERY} of its
+ * limit, so a node hovering at a limit doesn't flap in and out of the
+ * load balancer.
+ * </p>
+ * <p>
+ * Map and player service round trip times are measured and reported too,
+ * but are not a readiness limit: a slow or unreachable service is slow for
+ * every mediator, and taking all of them out of rotation would not help
+ * anyone. Those probes time out after {@link #probeTimeout} milliseconds,
+ * so a hung service can't stall the probe and fail liveness.
+ * </p>
+ * Limits of 0 disable that check. A node that is draining (see {@link NodeDrain})
+ * is never ready.
+ */
+@ApplicationScoped
+public class HealthChecks {
+
+    /** Limits must be cleared by this margin before we are ready again */
+    static final double RECOVERY = 0.8;
+
+    /** Liberty JAX-RS client properties for connect and read timeouts (milliseconds) */
+    static final String CONNECT_TIMEOUT = "com.ibm.ws.jaxrs.client.connection.timeout";
+    static final String RECEIVE_TIMEOUT = "com.ibm.ws.jaxrs.client.receive.timeout";
+
+    @Inject
+    MetricRegistry metrics;
+
+    @Inject
+    KafkaCDIBridge kafka;
+
+    @Inject
+    MapClient mapClient;
+
+    @Inject
+    PlayerClient playerClient;
+
+    @Inject
+    DrainMonitor drainMonitor;
+
+    @Inject
+    NodeDrain nodeDrain;
+
+    @Resource
+    ManagedScheduledExecutorService scheduledExecutor;
+
+    /** Seconds between probes */
+    long probeInterval = 10;
+
+    /** Live requires a kafka poll within this many seconds */
+    long livePollAge = 60;
+
+    /** Connect and read timeout (milliseconds) for the map and player service probes */
+    long probeTimeout = 2000;
+
+    /** Kafka consumer lag (records) above which we are not ready */
+    long maxKafkaLag = 10000;
+
+    /** Executor queueing delay (milliseconds) above which we are not ready */
+    long maxExecutorDelay = 1000;
+
+    /** Total messages waiting for clients above which we are not ready */
+    long maxQueued = 50000;
+
+    /** Result of the last probe */
+    volatile Probe last = new Probe();
+
+    /** Current readiness */
+    volatile boolean ready = true;
+
+    /** Why we aren't ready (null when ready) */
+    volatile String reason = null;
+
+    /** When the executor probe was last submitted, and when it last ran (System.nanoTime) */
+    volatile long executorSubmitted;
+    volatile long executorRan;
+
+    @PostConstruct
+    public void postConstruct() {
+        probeInterval = Settings.getLong("healthProbeInterval", probeInterval);
+        livePollAge = Settings.getLong("healthLivePollAge", livePollAge);
+        probeTimeout = Settings.getLong("healthProbeTimeout", probeTimeout);
+        maxKafkaLag = Settings.getLong("readyMaxKafkaLag", maxKafkaLag);
+        maxExecutorDelay = Settings.getLong("readyMaxExecutorDelay", maxExecutorDelay);
+        maxQueued = Settings.getLong("readyMaxQueued", maxQueued);
+
+        if ( metrics != null ) {
+            gauge("health_ready", MetricUnits.NONE, () -> ready ? 1L : 0L);
+            gauge("health_map_latency", MetricUnits.MILLISECONDS, () -> millis(last.mapNanos));
+            gauge("health_player_latency", MetricUnits.MILLISECONDS, () -> millis(last.playerNanos));
+            gauge("health_kafka_lag", MetricUnits.NONE, () -> last.kafkaLag);
+            gauge("health_executor_delay", MetricUnits.MILLISECONDS, () -> millis(last.executorNanos));
+        }
+        if ( scheduledExecutor != null ) {
+            scheduledExecutor.scheduleWithFixedDelay(this::probe, 0, probeInterval, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Measure everything, and update readiness.
+     */
+    public void probe() {
+        Probe p = new Probe();
+        p.executorNanos = executorDelay(System.nanoTime());
+        p.mapNanos = mapClient.probe(probeTimeout);
+        p.playerNanos = playerClient.probe(probeTimeout);
+        p.kafkaLag = kafka.getLag();
+        p.queued = drainMonitor.last.totalDepth;
+        p.sessions = drainMonitor.last.sessions;
+        p.when = System.nanoTime();
+
+        last = p;
+        update(p);
+
+        // measure how long this waits for a thread: read by the next probe
+        long submitted = System.nanoTime();
+        executorSubmitted = submitted;
+        if ( scheduledExecutor != null ) {
+            scheduledExecutor.execute(() -> executorRan = System.nanoTime());
+        }
+    }
+
+    /**
+     * @param now current System.nanoTime
+     * @return how long the last executor probe waited to run, or how long it
+     *     has been waiting so far if it hasn't run yet.
+     */
+    long executorDelay(long now) {
+        long submitted = executorSubmitted;
+        long ran = executorRan;
+        if ( submitted == 0 ) {
+            return 0;
+        }
+        return ran - submitted >= 0 ? ran - submitted : now - submitted;
+    }
+
+    /**
+     * Update readiness from a probe, with hysteresis:
+     * over a limit makes us not ready, and we don't become ready again until
+     * everything is back under {@link #RECOVERY} of its limit.
+     * @param p probe results
+     */
+    void update(Probe p) {
+        if ( ready ) {
+            String over = overLimit(p, 1.0);
+            if ( over != null ) {
+                Log.log(Level.WARNING, this, "Not ready: {0}", over);
+                reason = over;
+                ready = false;
+            }
+        } else {
+            String over = overLimit(p, RECOVERY);
+            if ( over == null ) {
+                Log.log(Level.INFO, this, "Ready again (was: {0})", reason);
+                reason = null;
+                ready = true;
+            } else {
+                reason = over;
+            }
+        }
+    }
+
+    /**
+     * @param p probe results
+     * @param scale fraction of each limit to compare against
+     * @return description of the first limit exceeded, or null
+     */
+    String overLimit(Probe p, double scale) {
+        if ( over(p.kafkaLag, maxKafkaLag, scale) )
+            return "kafka consumer lag " + p.kafkaLag;
+        if ( over(millis(p.executorNanos), maxExecutorDelay, scale) )
+            return "executor delay " + millis(p.executorNanos) + "ms";
+        if ( over(p.queued, maxQueued, scale) )
+            return p.queued + " messages waiting for clients";
+        return null;
+    }
+
+    private static boolean over(long value, long limit, double scale) {
+        return limit > 0 && value >= 0 && value > limit * scale;
+    }
+
+    /**
+     * @return true if the kafka consumer is polling, and probes are running.
+     *    Stale probes means the executor is wedged.
+     */
+    public boolean isLive() {
+        long maxAge = TimeUnit.SECONDS.toNanos(livePollAge);
+        if ( !kafka.isHealthy() || kafka.sinceLastPoll() > maxAge ) {
+            return false;
+        }
+        Probe p = last;
+        return p.when == 0 || System.nanoTime() - p.when < Math.max(maxAge, TimeUnit.SECONDS.toNanos(probeInterval * 3));
+    }
+
+    /**
+     * @return true if this node should accept new connections
+     */
+    public boolean isReady() {
+        return ready && !nodeDrain.isDraining() && isLive();
+    }
+
+    /**
+     * @return the reason we aren't ready, or null
+     */
+    public String getReason() {
+        return nodeDrain.isDraining() ? "draining" : reason;
+    }
+
+    /**
+     * @param readiness true for the readiness endpoint, false for liveness
+     * @return the last probe results as JSON, for the health endpoints.
+     *    {@code status} agrees with the HTTP status of the endpoint asked:
+     *    a live node that is draining is still "UP" on {@code /health}.
+     */
+    public JsonObject toJson(boolean readiness) {
+        Probe p = last;
+        boolean live = isLive();
+        boolean draining = nodeDrain.isDraining();
+        boolean isReady = ready && !draining && live;
+
+        JsonObjectBuilder checks = Json.createObjectBuilder()
+                .add("kafka", Json.createObjectBuilder()
+                        .add("status", status(kafka.isHealthy() && kafka.sinceLastPoll() < TimeUnit.SECONDS.toNanos(livePollAge)))
+                        .add("lastPollMillis", millis(kafka.sinceLastPoll()))
+                        .add("lag", p.kafkaLag))
+                .add("map", service(p.mapNanos))
+                .add("player", service(p.playerNanos))
+                .add("executor", Json.createObjectBuilder()
+                        .add("delayMillis", millis(p.executorNanos)))
+                .add("clients", Json.createObjectBuilder()
+                        .add("sessions", p.sessions)
+                        .add("queued", p.queued));
+
+        JsonObjectBuilder result = Json.createObjectBuilder()
+                .add("status", status(readiness ? isReady : live))
+                .add("live", live)
+                .add("ready", isReady)
+                .add("checks", checks);
+        if ( !live ) {
+            result.add("reason", "not live");
+        } else if ( draining ) {
+            result.add("reason", "draining");
+        } else if ( reason != null ) {
+            result.add("reason", reason);
+        }
+        return result.build();
+    }
+
+    /**
+     * Set Liberty's JAX-RS client connect and read timeouts on one request
+     * @param request
+     * @param millis timeout in milliseconds
+     * @return the request
+     */
+    static Invocation.Builder withTimeout(Invocation.Builder request, long millis) {
+        return request.property(CONNECT_TIMEOUT, millis).property(RECEIVE_TIMEOUT, millis);
+    }
+
+    private static JsonObjectBuilder service(long nanos) {
+        JsonObjectBuilder b = Json.createObjectBuilder().add("status", status(nanos >= 0));
+        if ( nanos >= 0 ) {
+            b.add("latencyMillis", millis(nanos));
+        }
+        return b;
+    }
+
+    private static String status(boolean up) {
+        return up ? "UP" : "DOWN";
+    }
+
+    private static long millis(long nanos) {
+        return nanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    private void gauge(String name, String unit, Gauge<Long> gauge) {
+        metrics.register(new Metadata(name, MetricType.GAUGE, unit), gauge);
+    }
+
+    static class Probe {
+        long when;
+        long mapNanos = -1;
+        long playerNanos = -1;
+        long kafkaLag = -1;
+        long executorNanos;
+        long queued;
+        long sessions;
+    }
+}
@@ -0,0 +1,167 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.eclipse.microprofile.metrics.Gauge;
+import org.eclipse.microprofile.metrics.Metadata;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.MetricType;
+import org.eclipse.microprofile.metrics.MetricUnits;
+
+/**
+ * Time messages spend in the mediator: from the moment a message is decoded
+ * (see {@link RoutedMessageDecoder}) to the moment it has been written to the
+ * other side (see {@link WSDrain}). This includes time spent waiting in the
+ * drain's queue, which the {@code @Timed} metrics on the endpoint don't see.
+ * <p>
+ * Latencies are kept per direction, and per room bucket (room ids are hashed
+ * into a small, fixed number of buckets to keep the number of metrics down).
+ * Gauges for p50/p99/p999 (microseconds) and the sample count report the most
+ * recently completed interval.
+ * </p>
+ */
+@ApplicationScoped
+public class HopLatency {
+
+    public enum Hop {
+        /** C -> M -> R */
+        CLIENT_TO_ROOM("c2r"),
+        /** R -> M -> C */
+        ROOM_TO_CLIENT("r2c");
+
+        final String metricName;
+
+        Hop(String metricName) {
+            this.metricName = metricName;
+        }
+    }
+
+    /** Number of room buckets per direction */
+    static final int ROOM_BUCKETS = 8;
+
+    /** Length of the interval reported by the gauges */
+    static final long INTERVAL = TimeUnit.SECONDS.toNanos(60);
+
+    @Inject
+    MetricRegistry metrics;
+
+    final Map<Hop, Interval> all = new EnumMap<>(Hop.class);
+    final Map<Hop, Interval[]> byRoom = new EnumMap<>(Hop.class);
+
+    public HopLatency() {
+        for ( Hop hop : Hop.values() ) {
+            all.put(hop, new Interval());
+
+            Interval[] buckets = new Interval[ROOM_BUCKETS];
+            for ( int i = 0; i < ROOM_BUCKETS; i++ ) {
+                buckets[i] = new Interval();
+            }
+            byRoom.put(hop, buckets);
+        }
+    }
+
+    @PostConstruct
+    public void postConstruct() {
+        if ( metrics == null )
+            return;
+
+        for ( Hop hop : Hop.values() ) {
+            String prefix = "hop_latency_" + hop.metricName;
+            register(prefix, all.get(hop));
+
+            Interval[] buckets = byRoom.get(hop);
+            for ( int i = 0; i < buckets.length; i++ ) {
+                register(prefix + "_room" + i, buckets[i]);
+            }
+        }
+    }
+
+    /**
+     * Record the time between ingress and now for a message that has
+     * just been written.
+     *
+     * @param hop direction the message was travelling
+     * @param message the message, ignored if it was created by the mediator (no ingress time)
+     */
+    public void record(Hop hop, RoutedMessage message) {
+        long ingress = message.getIngressNanos();
+        if ( ingress == 0 )
+            return;
+
+        long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - ingress);
+        if ( micros < 0 )
+            return;
+
+        String roomId = hop == Hop.CLIENT_TO_ROOM ? message.getDestination() : message.getSourceRoom();
+
+        all.get(hop).recorder.recordValue(micros);
+        if ( roomId != null ) {
+            byRoom.get(hop)[bucket(roomId)].recorder.recordValue(micros);
+        }
+    }
+
+    /**
+     * @param roomId
+     * @return the bucket for this room's latencies (see the {@code _room<n>} metrics)
+     */
+    public static int bucket(String roomId) {
+        return Math.floorMod(roomId.hashCode(), ROOM_BUCKETS);
+    }
+
+    private void register(String prefix, Interval interval) {
+        gauge(prefix + "_p50", interval, h -> h.getValueAtPercentile(50));
+        gauge(prefix + "_p99", interval, h -> h.getValueAtPercentile(99));
+        gauge(prefix + "_p999", interval, h -> h.getValueAtPercentile(99.9));
+
+        Gauge<Long> count = () -> interval.snapshot().getTotalCount();
+        metrics.register(new Metadata(prefix + "_count", MetricType.GAUGE, MetricUnits.NONE), count);
+    }
+
+    private void gauge(String name, Interval interval, ToLongFunction<Histogram> value) {
+        Gauge<Long> gauge = () -> value.applyAsLong(interval.snapshot());
+        metrics.register(new Metadata(name, MetricType.GAUGE, MetricUnits.MICROSECONDS), gauge);
+    }
+
+    /**
+     * Latencies recorded without locking; the histogram reported is swapped
+     * out when it is read and the current interval is over.
+     */
+    static class Interval {
+        final Recorder recorder = new Recorder(3);
+        Histogram last = new Histogram(3);
+        long lastSwap = System.nanoTime();
+
+        synchronized Histogram snapshot() {
+            long now = System.nanoTime();
+            if ( now - lastSwap >= INTERVAL ) {
+                last = recorder.getIntervalHistogram();
+                lastSwap = now;
+            }
+            return last;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.gameontext.signed.SignedJWT;
+
+import io.jsonwebtoken.Claims;
+
+/**
+ * Remembers client JWTs we've already verified, along with the server JWT
+ * we derived from each. A player reconnecting from a flaky network, or with
+ * several tabs open, presents the same token again and again: checking its
+ * signature and signing a new server JWT every time makes a reconnect storm
+ * RSA-bound.
+ * <p>
+ * Entries are keyed by a digest of the token (so only an exact match hits),
+ * and are dropped {@link #margin} seconds before the client JWT expires, or
+ * after {@link #ttl} seconds, whichever is first. The cap on age also bounds
+ * the life of the cached server JWT, whose expiry we don't look inside.
+ * Only valid tokens are cached.
+ * </p>
+ * At most {@link #maxEntries} tokens are kept. When full, expired entries are
+ * swept out; if that doesn't make room, new tokens just aren't cached.
+ */
+@ApplicationScoped
+public class JwtCache {
+
+    @Inject
+    MetricRegistry metrics;
+
+    /** Maximum number of cached tokens (0 disables the cache) */
+    long maxEntries = 10000;
+
+    /** Maximum time a token is cached (seconds) */
+    long ttl = 300;
+
+    /** Entries expire this many seconds before the client JWT does */
+    long margin = 60;
+
+    final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void postConstruct() {
+        maxEntries = Settings.getLong("jwtCacheSize", maxEntries);
+        ttl = Settings.getLong("jwtCacheTtl", ttl);
+        margin = Settings.getLong("jwtCacheMargin", margin);
+    }
+
+    /**
+     * @param token client JWT, as presented on the websocket URL
+     * @return the cached verification of this exact token, or null
+     */
+    public Entry get(String token) {
+        if ( maxEntries <= 0 || token == null || token.isEmpty() )
+            return null;
+
+        String key = digest(token);
+        Entry e = entries.get(key);
+        if ( e != null && e.expired(System.currentTimeMillis()) ) {
+            entries.remove(key, e);
+            e = null;
+        }
+        count(e == null ? "jwt_cache_miss" : "jwt_cache_hit");
+        return e;
+    }
+
+    /**
+     * Cache a verified client JWT and the server JWT derived from it.
+     * Invalid tokens, or tokens close to expiry, are not cached.
+     *
+     * @param token client JWT, as presented on the websocket URL
+     * @param clientJwt verified client JWT
+     * @param serverJwt server JWT derived from the client JWT
+     */
+    public void put(String token, SignedJWT clientJwt, String serverJwt) {
+        if ( maxEntries <= 0 || token == null || token.isEmpty() || clientJwt == null || !clientJwt.isValid() )
+            return;
+
+        long now = System.currentTimeMillis();
+        long expires = now + TimeUnit.SECONDS.toMillis(ttl);
+
+        Claims claims = clientJwt.getClaims();
+        Date exp = claims == null ? null : claims.getExpiration();
+        if ( exp != null ) {
+            expires = Math.min(expires, exp.getTime() - TimeUnit.SECONDS.toMillis(margin));
+        }
+        if ( expires <= now )
+            return;
+
+        if ( entries.size() >= maxEntries ) {
+            entries.values().removeIf(e -> e.expired(now));
+            if ( entries.size() >= maxEntries )
+                return;
+        }
+
+        entries.put(digest(token), new Entry(clientJwt, serverJwt, expires));
+    }
+
+    /**
+     * @param token client JWT
+     * @return SHA-256 digest of the token
+     */
+    static String digest(String token) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            return Base64.getEncoder().encodeToString(md.digest(token.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            // every JVM has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void count(String name) {
+        if ( metrics != null ) {
+            metrics.counter(name).inc();
+        }
+    }
+
+    /**
+     * A verified client JWT and the server JWT derived from it
+     */
+    public static class Entry {
+        final SignedJWT clientJwt;
+        final String serverJwt;
+        final long expires;
+
+        Entry(SignedJWT clientJwt, String serverJwt, long expires) {
+            this.clientJwt = clientJwt;
+            this.serverJwt = serverJwt;
+            this.expires = expires;
+        }
+
+        public SignedJWT getClientJwt() {
+            return clientJwt;
+        }
+
+        public String getServerJwt() {
+            return serverJwt;
+        }
+
+        boolean expired(long now) {
+            return now >= expires;
+        }
+    }
+}
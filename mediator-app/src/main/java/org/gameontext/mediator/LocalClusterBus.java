@@ -0,0 +1,71 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import org.gameontext.mediator.room.RoomMediator;
+
+/**
+ * A {@link ClusterBus} connecting nexus instances in the same JVM: each
+ * {@code LocalClusterBus} is one node, and nodes sharing a {@link Hub}
+ * see each other's broadcasts. Used to run several "nodes" in one test.
+ * Delivery is synchronous, on the publishing thread.
+ */
+public class LocalClusterBus implements ClusterBus {
+
+    /**
+     * The nodes of one in-JVM cluster
+     */
+    public static class Hub {
+        final Set<LocalClusterBus> nodes = new CopyOnWriteArraySet<>();
+    }
+
+    private final Hub hub;
+    private volatile Receiver receiver;
+
+    /**
+     * Create a node, and join it to the hub
+     * @param hub the cluster
+     */
+    public LocalClusterBus(Hub hub) {
+        this.hub = hub;
+        hub.nodes.add(this);
+    }
+
+    @Override
+    public void publish(String roomId, RoomMediator.Type type, RoutedMessage message) {
+        for ( LocalClusterBus node : hub.nodes ) {
+            Receiver r = node.receiver;
+            if ( node != this && r != null ) {
+                r.receive(roomId, type, message);
+            }
+        }
+    }
+
+    @Override
+    public void setReceiver(Receiver receiver) {
+        this.receiver = receiver;
+    }
+
+    /**
+     * Leave the hub
+     */
+    public void close() {
+        hub.nodes.remove(this);
+    }
+}
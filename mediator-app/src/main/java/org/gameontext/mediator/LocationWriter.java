@@ -0,0 +1,143 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+
+/**
+ * Writes one player's location to the player service, without holding up
+ * their pod: the pod moves the player right away, and tells the writer
+ * where they went.
+ * <p>
+ * There is at most one update in flight for the player. Moves made while it
+ * is in flight are collapsed: only the latest location is written next, from
+ * the location the player service last confirmed. If the player service
+ * comes back with a different location (another device won the race, or the
+ * update failed), nothing queued behind it is written, and the pod is told
+ * to catch up (see {@link Conflict}).
+ * </p>
+ */
+public class LocationWriter {
+
+    /** Told when the player service disagrees with where the player was moved */
+    public interface Conflict {
+        /**
+         * @param from location the player was moved from
+         * @param to location the player was moved to
+         * @param actual location the player service has for the player
+         */
+        void conflict(String from, String to, String actual);
+    }
+
+    private final PlayerClient playerClient;
+    private final String userId;
+    private final Executor executor;
+    private final Conflict conflict;
+
+    /** Last location confirmed by the player service (guarded by this) */
+    private String confirmed;
+
+    /** Location still to be written, or null (guarded by this) */
+    private String wanted;
+
+    /** Server jwt to write with (guarded by this) */
+    private String jwt;
+
+    /** True while an update is queued or in flight (guarded by this) */
+    private boolean writing = false;
+
+    public LocationWriter(PlayerClient playerClient, String userId, Executor executor, Conflict conflict) {
+        this.playerClient = playerClient;
+        this.userId = userId;
+        this.executor = executor;
+        this.conflict = conflict;
+    }
+
+    /**
+     * The player has been moved: write the new location (eventually)
+     * @param from location the player was moved from
+     * @param to location the player was moved to
+     * @param jwt server jwt for the player
+     */
+    public void moved(String from, String to, String jwt) {
+        synchronized (this) {
+            if ( !writing ) {
+                confirmed = from;
+            }
+            wanted = to;
+            this.jwt = jwt;
+            if ( writing ) {
+                return; // picked up when the update in flight is done
+            }
+            writing = true;
+        }
+
+        try {
+            executor.execute(this::write);
+        } catch (RejectedExecutionException e) {
+            // executor is going away: do the work here
+            write();
+        }
+    }
+
+    /**
+     * Write the latest location until there's nothing more to write
+     */
+    private void write() {
+        while ( true ) {
+            String from, to, token;
+            synchronized (this) {
+                if ( wanted == null || wanted.equals(confirmed) ) {
+                    // nothing to write, or moved back to where the player service already has them
+                    wanted = null;
+                    writing = false;
+                    return;
+                }
+                from = confirmed;
+                to = wanted;
+                token = jwt;
+                wanted = null;
+            }
+
+            String actual = null;
+            try {
+                actual = playerClient.updatePlayerLocation(userId, token, from, to);
+            } catch (RuntimeException e) {
+                Log.log(Level.WARNING, this, "Uncaught exception updating location for " + userId, e);
+            }
+            if ( actual == null ) {
+                actual = from;
+            }
+
+            boolean agreed = actual.equals(to);
+            synchronized (this) {
+                confirmed = actual;
+                if ( !agreed ) {
+                    // the player service wins: later moves started from the wrong place
+                    wanted = null;
+                    writing = false;
+                }
+            }
+
+            if ( !agreed ) {
+                conflict.conflict(from, to, actual);
+                return;
+            }
+        }
+    }
+}
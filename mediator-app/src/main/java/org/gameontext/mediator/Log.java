@@ -15,29 +15,106 @@
  *******************************************************************************/
 package org.gameontext.mediator;
 
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 import java.util.logging.Level;
+import java.util.logging.LogRecord;
 import java.util.logging.Logger;
 
 /**
  * Wrapper to provide a single logger with a consistent format that helps
  * identify different endpoints in the messages
- *
+ * <p>
+ * Log events are captured as records (level, category, source, message
+ * pattern, arguments, time and thread). Once {@link #startAsync(ThreadFactory, int)}
+ * has been called, they are handed to a writer thread through a ring of
+ * preallocated records, and formatted there. Until then (and for warnings
+ * and errors that don't fit in the ring), they are written right away.
+ * </p>
+ * <p>
+ * Each {@link Category} can be sampled: with a rate of {@code n}, one event
+ * in {@code n} is kept. Warnings and errors are never sampled out. Use {@link #route(Object, String, Object)} and its
+ * fixed-arity siblings for per-message trace: an event that is not enabled or
+ * is sampled out costs a level check and a random number, no allocation.
+ * </p>
+ * Message arguments are formatted later, on the writer thread: pass values
+ * that won't change, like {@link RoutedMessage}s and ids.
  */
 public class Log {
     private final static Logger log = Logger.getLogger("org.gameontext.mediator");
-    private static final String endpoint_log_format = ": %-8x : %s";
+
+    public enum Category {
+        /** Everything else: connection and room lifecycle, errors */
+        GENERAL(1),
+        /**
+         * Trace for every message that passes through the mediator. Sampled
+         * by default: with all trace enabled, one event per message would
+         * otherwise fill the ring and crowd out everything else.
+         */
+        ROUTING(100);
+
+        /** Keep one event in this many unless configured otherwise */
+        final int defaultSampling;
+
+        Category(int defaultSampling) {
+            this.defaultSampling = defaultSampling;
+        }
+    }
+
+    /** Keep one event in n, by category */
+    private static final Map<Category, Integer> sampling = new EnumMap<>(Category.class);
+    private static volatile int[] sampleRates = new int[Category.values().length];
+    static {
+        for ( Category c : Category.values() ) {
+            sampling.put(c, c.defaultSampling);
+            sampleRates[c.ordinal()] = c.defaultSampling;
+        }
+    }
+
+    private static volatile AsyncWriter writer;
 
     public static void log(Level level, Object source, String message, Object... args) {
-        if (log.isLoggable(level)) {
-            String msg = String.format(endpoint_log_format, getHash(source), message);
-            log.log(useLevel(level), msg, args);
+        if (log.isLoggable(level) && sampled(level, Category.GENERAL)) {
+            write(level, Category.GENERAL, source, message, args, null);
         }
     }
 
     public static void log(Level level, Object source, String message, Throwable thrown) {
-        if (log.isLoggable(level)) {
-            String msg = String.format(endpoint_log_format, getHash(source), message);
-            log.log(useLevel(level), msg, thrown);
+        if (log.isLoggable(level) && sampled(level, Category.GENERAL)) {
+            write(level, Category.GENERAL, source, message, null, thrown);
+        }
+    }
+
+    /**
+     * Per-message trace (FINEST, {@link Category#ROUTING})
+     */
+    public static void route(Object source, String message, Object arg) {
+        if (log.isLoggable(Level.FINEST) && sampled(Level.FINEST, Category.ROUTING)) {
+            write(Level.FINEST, Category.ROUTING, source, message, new Object[] { arg }, null);
+        }
+    }
+
+    /**
+     * Per-message trace (FINEST, {@link Category#ROUTING})
+     */
+    public static void route(Object source, String message, Object arg0, Object arg1) {
+        if (log.isLoggable(Level.FINEST) && sampled(Level.FINEST, Category.ROUTING)) {
+            write(Level.FINEST, Category.ROUTING, source, message, new Object[] { arg0, arg1 }, null);
+        }
+    }
+
+    /**
+     * Per-message trace (FINEST, {@link Category#ROUTING})
+     */
+    public static void route(Object source, String message, Object arg0, Object arg1, Object arg2) {
+        if (log.isLoggable(Level.FINEST) && sampled(Level.FINEST, Category.ROUTING)) {
+            write(Level.FINEST, Category.ROUTING, source, message, new Object[] { arg0, arg1, arg2 }, null);
         }
     }
 
@@ -49,6 +126,101 @@ public class Log {
         return source == null ? 0 : System.identityHashCode(source);
     }
 
+    /**
+     * @param category
+     * @param oneIn keep one event in this many (1 keeps everything, 0 or less drops everything)
+     */
+    public static synchronized void setSampling(Category category, int oneIn) {
+        sampling.put(category, oneIn);
+        int[] rates = new int[Category.values().length];
+        for ( Map.Entry<Category, Integer> e : sampling.entrySet() ) {
+            rates[e.getKey().ordinal()] = e.getValue();
+        }
+        sampleRates = rates;
+    }
+
+    /**
+     * Start writing log events on a separate thread.
+     * @param threadFactory used to create the writer thread
+     * @param capacity number of preallocated records (rounded up to a power of two)
+     */
+    public static synchronized void startAsync(ThreadFactory threadFactory, int capacity) {
+        if ( writer != null )
+            return;
+
+        AsyncWriter w = new AsyncWriter(capacity);
+        w.thread = threadFactory.newThread(w);
+        w.thread.setDaemon(true);
+        w.thread.start();
+        writer = w;
+    }
+
+    /**
+     * Write out anything still queued, and go back to writing events
+     * on the caller's thread.
+     */
+    public static synchronized void stopAsync() {
+        AsyncWriter w = writer;
+        writer = null;
+        if ( w != null ) {
+            w.stop();
+        }
+    }
+
+    /**
+     * @return number of events dropped because the writer couldn't keep up
+     */
+    public static long dropped() {
+        AsyncWriter w = writer;
+        return w == null ? 0 : w.dropped.sum();
+    }
+
+    private static boolean sampled(Level level, Category category) {
+        if ( level.intValue() >= Level.WARNING.intValue() ) {
+            // warnings and errors are always kept
+            return true;
+        }
+        int oneIn = sampleRates[category.ordinal()];
+        return oneIn == 1 || (oneIn > 1 && ThreadLocalRandom.current().nextInt(oneIn) == 0);
+    }
+
+    private static void write(Level level, Category category, Object source, String message, Object[] args, Throwable thrown) {
+        AsyncWriter w = writer;
+        if ( w != null && w.offer(level, source, message, args, thrown) ) {
+            return;
+        }
+
+        if ( w != null && level.intValue() < Level.WARNING.intValue() ) {
+            // writer is behind: trace and info are expendable
+            return;
+        }
+
+        LogRecord record = record(level, getHash(source), source == null ? null : source.getClass().getName(), message, args, thrown);
+        log.log(record);
+    }
+
+    static LogRecord record(Level level, int hash, String sourceClass, String message, Object[] args, Throwable thrown) {
+        LogRecord record = new LogRecord(useLevel(level), prefix(hash).append(message).toString());
+        record.setLoggerName(log.getName());
+        record.setSourceClassName(sourceClass);
+        record.setSourceMethodName("");
+        record.setParameters(args);
+        record.setThrown(thrown);
+        return record;
+    }
+
+    /**
+     * Same as {@code String.format(": %-8x : ", hash)}, without the format parsing
+     */
+    static StringBuilder prefix(int hash) {
+        String hex = Integer.toHexString(hash);
+        StringBuilder sb = new StringBuilder(80).append(": ").append(hex);
+        for ( int i = hex.length(); i < 8; i++ ) {
+            sb.append(' ');
+        }
+        return sb.append(" : ");
+    }
+
     /**
      * This bumps enabled trace up to INFO level, so it appears in messages.log
      * @param level Original level
@@ -60,4 +232,135 @@ public class Log {
         }
         return level;
     }
+
+    /**
+     * Multiple producers, one consumer. Producers claim a sequence number,
+     * fill in the record at that position in the ring, and publish it by
+     * setting its sequence. The writer thread takes records in sequence
+     * order, and frees their position in the ring once they've been written.
+     * If the ring is full, trace and info events are dropped rather than
+     * making the caller wait; warnings and errors are written on the caller's thread.
+     */
+    static class AsyncWriter implements Runnable {
+        static final long MAX_PARK = TimeUnit.MILLISECONDS.toNanos(10);
+
+        final Event[] ring;
+        final int mask;
+        final AtomicLong claimed = new AtomicLong();
+        final LongAdder dropped = new LongAdder();
+
+        /** Next sequence to be written */
+        volatile long consumed = 0;
+        volatile boolean running = true;
+        Thread thread;
+
+        AsyncWriter(int capacity) {
+            int size = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+            ring = new Event[size];
+            for ( int i = 0; i < size; i++ ) {
+                ring[i] = new Event();
+            }
+            mask = size - 1;
+        }
+
+        boolean offer(Level level, Object source, String message, Object[] args, Throwable thrown) {
+            long seq;
+            do {
+                seq = claimed.get();
+                if ( seq - consumed >= ring.length ) {
+                    if ( level.intValue() < Level.WARNING.intValue() ) {
+                        // warnings and errors are written right away instead
+                        dropped.increment();
+                    }
+                    return false;
+                }
+            } while ( !claimed.compareAndSet(seq, seq + 1) );
+
+            Event e = ring[(int) seq & mask];
+            e.level = level;
+            e.hash = getHash(source);
+            e.sourceClass = source == null ? null : source.getClass().getName();
+            e.message = message;
+            e.args = args;
+            e.thrown = thrown;
+            e.millis = System.currentTimeMillis();
+            e.threadId = (int) Thread.currentThread().getId();
+            e.sequence = seq; // publish
+            return true;
+        }
+
+        @Override
+        public void run() {
+            long park = 1000;
+            long reportedDrops = 0;
+
+            while ( true ) {
+                if ( drain() > 0 ) {
+                    park = 1000;
+                } else if ( !running ) {
+                    break;
+                } else {
+                    LockSupport.parkNanos(this, park);
+                    park = Math.min(park * 2, MAX_PARK);
+                }
+
+                long drops = dropped.sum();
+                if ( drops != reportedDrops ) {
+                    log.log(Level.WARNING, prefix(getHash(this)).append("{0} log events dropped").toString(), drops - reportedDrops);
+                    reportedDrops = drops;
+                }
+            }
+        }
+
+        /**
+         * @return number of events written
+         */
+        int drain() {
+            int count = 0;
+            long next = consumed;
+            Event e = ring[(int) next & mask];
+            while ( e.sequence == next ) {
+                LogRecord record = record(e.level, e.hash, e.sourceClass, e.message, e.args, e.thrown);
+                record.setMillis(e.millis);
+                record.setThreadID(e.threadId);
+                e.clear();
+                consumed = ++next;
+                count++;
+
+                log.log(record);
+                e = ring[(int) next & mask];
+            }
+            return count;
+        }
+
+        void stop() {
+            running = false;
+            LockSupport.unpark(thread);
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /** A preallocated log record */
+    static final class Event {
+        volatile long sequence = -1;
+        Level level;
+        int hash;
+        String sourceClass;
+        String message;
+        Object[] args;
+        Throwable thrown;
+        long millis;
+        int threadId;
+
+        void clear() {
+            sourceClass = null;
+            message = null;
+            args = null;
+            thrown = null;
+        }
+    }
 }
@@ -0,0 +1,54 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedThreadFactory;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.Destroyed;
+import javax.enterprise.context.Initialized;
+import javax.enterprise.event.Observes;
+
+import org.gameontext.mediator.Log.Category;
+
+/**
+ * Applies logging settings when the application starts: whether log
+ * events are written on a separate thread (and how many can be waiting),
+ * and the sampling rate for each {@link Category}.
+ * This bean is self-creating by monitoring the Initialized event for the
+ * ApplicationScope.
+ */
+@ApplicationScoped
+public class LogConfiguration {
+
+    @Resource
+    ManagedThreadFactory threadFactory;
+
+    public void init(@Observes @Initialized(ApplicationScoped.class) Object init) {
+        for ( Category category : Category.values() ) {
+            String name = "logSample" + category.name().charAt(0) + category.name().substring(1).toLowerCase();
+            Log.setSampling(category, (int) Settings.getLong(name, category.defaultSampling));
+        }
+
+        if ( Settings.getBoolean("logAsync", true) && threadFactory != null ) {
+            Log.startAsync(threadFactory, (int) Settings.getLong("logBufferSize", 8192));
+        }
+    }
+
+    public void destroy(@Observes @Destroyed(ApplicationScoped.class) Object init) {
+        Log.stopAsync();
+    }
+}
@@ -18,16 +18,11 @@ package org.gameontext.mediator;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.io.UnsupportedEncodingException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.util.Base64;
-import java.util.StringTokenizer;
 import java.util.logging.Level;
 import java.util.stream.Stream;
 
-import javax.naming.InitialContext;
-import javax.naming.NamingException;
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
@@ -96,109 +91,70 @@ public class LogView extends HttpServlet {
     @Override
     protected void doGet(HttpServletRequest request, HttpServletResponse response)
             throws ServletException, IOException {
-        String authHeader = request.getHeader("Authorization");
-        if (authHeader != null) {
-            StringTokenizer st = new StringTokenizer(authHeader);
-            if (st.hasMoreTokens()) {
-                String basic = st.nextToken();
-
-                if (basic.equalsIgnoreCase("Basic")) {
-                    try {
-                        String credentials = new String(Base64.getDecoder().decode(st.nextToken()));
-                        int p = credentials.indexOf(":");
-                        if (p != -1) {
-                            String login = credentials.substring(0, p).trim();
-                            String password = credentials.substring(p + 1).trim();
-
-                            String expectedPassword;
-                            try {
-                                expectedPassword = (String) new InitialContext().lookup("mapApiKey");
-                            } catch (NamingException e) {
-                                response.sendError(HttpServletResponse.SC_FORBIDDEN,
-                                        "unable to obtain pw to auth against");
-                                return;
-                            }
-
-                            if ("admin".equals(login) && expectedPassword.equals(password)) {
-
-                                String cmd = request.getParameter("cmd");
-                                PrintWriter out = response.getWriter();
-
-                                if ("list".equals(cmd)) {
-                                    response.addHeader("Content-Type", MediaType.TEXT_HTML);
-                                    String outdir = System.getenv("WLP_OUTPUT_DIR");
-                                    out.println("WLP_OUTPUT_DIR: " + String.valueOf(outdir) + "<br>");
-                                    if (outdir != null) {
-                                        listFilesInDir(out, outdir, "o");
-                                    }
-                                    String logdir = System.getenv("X_LOG_DIR");
-                                    if (logdir != null) {
-                                        out.println("X_LOG_DIR: " + String.valueOf(logdir) + "<br>");
-                                        listFilesInDir(out, logdir, "l");
+        if ( !AdminAuth.check(request, response, "Ozzy LogView") ) {
+            return;
+        }
 
-                                        String ffdcDir = new File(new File(logdir), "ffdc").getAbsolutePath();
-                                        out.println("FFDC_DIR: " + String.valueOf(ffdcDir) + "<br>");
-                                        listFilesInDir(out, ffdcDir, "f");
-                                    } else {
-                                        // going to try default location..
-                                        out.println("LOG_DIR set as WLP_OUTPUT_DIR/defaultServer/logs" + "<br>");
-                                        logdir = Paths.get(outdir, "defaultServer", "logs").toString();
-                                        listFilesInDir(out, logdir, "l");
+        String cmd = request.getParameter("cmd");
+        PrintWriter out = response.getWriter();
 
-                                        String ffdcDir = new File(new File(logdir), "ffdc").getAbsolutePath();
-                                        out.println("FFDC_DIR: " + String.valueOf(ffdcDir) + "<br>");
-                                        listFilesInDir(out, ffdcDir, "f");
-                                    }
-                                } else if ("view".equals(cmd)) {
-                                    response.addHeader("Content-Type", MediaType.TEXT_PLAIN);
-                                    String choice = request.getParameter("choice");
-                                    if (choice != null) {
-                                        if (choice.startsWith("o")) {
-                                            String outdir = System.getenv("WLP_OUTPUT_DIR");
-                                            viewFile(out, outdir, choice.substring(1).trim());
-                                        } else if (choice.startsWith("l")) {
-                                            String logdir = System.getenv("X_LOG_DIR");
-                                            if (logdir == null) {
-                                                String outdir = System.getenv("WLP_OUTPUT_DIR");
-                                                logdir = Paths.get(outdir, "defaultServer", "logs").toString();
-                                            }
-                                            viewFile(out, logdir, choice.substring(1).trim());
-                                        } else if (choice.startsWith("f")) {
-                                            String logdir = System.getenv("X_LOG_DIR");
-                                            if (logdir == null) {
-                                                String outdir = System.getenv("WLP_OUTPUT_DIR");
-                                                logdir = Paths.get(outdir, "defaultServer", "logs").toString();
-                                            }
-                                            String ffdcDir = new File(new File(logdir), "ffdc").getAbsolutePath();
-                                            viewFile(out, ffdcDir, choice.substring(1).trim());
-                                        }
-                                    } else {
-                                        response.sendError(HttpServletResponse.SC_BAD_REQUEST,
-                                                "view cmd requires choice param");
-                                    }
-                                } else {
-                                    response.addHeader("Content-Type", MediaType.TEXT_HTML);
-                                    out.println("<center><h1>Welcome to LogView.</h1></center>"
-                                            + "<center>Your friendly logging choice.</center><hr><p><p><center>This logging console is shoeware, you may use it, but you must buy Ozzy shoes.</center><p><p>");
-                                    out.println("<center><a href=\"?cmd=list\">Take me to the logs!!... </a></center>");
-                                }
-                            }
-                        } else {
-                            response.sendError(HttpServletResponse.SC_FORBIDDEN,
-                                    "badly formed auth header.");
-                            return;
-                        }
-                    } catch (UnsupportedEncodingException e) {
-                        response.sendError(HttpServletResponse.SC_FORBIDDEN,
-                                "Error decoding auth");
-                        return;
+        if ("list".equals(cmd)) {
+            response.addHeader("Content-Type", MediaType.TEXT_HTML);
+            String outdir = System.getenv("WLP_OUTPUT_DIR");
+            out.println("WLP_OUTPUT_DIR: " + String.valueOf(outdir) + "<br>");
+            if (outdir != null) {
+                listFilesInDir(out, outdir, "o");
+            }
+            String logdir = System.getenv("X_LOG_DIR");
+            if (logdir != null) {
+                out.println("X_LOG_DIR: " + String.valueOf(logdir) + "<br>");
+                listFilesInDir(out, logdir, "l");
+
+                String ffdcDir = new File(new File(logdir), "ffdc").getAbsolutePath();
+                out.println("FFDC_DIR: " + String.valueOf(ffdcDir) + "<br>");
+                listFilesInDir(out, ffdcDir, "f");
+            } else {
+                // going to try default location..
+                out.println("LOG_DIR set as WLP_OUTPUT_DIR/defaultServer/logs" + "<br>");
+                logdir = Paths.get(outdir, "defaultServer", "logs").toString();
+                listFilesInDir(out, logdir, "l");
+
+                String ffdcDir = new File(new File(logdir), "ffdc").getAbsolutePath();
+                out.println("FFDC_DIR: " + String.valueOf(ffdcDir) + "<br>");
+                listFilesInDir(out, ffdcDir, "f");
+            }
+        } else if ("view".equals(cmd)) {
+            response.addHeader("Content-Type", MediaType.TEXT_PLAIN);
+            String choice = request.getParameter("choice");
+            if (choice != null) {
+                if (choice.startsWith("o")) {
+                    String outdir = System.getenv("WLP_OUTPUT_DIR");
+                    viewFile(out, outdir, choice.substring(1).trim());
+                } else if (choice.startsWith("l")) {
+                    String logdir = System.getenv("X_LOG_DIR");
+                    if (logdir == null) {
+                        String outdir = System.getenv("WLP_OUTPUT_DIR");
+                        logdir = Paths.get(outdir, "defaultServer", "logs").toString();
                     }
+                    viewFile(out, logdir, choice.substring(1).trim());
+                } else if (choice.startsWith("f")) {
+                    String logdir = System.getenv("X_LOG_DIR");
+                    if (logdir == null) {
+                        String outdir = System.getenv("WLP_OUTPUT_DIR");
+                        logdir = Paths.get(outdir, "defaultServer", "logs").toString();
+                    }
+                    String ffdcDir = new File(new File(logdir), "ffdc").getAbsolutePath();
+                    viewFile(out, ffdcDir, choice.substring(1).trim());
                 }
+            } else {
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                        "view cmd requires choice param");
             }
         } else {
-            response.addHeader("WWW-Authenticate", "Basic realm=\"Ozzy LogView\"");
-            response.sendError(HttpServletResponse.SC_UNAUTHORIZED, "Access denied");
-            return;
+            response.addHeader("Content-Type", MediaType.TEXT_HTML);
+            out.println("<center><h1>Welcome to LogView.</h1></center>"
+                    + "<center>Your friendly logging choice.</center><hr><p><p><center>This logging console is shoeware, you may use it, but you must buy Ozzy shoes.</center><p><p>");
+            out.println("<center><a href=\"?cmd=list\">Take me to the logs!!... </a></center>");
         }
     }
 
@@ -26,6 +26,7 @@ import javax.annotation.Resource;
 import javax.enterprise.context.ApplicationScoped;
 import javax.ws.rs.ProcessingException;
 import javax.ws.rs.WebApplicationException;
+import javax.inject.Inject;
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.ResponseProcessingException;
@@ -82,6 +83,10 @@ public class MapClient {
     @Resource(lookup = "systemId")
     String SYSTEM_ID;
 
+    /** Spans for calls made on behalf of traced messages */
+    @Inject
+    MessageTracing tracing;
+
     /**
      * The root target used to define the root path and common query parameters
      * for all outbound requests to the concierge service.
@@ -119,6 +124,9 @@ public class MapClient {
                                           .build();
 
         queryClient.register(JsonProvider.class);
+        if ( tracing != null ) {
+            queryClient.register(new TracingClientFilter(tracing));
+        }
 
         //add our shared secret so all our queries come from the system id
         queryClient.register(new SignedClientRequestFilter(SYSTEM_ID, querySecret));
@@ -133,6 +141,35 @@ public class MapClient {
         return queryRoot != null;
     }
 
+    /**
+     * Time a request for the first room, bypassing the cache.
+     * Any response that isn't a server error counts: we're measuring how
+     * long the map service takes to answer, not what it says.
+     *
+     * @param timeoutMillis connect and read timeout
+     * @return round trip time in nanoseconds, or -1 if the map service
+     *     could not be reached, timed out, or returned a server error.
+     * @see HealthChecks
+     */
+    public long probe(long timeoutMillis) {
+        if ( queryRoot == null )
+            return -1;
+
+        long start = System.nanoTime();
+        try {
+            Response r = HealthChecks.withTimeout(queryRoot.path(Constants.FIRST_ROOM).request(MediaType.APPLICATION_JSON), timeoutMillis).get();
+            r.close();
+            if ( r.getStatus() >= 500 ) {
+                Log.log(Level.FINER, this, "Map service probe returned {0}", r.getStatus());
+                return -1;
+            }
+            return System.nanoTime() - start;
+        } catch (ProcessingException | WebApplicationException ex) {
+            Log.log(Level.FINER, this, "Map service probe failed", ex);
+            return -1;
+        }
+    }
+
     public List<Site> getSystemRooms() {
         WebTarget target = this.queryRoot.queryParam("owner", SYSTEM_ID);
         return getSites(target);
@@ -219,11 +256,14 @@ public class MapClient {
     public boolean deleteSite(String roomId, String userid, String secret) {
         Log.log(Level.FINER, this, "Asked to delete room id {0} for user {1} with secret(first2chars) {2}",roomId,userid,secret.substring(0,2));
 
-        Client client = ClientBuilder.newClient().register(JsonProvider.class);
+        Client client = ClientBuilder.newBuilder().build().register(JsonProvider.class);
 
         // use the player's shared secret for this operation, not ours
         SignedClientRequestFilter apikey = new SignedClientRequestFilter(userid, secret);
         client.register(apikey);
+        if ( tracing != null ) {
+            client.register(new TracingClientFilter(tracing));
+        }
 
         WebTarget target = client.target(mapLocation).path(roomId);
 
@@ -16,13 +16,11 @@
 package org.gameontext.mediator;
 
 import java.time.Instant;
-import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 import javax.enterprise.concurrent.ManagedScheduledExecutorService;
-import javax.enterprise.concurrent.ManagedThreadFactory;
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
 import javax.websocket.Session;
@@ -30,6 +28,7 @@ import javax.websocket.Session;
 import org.gameontext.mediator.MediatorNexus.ClientMediatorPod;
 import org.gameontext.mediator.MediatorNexus.UserView;
 import org.gameontext.mediator.RoutedMessage.FlowTarget;
+import org.gameontext.mediator.kafka.KafkaClusterBus;
 import org.gameontext.mediator.models.Exit;
 import org.gameontext.mediator.models.Exits;
 import org.gameontext.mediator.models.RoomInfo;
@@ -38,8 +37,10 @@ import org.gameontext.mediator.room.ConnectingRoom;
 import org.gameontext.mediator.room.EmptyRoom;
 import org.gameontext.mediator.room.FirstRoom;
 import org.gameontext.mediator.room.GuidedFirstRoom;
+import org.gameontext.mediator.room.LocalRooms;
 import org.gameontext.mediator.room.RemoteRoom;
 import org.gameontext.mediator.room.RemoteRoomProxy;
+import org.gameontext.mediator.room.RoomCapabilities;
 import org.gameontext.mediator.room.RoomMediator;
 import org.gameontext.mediator.room.RoomMediator.Type;
 import org.gameontext.mediator.room.RoomUtils;
@@ -55,7 +56,8 @@ public class MediatorBuilder {
     public enum UpdateType {
         HELLO,
         JOIN,
-        RECONNECT
+        RECONNECT,
+        WAKE
     }
 
     /** CDI injection of client for Map */
@@ -69,9 +71,20 @@ public class MediatorBuilder {
     @Inject
     MediatorNexus nexus;
 
-    /** CDI injection of Java EE7 Managed thread factory */
-    @Resource
-    protected ManagedThreadFactory threadFactory;
+    @Inject
+    HopLatency hopLatency;
+
+    @Inject
+    RoomMetrics roomMetrics;
+
+    @Inject
+    DrainMonitor drainMonitor;
+
+    @Inject
+    MessageTracing tracing;
+
+    @Inject
+    KafkaClusterBus kafkaBus;
 
     @Resource
     ManagedScheduledExecutorService scheduledExecutor;
@@ -79,10 +92,52 @@ public class MediatorBuilder {
     @Resource(lookup = "systemId")
     String SYSTEM_ID;
 
+    /** Remembered protocol version/handshake results per room endpoint */
+    final RoomCapabilities roomCapabilities = new RoomCapabilities();
+
+    /** Empty and unknown room delegates, shared by all players in the room */
+    final LocalRooms localRooms = new LocalRooms();
+
+    /** Sustained rate (messages/second) of player messages sent to a room on one connection. 0 = unlimited */
+    long roomRateLimit = 10;
+
+    /** Number of player messages that can be sent to a room back-to-back */
+    long roomRateBurst = 20;
+
+    /** Number of recent messages remembered for each client session. 0 = none */
+    long messageTraceSize = 32;
+
+    /** Seconds without a message from the player before a remote room connection is closed. 0 = never */
+    long roomIdleTimeout = 300;
+
+    /** Milliseconds a remote room connection has to write what is queued (e.g. a roomPart) before it is closed */
+    long roomFlushTimeout = 2000;
+
     @PostConstruct
     public void postConstruct() {
         // They need each other, it's cute
         nexus.setBuilder(this);
+        nexus.setExecutor(scheduledExecutor);
+        nexus.setScheduler(scheduledExecutor);
+        nexus.setTracing(tracing);
+        if ( kafkaBus.isEnabled() ) {
+            nexus.setClusterBus(kafkaBus);
+        }
+        roomMetrics.setPopulation(nexus::roomPopulation);
+
+        roomRateLimit = Settings.getLong("roomRateLimit", roomRateLimit);
+        roomRateBurst = Settings.getLong("roomRateBurst", roomRateBurst);
+        messageTraceSize = Settings.getLong("messageTraceSize", messageTraceSize);
+        roomIdleTimeout = Settings.getLong("roomIdleTimeout", roomIdleTimeout);
+        roomFlushTimeout = Settings.getLong("roomFlushTimeout", roomFlushTimeout);
+    }
+
+    /**
+     * @return seconds without a message from the player before a remote
+     *     room connection is closed (see {@link RemoteRoomProxy#hibernate()}), 0 for never
+     */
+    public long getRoomIdleTimeout() {
+        return roomIdleTimeout;
     }
 
     /**
@@ -95,14 +150,16 @@ public class MediatorBuilder {
      */
     public ClientMediator buildClientMediator(String userId, Session session, SignedJWT clientJwt, String serverJwt) {
         WSDrain drain = new WSDrain(userId, session);
-        drain.setThread(threadFactory.newThread(drain));
-
-        // Send a keep-alive to the client.
-        drain.setFuture(scheduledExecutor.scheduleAtFixedRate(() -> {
-            drain.send(RoutedMessage.PING_MSG);
-        }, 50, 2, TimeUnit.SECONDS));
+        drain.setExecutor(scheduledExecutor);
+        drain.setLatency(hopLatency);
+        drain.setTracing(tracing);
+        // Watched for slow writes, and pinged to keep the connection alive
+        drainMonitor.watch(drain);
 
         ClientMediator clientMediator = new ClientMediator(nexus, drain, userId, clientJwt, serverJwt);
+        if ( messageTraceSize > 0 ) {
+            clientMediator.setTrace(new MessageTrace((int) messageTraceSize));
+        }
         return clientMediator;
     }
 
@@ -218,9 +275,9 @@ public class MediatorBuilder {
         Site site = mapClient.getSite(roomId);
 
         if ( site == null ) {
-            return new UnknownRoom(mapClient, roomId, nexus.getMultiUserView(roomId));
+            return unknownRoom(roomId);
         } else if ( site.getInfo() == null ) {
-            return new EmptyRoom(mapClient, site, user.getUserId(), nexus.getMultiUserView(roomId));
+            return emptyRoom(site);
         }
 
         return new ConnectingRoom(proxy, mapClient, site, user.getUserId(),
@@ -240,8 +297,13 @@ public class MediatorBuilder {
         Log.log(Level.FINEST, this, "updateDelegate proxy={0}, user={1}, delegate={2}/{3}, site={4}",
                 Log.getHexHash(proxy), user, Log.getHexHash(currentDelegate), currentDelegate.getType(), site);
 
+        if ( updateType == UpdateType.RECONNECT ) {
+            roomMetrics.reconnect(currentDelegate.getId());
+        }
+
         // try updating the delegate with the new information. It might return the same delegate
         RoomMediator newDelegate = internalUpdateDelegate(updateType, proxy, currentDelegate, site, user);
+        roomMetrics.delegate(newDelegate.getId(), newDelegate.getType());
 
         // always complete the update operation on the proxy
         proxy.updateComplete(newDelegate);
@@ -261,7 +323,7 @@ public class MediatorBuilder {
                 if ( currentDelegate.getType() == Type.UNKNOWN )
                     return currentDelegate;
 
-                return new UnknownRoom(mapClient, roomId, nexus.getMultiUserView(roomId));
+                return unknownRoom(roomId);
             }
         }
 
@@ -275,6 +337,13 @@ public class MediatorBuilder {
                 case CONNECTING :
                     // try connecting to the remote room
                     return tryRemoteDelegate(updateType, proxy, currentDelegate, targetSite, user);
+                case REMOTE :
+                    if ( updateType == UpdateType.WAKE ) {
+                        // the connection was closed while the player was idle: open a new one
+                        return tryRemoteDelegate(updateType, proxy, currentDelegate, targetSite, user);
+                    }
+                    currentDelegate.updateInformation(targetSite);
+                    return currentDelegate;
                 default :
                     // refresh exits or descriptions, otherwise stick with what we have.
                     currentDelegate.updateInformation(targetSite);
@@ -294,17 +363,23 @@ public class MediatorBuilder {
 
         String roomId = site.getId();
         WSDrain drain = new WSDrain(roomId);
-        drain.setThread(threadFactory.newThread(drain));
-        
+        drain.setExecutor(scheduledExecutor);
+        drain.setRateLimit(new TokenBucket(roomRateLimit, roomRateBurst));
+        drain.setLatency(hopLatency);
+        drain.setTracing(tracing);
+        drain.setFlushTimeout(roomFlushTimeout);
+
         String reason = null;
 
         try {
-            RemoteRoom room = new RemoteRoom(proxy, mapClient, scheduledExecutor, site, drain, nexus.getSingleUserView(roomId, user));
+            RemoteRoom room = new RemoteRoom(proxy, mapClient, scheduledExecutor, site, drain, nexus.getSingleUserView(roomId, user),
+                    roomCapabilities, roomMetrics, tracing);
             switch(updateType) {
                 case HELLO:
                     room.hello(user);
                     break;
                 case JOIN:
+                case WAKE:
                     room.join(user);
                     break;
                 case RECONNECT:
@@ -312,12 +387,14 @@ public class MediatorBuilder {
                     break;
             }
 
+            drainMonitor.watchRoom(drain);
             return room;
         } catch(Exception e) {
             Log.log(Level.FINEST, this, "tryRemoteDelegate FAILED: proxy={0}, userId={1}, exception={2}",
                     Log.getHexHash(proxy), user, e);
             
             reason = Instant.now().toString()+" "+e.getMessage();
+            roomMetrics.connectFailed(roomId);
         }
 
         return createUpdateLocalDelegate(Type.SICK, proxy, currentDelegate, site, user, reason);
@@ -337,7 +414,7 @@ public class MediatorBuilder {
 
         RoomMediator mediator;
         if ( type == Type.EMPTY ) {
-            mediator = new EmptyRoom(mapClient, site, user.getUserId(), nexus.getMultiUserView(site.getId()));
+            mediator = emptyRoom(site);
         } else {
             mediator = new SickRoom(proxy, mapClient, scheduledExecutor, site, user.getUserId(), SYSTEM_ID,
                                 nexus.getFilteredMultiUserView(site.getId(), RoomMediator.Type.SICK), reason);
@@ -346,6 +423,23 @@ public class MediatorBuilder {
         return mediator;
     }
 
+    private RoomMediator emptyRoom(Site site) {
+        return localRooms.empty(site, id -> new EmptyRoom(mapClient, site, null, nexus.getMultiUserView(id)));
+    }
+
+    private RoomMediator unknownRoom(String roomId) {
+        return localRooms.unknown(roomId, id -> new UnknownRoom(mapClient, id, nexus.getMultiUserView(id)));
+    }
+
+    /**
+     * Called by the nexus when the last player has left a room:
+     * shared local delegates for the room are no longer needed.
+     * @param roomId
+     */
+    public void roomEmpty(String roomId) {
+        localRooms.evict(roomId);
+    }
+
     public void execute(Runnable r) {
         this.scheduledExecutor.execute(r);
     }
@@ -36,10 +36,13 @@ import org.gameontext.signed.SignedJWT;
 import org.gameontext.signed.SignedJWTValidator;
 import org.gameontext.signed.SignedRequestMap;
 
+import org.eclipse.microprofile.metrics.MetricRegistry;
 import org.eclipse.microprofile.metrics.annotation.Counted;
 import org.eclipse.microprofile.metrics.annotation.Timed;
 import org.eclipse.microprofile.opentracing.Traced;
 
+import io.opentracing.Scope;
+
 /**
  * Server-side endpoint for the Player Client (phone/browser).
  *
@@ -56,8 +59,24 @@ public class MediatorEndpoint {
     @Inject
     protected SignedJWTValidator validator;
 
+    @Inject
+    MetricRegistry metrics;
+
+    @Inject
+    MessageTracing tracing;
+
+    @Inject
+    AdmissionControl admission;
+
+    @Inject
+    JwtCache jwtCache;
+
+    @Inject
+    NodeRing nodeRing;
+
     CountDownLatch mediatorCheck = new CountDownLatch(0);
     volatile ClientMediator clientMediator;
+    volatile boolean admitted = false;
     boolean goodToGo = false;
 
     /**
@@ -74,15 +93,43 @@ public class MediatorEndpoint {
         Log.log(Level.FINER, session, "client open - {0} {1} {2} {3}", userId, session.getQueryString(),
                 session.getUserProperties(), clientMediator);
 
+        // All of a player's sessions should share a node (see NodeRing)
+        String owner = nodeRing.misplaced(userId);
+        if ( owner != null && nodeRing.getAffinity() == NodeRing.Affinity.REDIRECT ) {
+            WSUtils.tryToClose(session, new CloseReason(CloseCodes.TRY_AGAIN_LATER, WSUtils.trimReason("Reconnect to " + owner)));
+            mediatorCheck.countDown();
+            return;
+        }
+
+        // Turn the connection away before doing any real work if we're too busy
+        CloseReason busy = admission.admit();
+        if ( busy != null ) {
+            WSUtils.tryToClose(session, busy);
+            mediatorCheck.countDown();
+            return;
+        }
+        admitted = true;
+
         WSUtils.sendMessage(session, RoutedMessage.createMessage(FlowTarget.player, userId, Constants.VALID_JWT));
+        if ( owner != null ) {
+            WSUtils.sendMessage(session, RoutedMessage.createMessage(FlowTarget.player, userId, String.format(Constants.AFFINITY, owner)));
+        }
 
         SignedRequestMap.MLS_StringMap map = new SignedRequestMap.MLS_StringMap(session.getRequestParameterMap());
         String jwtParam = map.getAll(SignedJWTValidator.JWT_QUERY_PARAMETER, "");
 
         try {
+            // Same token as a recent connection: skip verifying and re-signing
+            JwtCache.Entry cached = jwtCache.get(jwtParam);
+            if (cached != null) {
+                clientMediator = mediatorBuilder.buildClientMediator(userId, session, cached.getClientJwt(), cached.getServerJwt());
+                return;
+            }
+
             SignedJWT clientJWT = validator.getJWT(jwtParam);
             if (clientJWT.isValid()) {
                 String serverJwt = validator.clientToServer(clientJWT);
+                jwtCache.put(jwtParam, clientJWT, serverJwt);
                 clientMediator = mediatorBuilder.buildClientMediator(userId, session, clientJWT, serverJwt);
             } else {
                 WSUtils.sendMessage(session, RoutedMessage.createSimpleEventMessage(FlowTarget.player, userId, Constants.EVENTMSG_INVALID_JWT));
@@ -94,6 +141,7 @@ public class MediatorEndpoint {
         } catch (Exception e) {
             System.out.println(e);
         } finally {
+            admission.openComplete();
             mediatorCheck.countDown();
         }
     }
@@ -114,6 +162,11 @@ public class MediatorEndpoint {
         mediatorCheck.countDown(); // always unblock
         if (clientMediator != null)
             clientMediator.destroy();
+
+        if (admitted) {
+            admitted = false;
+            admission.sessionClosed();
+        }
     }
 
     /**
@@ -126,21 +179,35 @@ public class MediatorEndpoint {
     @OnMessage
     @Timed(name = "onMessage_timer", absolute = true, description = "Time needed to receive and handle message from the JS client.")
     @Counted(name = "onMessage_count", absolute = true, monotonic = true, description = "Number of times a message is sent")
-    @Traced(value = true, operationName = "MediatorEndpoint.onMessage")
+    @Traced(value = false)
     public void onMessage(@PathParam("userId") String userId, RoutedMessage message, Session session)
             throws IOException {
-        Log.log(Level.FINEST, this, "C -> M    R : {0}", message);
+        Log.route(this, "C -> M    R : {0}", message);
 
-        try {
+        // sampled: see MessageTracing
+        try (Scope scope = tracing.start("mediator.fromClient", message, userId)) {
             if (message.getFlowTarget() == FlowTarget.ready) {
                 // wait to process the ready message until we've validated the JWT (see onOpen)
                 mediatorCheck.await();
 
-                clientMediator.ready(message);
+                ClientMediator mediator = clientMediator;
+                if ( !admitted || mediator == null ) {
+                    // turned away, or the JWT was bad: the session is being closed
+                    Log.log(Level.FINEST, session, "no session, dropping message from client {0}: {1}", userId, message);
+                    return;
+                }
+                mediator.ready(message);
                 goodToGo = true; // eventually all threads will see that we're happy
             } else if (goodToGo || mediatorCheck.getCount() == 0) {
                 // we will eventually see the goodToGo check, which will bypass having to look @ the latch
-                clientMediator.handleMessage(message);
+                ClientMediator mediator = clientMediator;
+                if ( !admitted || mediator == null ) {
+                    Log.log(Level.FINEST, session, "no session, dropping message from client {0}: {1}", userId, message);
+                } else if ( mediator.tryAccept(message) ) {
+                    mediator.handleMessage(message);
+                } else {
+                    metrics.counter("onMessage_throttled_" + message.getFlowTarget()).inc();
+                }
             } else {
                 Log.log(Level.FINEST, session, "no session, dropping message from client {0}: {1}", userId, message);
                 return;
@@ -156,6 +223,8 @@ public class MediatorEndpoint {
     @Traced(value = true, operationName = "MediatorEndpoint.onError")
     public void onError(@PathParam("userId") String userId, Session session, Throwable t) {
         Log.log(Level.FINER, session, "oops for client " + userId + " connection", t);
+        if (clientMediator != null)
+            clientMediator.dumpTrace(t.toString());
 
         WSUtils.tryToClose(session, new CloseReason(CloseReason.CloseCodes.UNEXPECTED_CONDITION,
                 WSUtils.trimReason(t.getClass().getName())));
@@ -15,12 +15,22 @@
  *******************************************************************************/
 package org.gameontext.mediator;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.ConcurrentModificationException;
+import java.util.EnumMap;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 
+import javax.annotation.PostConstruct;
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
 import javax.json.Json;
@@ -62,12 +72,67 @@ public class MediatorNexus  {
 
     MediatorBuilder mediatorBuilder;
 
+    /**
+     * Executor used to process pod operations and broadcast fan-out. Work
+     * for a pod is always processed one at a time, in order.
+     * Defaults to running on the caller's thread.
+     */
+    Executor podExecutor = Runnable::run;
+
+    /** Carries trace context into pod operations, if set */
+    MessageTracing tracing;
+
+    /** Shares local room broadcasts with other mediator nodes */
+    ClusterBus clusterBus = ClusterBus.NONE;
+
+    /** Used to end the grace period of a disconnected player. Reconnects can't resume if not set. */
+    ScheduledExecutorService scheduler;
+
     // UserId to ClientMediators (client websocket clientMediators)
     protected final ConcurrentHashMap<String, ClientMediatorPod> clientMap = new ConcurrentHashMap<>();
 
     // Room Id to list of MediatorPods
     protected final ConcurrentHashMap<String, PodsByRoom> roomClients = new ConcurrentHashMap<>();
 
+    /** Sustained rate (messages/second) of room messages (chat, commands) accepted from one player */
+    long clientRoomRate = 5;
+
+    /** Number of room messages one player can send back-to-back */
+    long clientRoomBurst = 15;
+
+    /** Sustained rate (messages/second) of sos requests accepted from one player */
+    long clientSosRate = 1;
+
+    /** Number of sos requests one player can send back-to-back */
+    long clientSosBurst = 3;
+
+    /** Rooms with at least this many players use parallel broadcast fan-out */
+    long broadcastFanoutThreshold = 200;
+
+    /** Number of parallel broadcast lanes for a large room */
+    long broadcastLanes = 4;
+
+    /** Number of recent messages kept per player for a reconnecting client, 0 to disable resume */
+    long resumeBufferSize = 32;
+
+    /** Seconds a player stays in the room after their last session closes, waiting for a reconnect */
+    long resumeWindow = 10;
+
+    /** Set when this node is going away: players leave their room as soon as their last session closes */
+    volatile boolean draining = false;
+
+    @PostConstruct
+    public void postConstruct() {
+        clientRoomRate = Settings.getLong("clientRoomRate", clientRoomRate);
+        clientRoomBurst = Settings.getLong("clientRoomBurst", clientRoomBurst);
+        clientSosRate = Settings.getLong("clientSosRate", clientSosRate);
+        clientSosBurst = Settings.getLong("clientSosBurst", clientSosBurst);
+        broadcastFanoutThreshold = Settings.getLong("broadcastFanoutThreshold", broadcastFanoutThreshold);
+        broadcastLanes = Settings.getLong("broadcastLanes", broadcastLanes);
+        resumeBufferSize = Settings.getLong("resumeBufferSize", resumeBufferSize);
+        resumeWindow = Settings.getLong("resumeWindow", resumeWindow);
+    }
+
     /**
      * Set the builder used by the nexus.
      *
@@ -81,6 +146,73 @@ public class MediatorNexus  {
         this.mediatorBuilder = builder;
     }
 
+    /**
+     * Set the executor used to process pod operations (join, transition, part).
+     * @param executor
+     */
+    public void setExecutor(Executor executor) {
+        this.podExecutor = executor;
+    }
+
+    /**
+     * Set the scheduler used to end the grace period after a player's last session closes
+     * @param scheduler
+     */
+    public void setScheduler(ScheduledExecutorService scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Set the tracing used to follow messages into pod operations
+     * @param tracing
+     */
+    public void setTracing(MessageTracing tracing) {
+        this.tracing = tracing;
+    }
+
+    /**
+     * Set the bus used to share local room broadcasts with other nodes
+     * @param bus
+     */
+    public void setClusterBus(ClusterBus bus) {
+        this.clusterBus = bus;
+        bus.setReceiver(this::receiveBroadcast);
+    }
+
+    /**
+     * A broadcast for a local room, published by another node:
+     * deliver it to our own players in that room.
+     * @param roomId
+     * @param type only players whose room delegate has this type, or null for all
+     * @param message
+     */
+    void receiveBroadcast(String roomId, RoomMediator.Type type, RoutedMessage message) {
+        PodsByRoom list = roomClients.get(roomId);
+        Log.route(this, "remote broadcast({0}): {1} to {2}", roomId, message, list);
+
+        if ( list == null )
+            return;
+
+        if ( type == null ) {
+            list.broadcast(message, cm -> cm.deliver(message));
+        } else {
+            list.broadcast(message, cm -> {
+                if ( cm.room.getType() == type )
+                    cm.deliver(message);
+            });
+        }
+    }
+
+    /**
+     * This node is going away (see {@link NodeDrain}): from now on, players leave
+     * their room as soon as their last session closes. Players already waiting
+     * for a reconnect leave now.
+     */
+    public void drain() {
+        draining = true;
+        clientMap.values().forEach(pod -> pod.submit(() -> pod.expire(pod.graceCount)));
+    }
+
     /**
      * Have a new session join: if there are existing clientMediators, this may trigger
      * some yanking around.
@@ -96,7 +228,7 @@ public class MediatorNexus  {
 
         // See if there is already a mediator for this cluster of user clientMediators
         // and/or negotiate which room should be used.
-        pod.join(playerSession, newRoomId, lastMessage);
+        pod.submit(() -> pod.join(playerSession, newRoomId, lastMessage));
     }
 
     /**
@@ -115,7 +247,7 @@ public class MediatorNexus  {
         Log.log(Level.FINER, playerSession.getSource(), "{0}: request transition from expected={1}, new={2}",
                 Log.getHexHash(pod), fromRoom, toRoomId);
 
-        pod.transition(playerSession, fromRoom, toRoomId, true);
+        pod.submitTransition(() -> pod.transition(playerSession, fromRoom, toRoomId, true));
     }
 
     /**
@@ -134,7 +266,7 @@ public class MediatorNexus  {
         Log.log(Level.FINER, playerSession.getSource(), "{0}: request transition from expected={1}, direction={2}",
                 Log.getHexHash(pod), fromRoom, direction);
 
-        pod.transitionViaExit(playerSession, fromRoom, direction);
+        pod.submitTransition(() -> pod.transitionViaExit(playerSession, fromRoom, direction));
     }
 
     /**
@@ -146,10 +278,44 @@ public class MediatorNexus  {
         if ( pod != null ) {
             Log.log(Level.FINER, playerSession.getSource(), "{0}: request part", Log.getHexHash(pod));
 
-            pod.part(playerSession);
+            pod.submit(() -> pod.part(playerSession));
         }
     }
 
+    /**
+     * Check inbound message against the player's rate limits. Limits are shared
+     * by all of the player's sessions.
+     *
+     * @param playerSession
+     * @param message
+     * @return true if the message should be processed, false if it should be dropped
+     */
+    public boolean tryAccept(ClientMediator playerSession, RoutedMessage message) {
+        ClientMediatorPod pod = clientMap.get(playerSession.getUserId());
+        if ( pod == null ) {
+            return true;
+        }
+        return pod.tryAccept(playerSession, message.getFlowTarget());
+    }
+
+    /**
+     * @param userId
+     * @return the connected sessions for this user (empty if there aren't any)
+     */
+    public Collection<ClientMediator> getClientMediators(String userId) {
+        ClientMediatorPod pod = clientMap.get(userId);
+        return pod == null ? Collections.emptySet() : Collections.unmodifiableSet(pod.clientMediators);
+    }
+
+    /**
+     * @param roomId
+     * @return the number of players in the room (with at least one connected client)
+     */
+    public int roomPopulation(String roomId) {
+        PodsByRoom list = roomClients.get(roomId);
+        return list == null ? 0 : list.sessionPods.size();
+    }
+
     private ClientMediatorPod getCreatePod(ClientMediator playerSession) {
         //construct pod if required, or return existing.
         return clientMap.computeIfAbsent(playerSession.getUserId(), k -> new ClientMediatorPod(playerSession.getUserId()));
@@ -161,15 +327,34 @@ public class MediatorNexus  {
 
     private PodsByRoom removeDeleteEmptyPlayerList(String roomId, ClientMediatorPod pod) {
         if ( roomId != null ) {
-            return roomClients.computeIfPresent(roomId, (k,v) -> v.remove(pod));
+            PodsByRoom list = roomClients.computeIfPresent(roomId, (k,v) -> v.remove(pod));
+            if ( list == null && mediatorBuilder != null ) {
+                // last one out: shared room delegates can go
+                mediatorBuilder.roomEmpty(roomId);
+            }
+            return list;
         }
         return null;
     }
 
 
     /**
-     * This maps a player (multiple clientMediators) with a room mediator
-     *
+     * This maps a player (multiple clientMediators) with a room mediator.
+     * <p>
+     * Operations that change the pod (join, transition, part) are not performed
+     * on the caller's thread: they are queued to the pod's mailbox, and processed
+     * one at a time, in order, using the nexus' executor. Callers don't block
+     * waiting for each other (or for the map/player services).
+     * A transition that is followed by another queued transition is skipped:
+     * only the most recent request is acted upon.
+     * </p>
+     * <p>
+     * When the last session closes, the pod stays in the room for a short
+     * grace period, recording what is sent to the player. A client that
+     * reconnects within that window with a bookmark we still have is sent
+     * only the messages it missed: there is no goodbye/hello round-trip
+     * with the room.
+     * </p>
      */
     public class ClientMediatorPod implements UserView,PlayerEventHandler {
         final String userId;
@@ -178,12 +363,64 @@ public class MediatorNexus  {
         volatile RoomMediator room;
         private EventSubscription activeSubscription;
 
+        /** Inbound rate limits, shared by all sessions for this user */
+        final EnumMap<FlowTarget, TokenBucket> inboundLimits;
+        volatile boolean throttled = false;
+
+        /** Pending operations, processed one at a time */
+        private final SerialExecutor mailbox;
+        private final AtomicInteger pendingTransitions = new AtomicInteger(0);
+
+        /** Set once the last session has parted and the pod was removed from the nexus */
+        private volatile boolean retired = false;
+
+        /** Recent messages to the player, for a client that reconnects */
+        final ResumeBuffer resume;
+
+        /** Writes the player's location to the player service behind the pod's back */
+        private final LocationWriter locationWriter;
+
+        /** Incremented each time the last session closes: identifies the grace period */
+        private volatile int graceCount = 0;
+        private volatile boolean waitingForResume = false;
+
         private ClientMediatorPod(String userId) {
             this.userId = userId;
             this.clientMediators = new CopyOnWriteArraySet<>();
+            this.inboundLimits = new EnumMap<>(FlowTarget.class);
+            inboundLimits.put(FlowTarget.room, new TokenBucket(clientRoomRate, clientRoomBurst));
+            inboundLimits.put(FlowTarget.sos, new TokenBucket(clientSosRate, clientSosBurst));
+            mailbox = new SerialExecutor(podExecutor);
+            locationWriter = new LocationWriter(playerClient, userId, podExecutor,
+                    (from, to, actual) -> submit(() -> reconcile(from, to, actual)));
+            resume = resumeBufferSize > 0 && resumeWindow > 0 && scheduler != null
+                    ? new ResumeBuffer((int) resumeBufferSize) : ResumeBuffer.DISABLED;
             activeSubscription = events.subscribeToPlayerEvents(userId,this);
         }
 
+        /**
+         * Lock-free check of inbound message rate for this user. The first refused
+         * message in a burst gets a notice back to the sending session.
+         * @param playerSession session the message came from
+         * @param target flow target of the inbound message
+         * @return true if the message is within limits
+         */
+        boolean tryAccept(ClientMediator playerSession, FlowTarget target) {
+            TokenBucket bucket = inboundLimits.get(target);
+            if ( bucket == null || bucket.tryAcquire() ) {
+                throttled = false;
+                return true;
+            }
+
+            Log.log(Level.FINEST, playerSession.getSource(), "{0}: throttled {1} message from {2}", Log.getHexHash(this), target, userId);
+            if ( !throttled ) {
+                throttled = true;
+                playerSession.sendToClient(RoutedMessage.createSimpleEventMessage(FlowTarget.player, userId,
+                        Constants.EVENTMSG_CLIENT_SLOW_DOWN));
+            }
+            return false;
+        }
+
         @Override
         public void playerUpdated(String userId, String userName, String favoriteColor) {
             Log.log(Level.FINEST, this,
@@ -204,11 +441,39 @@ public class MediatorNexus  {
                 // A different mediator moved the player!
                 // We need to move the player without updating the database
                 // (just catching up)
-                ClientMediator anyMediator = clientMediators.iterator().next();
-                transition(anyMediator, room.getId(), newLocation, false);
+                submit(() -> {
+                    if ( !clientMediators.isEmpty() ) {
+                        ClientMediator anyMediator = clientMediators.iterator().next();
+                        transition(anyMediator, room.getId(), newLocation, false);
+                    }
+                });
             }
         }
 
+        /**
+         * Queue an operation for this pod
+         * @param operation
+         */
+        void submit(Runnable operation) {
+            mailbox.execute(tracing == null ? operation : tracing.wrap("mediator.pod", operation));
+        }
+
+        /**
+         * Queue a player-requested transition. If another transition is queued
+         * behind this one by the time it is processed, this one is skipped.
+         * @param operation
+         */
+        void submitTransition(Runnable operation) {
+            pendingTransitions.incrementAndGet();
+            submit(() -> {
+                if ( pendingTransitions.decrementAndGet() > 0 ) {
+                    Log.log(Level.FINER, this, "{0}: transition for {1} superseded by a later request", Log.getHexHash(this), userId);
+                    return;
+                }
+                operation.run();
+            });
+        }
+
         @Override
         public String getUserId() {
             return userId;
@@ -237,13 +502,7 @@ public class MediatorNexus  {
          */
         public void send(RoutedMessage message) {
             if (message.isForUser(userId)) {
-                clientMediators.forEach(s -> s.sendToClient(message));
-
-                // If we are additionally changing locations, ...
-                if (message.getFlowTarget() == FlowTarget.playerLocation ) {
-                    ClientMediator m = clientMediators.iterator().next();
-                    m.switchRooms(message);
-                }
+                deliver(message);
             } else if ( !clientMediators.isEmpty() ){
                 Log.log(Level.FINEST, this, "send -- Dropping message as not for user {0}, destination={0},{1}", userId, message.getFlowTarget(), message.getDestination());
             }
@@ -261,6 +520,26 @@ public class MediatorNexus  {
                 send(message);
         }
 
+        /**
+         * Send a message that is known to be for this user to all connected client mediators
+         * @param message
+         */
+        private void deliver(RoutedMessage message) {
+            resume.record(message);
+            clientMediators.forEach(s -> s.deliver(message));
+
+            // If we are additionally changing locations, ...
+            if (message.getFlowTarget() == FlowTarget.playerLocation ) {
+                if ( clientMediators.isEmpty() ) {
+                    // waiting for a reconnect: the room wants the player gone, don't resume here
+                    resume.clear();
+                } else {
+                    ClientMediator m = clientMediators.iterator().next();
+                    m.switchRooms(message);
+                }
+            }
+        }
+
         /**
          * Join/Add a new client session to the pod. The newRoomId may or may not match
          * the existing/connected roomId, in which case, negotiation may be required
@@ -268,7 +547,17 @@ public class MediatorNexus  {
          * @param newRoomId
          * @param lastMessage
          */
-        private synchronized void join(ClientMediator playerSession, String newRoomId, String lastMessage) {
+        private void join(ClientMediator playerSession, String newRoomId, String lastMessage) {
+            if ( retired ) {
+                // The last session parted while this join was queued: start over with a new pod
+                nexusJoin(playerSession, newRoomId, lastMessage);
+                return;
+            }
+
+            if ( waitingForResume && resume(playerSession, newRoomId, lastMessage) ) {
+                return;
+            }
+
             String targetId = newRoomId;
             boolean joinRoom = clientMediators.isEmpty(); // were we first?
             boolean helloInstead = joinRoom && isEmptyBookmark(lastMessage);
@@ -291,7 +580,7 @@ public class MediatorNexus  {
                             Log.getHexHash(this), userId, room.getId(), joinRoom, helloInstead, clientMediators);
 
                     //update the location in the db.
-                    playerClient.updatePlayerLocation(userId, getEncodedServerJwt(), targetId, room.getId());
+                    locationWriter.moved(targetId, room.getId(), getEncodedServerJwt());
                 }
                 playerSession.setRoomMediator(room, false);
                 playerSession.sendToClient(clientAck());
@@ -336,6 +625,50 @@ public class MediatorNexus  {
                     Log.getHexHash(this), userId, room.getId(), joinRoom, helloInstead, clientMediators);
         }
 
+        /**
+         * The first session to come back during the grace period: if it is
+         * reconnecting to the same room and we have its bookmark, send it what
+         * it missed. Otherwise, finish leaving the room and start over.
+         * @return true if the session was resumed, false if it still needs to join
+         */
+        private boolean resume(ClientMediator playerSession, String newRoomId, String lastMessage) {
+            waitingForResume = false;
+
+            List<RoutedMessage> gap = room.getId().equals(newRoomId) ? resume.since(lastMessage) : null;
+            if ( gap == null ) {
+                Log.log(Level.FINER, playerSession.getSource(), "{0}: can not resume {1} in {2} from {3}",
+                        Log.getHexHash(this), userId, newRoomId, lastMessage);
+
+                // the room still thinks we're here
+                leave();
+                nexusJoin(playerSession, newRoomId, lastMessage);
+                return true;
+            }
+
+            clientMediators.add(playerSession);
+            userName = playerSession.getUserName();
+
+            playerSession.setRoomMediator(room, false);
+            playerSession.sendToClient(clientAck());
+            gap.forEach(playerSession::sendToClient);
+
+            Log.log(Level.FINER, playerSession.getSource(), "{0}: resumed {1} in {2} from {3}, replayed {4}",
+                    Log.getHexHash(this), userId, room.getId(), lastMessage, gap.size());
+            return true;
+        }
+
+        /**
+         * End of the grace period: if no client came back, leave the room
+         * @param grace the grace period that is ending
+         */
+        private void expire(int grace) {
+            if ( waitingForResume && grace == graceCount && clientMediators.isEmpty() ) {
+                Log.log(Level.FINER, this, "{0}: no reconnect for {1}", Log.getHexHash(this), userId);
+                waitingForResume = false;
+                leave();
+            }
+        }
+
         private boolean isEmptyBookmark(String lastMessage) {
             return ( lastMessage == null || lastMessage.isEmpty() || "0".equals(lastMessage) );
         }
@@ -346,7 +679,7 @@ public class MediatorNexus  {
          * @param targetRoomId
          * @param updatePlayerLocation true if the transition should update the player service with the new location on a successful transition.
          */
-        private synchronized void transition(ClientMediator playerSession, String fromRoomId, String targetRoomId, boolean updatePlayerLocation) {
+        private void transition(ClientMediator playerSession, String fromRoomId, String targetRoomId, boolean updatePlayerLocation) {
             if ( room == null ) {
                 join(playerSession, targetRoomId, "");
                 return;
@@ -389,7 +722,7 @@ public class MediatorNexus  {
          * @param fromRoomId
          * @param direction
          */
-        private synchronized void transitionViaExit(ClientMediator playerSession, String fromRoomId, String direction) {
+        private void transitionViaExit(ClientMediator playerSession, String fromRoomId, String direction) {
             if ( room == null ) {
                 join(playerSession, fromRoomId, "");
                 return;
@@ -419,7 +752,9 @@ public class MediatorNexus  {
         }
 
         /**
-         * Perform the actual transition between rooms: not synchronized, as all callers are.
+         * Perform the actual transition between rooms: called from within queued operations.
+         * The player is moved right away: the player service is updated afterwards
+         * (see {@link LocationWriter}), and a conflict is sorted out by {@link #reconcile(String, String, String)}.
          * @param newRoom
          * @param withUpdate true if the room switch should also update the playerservice with the new location.
          */
@@ -428,22 +763,8 @@ public class MediatorNexus  {
             RoomMediator target = newRoom;
 
             if (withUpdate) {
-                // Update the location in the db.
-                String resultId = playerClient.updatePlayerLocation(getUserId(), getEncodedServerJwt(), oldRoom.getId(), target.getId());
-
-                // If there was a confict and we landed in the old room, do nothing else.
-                if ( resultId.equals(oldRoom.getId()) ) {
-                    playerSession.sendToClient(RoutedMessage.createSimpleEventMessage(FlowTarget.player, playerSession.getUserId(),
-                        Constants.EVENTMSG_MOVING));
-                    return;
-                }
-
-                // If there was a conflict and we landed in a different new room.. we are headed somewhere else
-                if ( !resultId.equals(target.getId()) ) {
-                    playerSession.sendToClient(RoutedMessage.createSimpleEventMessage(FlowTarget.player, playerSession.getUserId(),
-                        Constants.EVENTMSG_BAD_RIDE));
-                    target = mediatorBuilder.findMediatorForRoom(this, resultId);
-                }
+                // Update the location in the db (eventually).
+                locationWriter.moved(oldRoom.getId(), target.getId(), getEncodedServerJwt());
             }
 
             // Add this pod to the index with the new room id
@@ -470,22 +791,48 @@ public class MediatorNexus  {
         }
 
         /**
-         * Called when the client session is disconnected.
-         * @param playerSession
+         * The player service didn't accept a move: put the player where it says they are.
+         * @param from location the player was moved from
+         * @param to location the player was moved to
+         * @param actual location the player service has for the player
          */
-        private synchronized void part(ClientMediator playerSession) {
+        private void reconcile(String from, String to, String actual) {
+            if ( room == null || actual.equals(room.getId()) ) {
+                return;
+            }
 
-            if ( clientMediators.contains(playerSession) && clientMediators.size() == 1 ) {
-                //unsubscribe to events.
-                activeSubscription.unsubscribe();
+            Log.log(Level.FINER, this, "{0}: location conflict for {1} moving from {2} to {3}: now in {4}, should be in {5}",
+                    Log.getHexHash(this), userId, from, to, room.getId(), actual);
 
-                // we're the last session standing: part the room.
-                room.part(this);
+            if ( clientMediators.isEmpty() ) {
+                // waiting for a reconnect: don't resume in the wrong room
+                resume.clear();
+                return;
+            }
 
-                // self-cleaning. This element is about to vanish, so remove it from the room-indexed list, too
-                removeDeleteEmptyPlayerList(room.getId(), this);
+            // If we landed in the old room, we went nowhere. Otherwise.. we are headed somewhere else
+            send(RoutedMessage.createSimpleEventMessage(FlowTarget.player, userId,
+                    actual.equals(from) ? Constants.EVENTMSG_MOVING : Constants.EVENTMSG_BAD_RIDE));
+
+            ClientMediator anyMediator = clientMediators.iterator().next();
+            transition(anyMediator, room.getId(), actual, false);
+        }
+
+        /**
+         * Called when the client session is disconnected.
+         * @param playerSession
+         */
+        private void part(ClientMediator playerSession) {
 
-                clientMap.remove(userId); // Auto-cleanup! We're empty!
+            if ( clientMediators.contains(playerSession) && clientMediators.size() == 1 ) {
+                if ( resume.capacity() > 0 && !draining ) {
+                    // we're the last session standing: wait a bit for a reconnect before parting the room
+                    int grace = ++graceCount;
+                    waitingForResume = true;
+                    scheduler.schedule(() -> submit(() -> expire(grace)), resumeWindow, TimeUnit.SECONDS);
+                } else {
+                    leave();
+                }
             }
 
             // do this last, after room part
@@ -495,6 +842,23 @@ public class MediatorNexus  {
                     Log.getHexHash(this), userId, clientMediators);
         }
 
+        /**
+         * The player has no more sessions: part the room and remove the pod
+         */
+        private void leave() {
+            //unsubscribe to events.
+            activeSubscription.unsubscribe();
+
+            // part the room.
+            room.part(this);
+
+            // self-cleaning. This element is about to vanish, so remove it from the room-indexed list, too
+            removeDeleteEmptyPlayerList(room.getId(), this);
+
+            clientMap.remove(userId, this); // Auto-cleanup! We're empty!
+            retired = true;
+        }
+
         /**
          * Compose an acknowledgement to send back to the client that contains the
          * mediator id and information about the current room (to set up/refresh the
@@ -569,11 +933,15 @@ public class MediatorNexus  {
             return MediatorNexus.this;
         }
 
+        private void nexusJoin(ClientMediator playerSession, String newRoomId, String lastMessage) {
+            MediatorNexus.this.join(playerSession, newRoomId, lastMessage);
+        }
     }
 
     /**
      * Local rooms need a general broadcast across all
-     * users in the room (empty, sick, firstroom, .. )
+     * users in the room (empty, sick, firstroom, .. ),
+     * including those on other nodes (see {@link ClusterBus})
      */
     public class MultiUserView implements View {
         final String roomId;
@@ -588,18 +956,19 @@ public class MediatorNexus  {
             if ("*".equals(message.getDestination()) ) {
                 PodsByRoom list = roomClients.get(roomId);
                 Log.log(Level.FINEST, this, "MUV-broadcast({0}): Send {1} to {2}",
-                        list.sessionPods.isEmpty(), message);
+                        roomId, message, list);
 
-                for( ClientMediatorPod cm : list.sessionPods ) {
-                    cm.send(message);
-                }
+                if ( list != null )
+                    list.broadcast(message, cm -> cm.deliver(message));
+                if ( message.isForUser("*") )
+                    clusterBus.publish(roomId, null, message);
             } else {
                 ClientMediatorPod p = clientMap.get(message.getDestination());
                 Log.log(Level.FINEST, this, "MUV-send({0}): Send {1} to {2}",
                         stillConnected(), message, p);
 
                 if ( p != null )
-                    p.send(message);
+                    unicast(roomId, p, () -> p.send(message));
             }
         }
 
@@ -628,18 +997,22 @@ public class MediatorNexus  {
             if ("*".equals(message.getDestination()) ) {
                 PodsByRoom list = roomClients.get(roomId);
                 Log.log(Level.FINEST, this, "FMUV-broadcast({0}/{1}): Send {2} to {3}",
-                        roomType, list.sessionPods.isEmpty(), message, list);
-
-                for( ClientMediatorPod cm : list.sessionPods ) {
-                    cm.filteredSend(roomType, message);
-                }
+                        roomType, roomId, message, list);
+
+                if ( list != null )
+                    list.broadcast(message, cm -> {
+                        if ( cm.room.getType() == roomType )
+                            cm.deliver(message);
+                    });
+                if ( message.isForUser("*") )
+                    clusterBus.publish(roomId, roomType, message);
             } else {
                 ClientMediatorPod p = clientMap.get(message.getDestination());
                 Log.log(Level.FINEST, this, "FMUV-send({0}): Send {1} to {2}",
                         stillConnected(), message, p);
 
                 if ( p != null )
-                    p.send(message);
+                    unicast(roomId, p, () -> p.send(message));
             }
         }
 
@@ -671,16 +1044,43 @@ public class MediatorNexus  {
                     stillConnected(), message, connectedClients);
 
             if ( stillConnected() ) {
+                // during the resume grace period, this only records the message
                 connectedClients.send(message);
             }
         }
 
+        /**
+         * @return true if the player has a session, or is expected back
+         *    (a connection to a remote room should be kept or re-established)
+         */
         @Override
         public boolean stillConnected() {
-            return connectedClients.clientMediators != null && !connectedClients.clientMediators.isEmpty();
+            return connectedClients.waitingForResume
+                    || (connectedClients.clientMediators != null && !connectedClients.clientMediators.isEmpty());
+        }
+    }
+
+    /**
+     * Send a message to one pod in a shared room. If the room is using
+     * parallel broadcast, this goes through the pod's lane, so it stays
+     * in order with broadcasts.
+     */
+    private void unicast(String roomId, ClientMediatorPod pod, Runnable send) {
+        PodsByRoom list = roomClients.get(roomId);
+        if ( list == null || !list.toLane(pod, send) ) {
+            send.run();
         }
     }
 
+    /**
+     * A broadcast lane in a large room: the pods it serves, and the
+     * serial executor that delivers to them.
+     */
+    private class Lane {
+        final SerialExecutor executor = new SerialExecutor(podExecutor);
+        final Set<ClientMediatorPod> pods = ConcurrentHashMap.newKeySet();
+    }
+
     /**
      * This holds references to the ClientMediatorPods for each room.
      */
@@ -688,20 +1088,136 @@ public class MediatorNexus  {
         final String roomId;
         final Set<ClientMediatorPod> sessionPods; // iteration by rooms to
 
+        /**
+         * Parallel broadcast lanes, created when the room gets big, and
+         * dropped again once it has shrunk to half that size and the lanes
+         * have nothing left to deliver. Each pod is always served by the
+         * same lane, so messages to a player arrive in order.
+         */
+        volatile Lane[] lanes;
+
         private PodsByRoom(String roomId) {
             this.roomId = roomId;
             this.sessionPods = ConcurrentHashMap.newKeySet();
         }
 
-        private void add(ClientMediatorPod player) {
+        /**
+         * Deliver a broadcast message to the pods in this room.
+         * The message is encoded once, up front: every client drain
+         * then writes the same text.
+         *
+         * @param message message for everyone in the room
+         * @param delivery what to do with each pod
+         */
+        private void broadcast(RoutedMessage message, Consumer<ClientMediatorPod> delivery) {
+            if ( !message.isForUser("*") ) {
+                Log.route(this, "broadcast -- Dropping message as not for players: {0}", message);
+                return;
+            }
+            message.toString(); // encode now, before the message is shared
+
+            if ( lanes == null && sessionPods.size() >= broadcastFanoutThreshold && broadcastLanes > 1 ) {
+                createLanes();
+            }
+
+            if ( !toLanes(delivery) ) {
+                sessionPods.forEach(delivery);
+            }
+        }
+
+        /**
+         * Hand a broadcast to the lanes, if the room has them: each lane
+         * only walks its own pods. Synchronized with dropping the lanes, so
+         * nothing is queued to a lane after it has been let go.
+         * @return false if the room isn't using lanes
+         */
+        private synchronized boolean toLanes(Consumer<ClientMediatorPod> delivery) {
+            Lane[] current = dropLanesIfSmall();
+            if ( current == null ) {
+                return false;
+            }
+            for ( Lane lane : current ) {
+                lane.executor.execute(() -> lane.pods.forEach(delivery));
+            }
+            return true;
+        }
+
+        /**
+         * Queue a message for one pod behind the broadcasts in its lane.
+         * @return false if the room isn't using lanes
+         */
+        private synchronized boolean toLane(ClientMediatorPod pod, Runnable send) {
+            Lane[] current = dropLanesIfSmall();
+            if ( current == null ) {
+                return false;
+            }
+            current[laneIndex(pod, current.length)].executor.execute(send);
+            return true;
+        }
+
+        /**
+         * Go back to inline delivery once the room is down to half the fan-out
+         * threshold. Lanes are only dropped when they are idle: anything
+         * still queued in them must be delivered before messages sent inline.
+         * @return the lanes still in use, or null
+         */
+        private synchronized Lane[] dropLanesIfSmall() {
+            Lane[] current = lanes;
+            if ( current != null && sessionPods.size() < broadcastFanoutThreshold / 2 ) {
+                for ( Lane lane : current ) {
+                    if ( !lane.executor.isIdle() ) {
+                        return current;
+                    }
+                }
+                Log.log(Level.FINE, this, "PodsByRoom {0}: back to inline broadcast", roomId);
+                lanes = null;
+                return null;
+            }
+            return current;
+        }
+
+        private synchronized Lane[] createLanes() {
+            if ( lanes == null ) {
+                Lane[] newLanes = new Lane[(int) broadcastLanes];
+                for ( int i = 0; i < newLanes.length; i++ ) {
+                    newLanes[i] = new Lane();
+                }
+                for ( ClientMediatorPod pod : sessionPods ) {
+                    newLanes[laneIndex(pod, newLanes.length)].pods.add(pod);
+                }
+                Log.log(Level.FINE, this, "PodsByRoom {0}: using {1} broadcast lanes", roomId, newLanes.length);
+                lanes = newLanes;
+            }
+            return lanes;
+        }
+
+        private int laneIndex(ClientMediatorPod pod, int count) {
+            return Math.floorMod(pod.userId.hashCode(), count);
+        }
+
+        // add/remove are synchronized with createLanes, so no pod is missed
+        // while existing pods are being assigned to lanes
+
+        private synchronized void add(ClientMediatorPod player) {
             Log.log(Level.FINEST, this, "PodsByRoom {0}: add {1}", roomId, player);
             sessionPods.add(player);
+
+            Lane[] current = lanes;
+            if ( current != null ) {
+                current[laneIndex(player, current.length)].pods.add(player);
+            }
         }
 
-        private PodsByRoom remove(ClientMediatorPod player) {
+        private synchronized PodsByRoom remove(ClientMediatorPod player) {
             Log.log(Level.FINEST, this, "PodsByRoom {0}: remove {1}", roomId, player);
             sessionPods.remove(player);
 
+            Lane[] current = lanes;
+            if ( current != null ) {
+                current[laneIndex(player, current.length)].pods.remove(player);
+                dropLanesIfSmall();
+            }
+
             if ( sessionPods.isEmpty() ) {
                 Log.log(Level.FINEST, player, "PodsByRoom Element removed {0}", roomId);
 
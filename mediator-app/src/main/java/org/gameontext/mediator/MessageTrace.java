@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+
+import org.gameontext.mediator.RoutedMessage.FlowTarget;
+
+/**
+ * The headers of the last few messages to and from one client session:
+ * when, which way, flow target, destination and size. Recording is a
+ * counter increment and a handful of array writes, so it is always on,
+ * and the trace can be looked at when something goes wrong
+ * (see {@link MessageTraceView}, and {@link ClientMediator#dumpTrace(String)}).
+ * <p>
+ * There is no locking: an entry being overwritten while the trace is
+ * read can come out mixed up. Good enough for debugging.
+ * </p>
+ */
+public final class MessageTrace {
+
+    public enum Direction {
+        FROM_CLIENT("C -> M"),
+        TO_CLIENT("C <- M");
+
+        final String arrow;
+
+        Direction(String arrow) {
+            this.arrow = arrow;
+        }
+    }
+
+    /** Records nothing */
+    public static final MessageTrace DISABLED = new MessageTrace(0);
+
+    private final int mask;
+    private final AtomicLong next = new AtomicLong();
+
+    private final long[] times;
+    private final Direction[] directions;
+    private final FlowTarget[] targets;
+    private final String[] destinations;
+    private final int[] sizes;
+
+    /**
+     * @param capacity number of messages to remember (rounded up to a power of two), 0 to record nothing
+     */
+    public MessageTrace(int capacity) {
+        int size = capacity <= 0 ? 0 : capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        mask = size - 1;
+        times = new long[size];
+        directions = new Direction[size];
+        targets = new FlowTarget[size];
+        destinations = new String[size];
+        sizes = new int[size];
+    }
+
+    /**
+     * @return number of messages remembered
+     */
+    public int capacity() {
+        return times.length;
+    }
+
+    public void record(Direction direction, RoutedMessage message) {
+        if ( times.length == 0 )
+            return;
+
+        int i = (int) next.getAndIncrement() & mask;
+        times[i] = System.currentTimeMillis();
+        directions[i] = direction;
+        targets[i] = message.getFlowTarget();
+        destinations[i] = message.getDestination();
+        sizes[i] = message.toString().length();
+    }
+
+    /**
+     * @return remembered messages, oldest first
+     */
+    public JsonArray toJson() {
+        JsonArrayBuilder result = Json.createArrayBuilder();
+        long end = next.get();
+        for ( long n = first(end); n < end; n++ ) {
+            int i = (int) n & mask;
+            result.add(Json.createObjectBuilder()
+                    .add("time", Instant.ofEpochMilli(times[i]).toString())
+                    .add("direction", String.valueOf(directions[i]))
+                    .add("target", String.valueOf(targets[i]))
+                    .add("destination", String.valueOf(destinations[i]))
+                    .add("size", sizes[i]));
+        }
+        return result.build();
+    }
+
+    /**
+     * @return remembered messages, oldest first, one per line
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        long end = next.get();
+        for ( long n = first(end); n < end; n++ ) {
+            int i = (int) n & mask;
+            Direction d = directions[i];
+            sb.append("\n  ").append(Instant.ofEpochMilli(times[i]))
+              .append(' ').append(d == null ? "?" : d.arrow)
+              .append(' ').append(targets[i])
+              .append(',').append(destinations[i])
+              .append(" (").append(sizes[i]).append(')');
+        }
+        return sb.toString();
+    }
+
+    private long first(long end) {
+        return Math.max(0, end - times.length);
+    }
+}
@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.io.IOException;
+
+import javax.inject.Inject;
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonWriter;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.core.MediaType;
+
+import org.gameontext.mediator.room.RoomMediator;
+
+/**
+ * Recent messages to and from a player's sessions, as JSON: see {@link MessageTrace}.
+ * Requires the admin credentials (see {@link AdminAuth}).
+ * <p>
+ * {@code GET /admin/trace?userId=<id>}
+ * </p>
+ */
+@WebServlet("/admin/trace")
+public class MessageTraceView extends HttpServlet {
+
+    private static final long serialVersionUID = 1L;
+
+    @Inject
+    MediatorNexus nexus;
+
+    /**
+     * @see HttpServlet#doGet(HttpServletRequest request, HttpServletResponse
+     *      response)
+     */
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        if ( !AdminAuth.check(request, response, "Mediator trace") )
+            return;
+
+        String userId = request.getParameter("userId");
+        if ( userId == null || userId.isEmpty() ) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "userId param is required");
+            return;
+        }
+
+        JsonArrayBuilder sessions = Json.createArrayBuilder();
+        for ( ClientMediator client : nexus.getClientMediators(userId) ) {
+            RoomMediator room = client.getRoomMediator();
+            sessions.add(Json.createObjectBuilder()
+                    .add("session", Log.getHexHash(client.getSource()))
+                    .add("room", room == null ? "" : room.getId())
+                    .add("messages", client.getTrace().toJson()));
+        }
+
+        response.setContentType(MediaType.APPLICATION_JSON);
+        response.setCharacterEncoding("UTF-8");
+        try (JsonWriter writer = Json.createWriter(response.getWriter())) {
+            writer.writeObject(Json.createObjectBuilder()
+                    .add("userId", userId)
+                    .add("sessions", sessions)
+                    .build());
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.inject.Instance;
+import javax.inject.Inject;
+
+import io.opentracing.Scope;
+import io.opentracing.Span;
+import io.opentracing.SpanContext;
+import io.opentracing.Tracer;
+import io.opentracing.propagation.Format;
+import io.opentracing.propagation.TextMap;
+
+/**
+ * Follows a message through the mediator with OpenTracing spans.
+ * <p>
+ * The decision to trace a message is made once, when it arrives (from a
+ * client, see {@link MediatorEndpoint}, or from a room): one message in
+ * {@link #sampleRate} gets a span, and its context is attached to the
+ * {@link RoutedMessage}. Everything downstream only adds spans for messages
+ * that carry a context: the write to the client or room websocket by the
+ * {@link WSDrain} (including time spent in the queue), and pod operations
+ * (room switches) that the message triggered, which includes the player
+ * and map service calls made on its behalf ({@link TracingClientFilter}).
+ * Other REST calls are not traced.
+ * </p>
+ * Room protocol messages have no room for headers, so the trace stops at
+ * the websocket write to the room.
+ */
+@ApplicationScoped
+public class MessageTracing {
+
+    @Inject
+    Instance<Tracer> tracerInstance;
+
+    Tracer tracer;
+
+    /** Trace one message in this many. 0 = tracing off */
+    long sampleRate = 100;
+
+    @PostConstruct
+    public void postConstruct() {
+        sampleRate = Settings.getLong("traceSampleRate", sampleRate);
+        if ( tracerInstance != null && !tracerInstance.isUnsatisfied() ) {
+            tracer = tracerInstance.get();
+        }
+    }
+
+    /**
+     * Decide whether a newly arrived message should be traced. If it should,
+     * start a span for it, attach the span's context to the message, and
+     * make it the active span for the caller's thread.
+     *
+     * @param operation span name
+     * @param message the message
+     * @param peer where the message came from (user or room id)
+     * @return a scope to close when the message has been handed off, or null
+     *      if the message isn't traced
+     */
+    public Scope start(String operation, RoutedMessage message, String peer) {
+        if ( !sampled() )
+            return null;
+
+        Scope scope = tracer.buildSpan(operation)
+                .ignoreActiveSpan()
+                .withTag("flow", String.valueOf(message.getFlowTarget()))
+                .withTag("destination", message.getDestination())
+                .withTag("peer", peer)
+                .startActive(true);
+        message.setSpanContext(scope.span().context());
+        return scope;
+    }
+
+    /**
+     * Start a span for writing a traced message to a websocket.
+     * @param message the message
+     * @param enqueued when the message was queued for writing (nanoTime)
+     * @param target where it's going (user or room id)
+     * @return a span to finish once the message has been written, or null if the message isn't traced
+     */
+    public Span startWrite(RoutedMessage message, long enqueued, String target) {
+        SpanContext context = message.getSpanContext();
+        if ( context == null || tracer == null )
+            return null;
+
+        long queued = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - enqueued);
+        return tracer.buildSpan("mediator.write")
+                .asChildOf(context)
+                .withStartTimestamp(TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis()) - queued)
+                .withTag("target", target)
+                .withTag("queuedMicros", queued)
+                .start();
+    }
+
+    /**
+     * Carry the active span (if there is one) over to work done on another thread.
+     * @param operation span name for the work
+     * @param work
+     * @return work that runs in a child span of the caller's active span, or the work itself
+     */
+    public Runnable wrap(String operation, Runnable work) {
+        if ( tracer == null )
+            return work;
+
+        Span parent = tracer.activeSpan();
+        if ( parent == null )
+            return work;
+
+        SpanContext context = parent.context();
+        return () -> {
+            try (Scope scope = tracer.buildSpan(operation).asChildOf(context).startActive(true)) {
+                work.run();
+            }
+        };
+    }
+
+    /**
+     * Start a span for an outbound REST call (see {@link TracingClientFilter}),
+     * if it is made on behalf of a traced message: that is, while one of our
+     * spans is active. Calls made for anything else (e.g. health probes) are not traced.
+     * @param method HTTP method
+     * @param url request URL
+     * @param headers request headers: the span's context is added to them
+     * @return a span to finish once the response arrives, or null if the call isn't traced
+     */
+    public Span startClient(String method, String url, TextMap headers) {
+        if ( tracer == null )
+            return null;
+
+        Span parent = tracer.activeSpan();
+        if ( parent == null )
+            return null;
+
+        Span span = tracer.buildSpan("mediator.client")
+                .asChildOf(parent)
+                .withTag("span.kind", "client")
+                .withTag("http.method", method)
+                .withTag("http.url", url)
+                .start();
+        tracer.inject(span.context(), Format.Builtin.HTTP_HEADERS, headers);
+        return span;
+    }
+
+    private boolean sampled() {
+        if ( tracer == null || sampleRate <= 0 )
+            return false;
+        return sampleRate == 1 || ThreadLocalRandom.current().nextLong(sampleRate) == 0;
+    }
+}
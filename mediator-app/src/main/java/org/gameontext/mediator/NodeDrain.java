@@ -0,0 +1,245 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedScheduledExecutorService;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.websocket.CloseReason;
+import javax.websocket.CloseReason.CloseCodes;
+
+/**
+ * Takes this node out of service gently, for a rolling deploy: started
+ * from {@link NodeDrainView}, or when the application is stopped.
+ * <p>
+ * Once draining, new sessions are turned away ({@link AdmissionControl}) and
+ * the node is no longer ready ({@link HealthChecks}). Client sessions are then
+ * closed {@link #batchSize} at a time, every {@link #batchInterval} milliseconds.
+ * Each session gets up to {@link #flushWait} milliseconds to write out what is
+ * already queued for it, and is closed with {@link CloseCodes#GOING_AWAY} and a
+ * randomized "reconnect after" hint, so the other nodes don't see everyone
+ * come back at once. Players leave their rooms as their last session closes
+ * (remote rooms get a roomPart), without waiting for a reconnect. Once all
+ * client sessions are closed, the drain waits for the connections to remote
+ * rooms to write out those parts and close.
+ * </p>
+ * Anything still open after {@link #shutdownTimeout} seconds is closed right away.
+ */
+@ApplicationScoped
+public class NodeDrain {
+
+    @Inject
+    DrainMonitor drainMonitor;
+
+    @Inject
+    MediatorNexus nexus;
+
+    @Resource
+    ManagedScheduledExecutorService scheduledExecutor;
+
+    /** Number of client sessions closed at a time */
+    long batchSize = 50;
+
+    /** Milliseconds between batches */
+    long batchInterval = 1000;
+
+    /** Milliseconds a session has to write out queued messages before it is closed */
+    long flushWait = 2000;
+
+    /** Clients are told to reconnect within this many seconds */
+    long reconnectSpread = 10;
+
+    /**
+     * Seconds before everything left is closed at once. Kept below the
+     * usual 30 second termination grace period, so the drain finishes
+     * before the process is killed.
+     */
+    long shutdownTimeout = 20;
+
+    final AtomicBoolean draining = new AtomicBoolean(false);
+    final CountDownLatch done = new CountDownLatch(1);
+    final AtomicInteger closed = new AtomicInteger();
+    volatile long started = 0;
+
+    @PostConstruct
+    public void postConstruct() {
+        batchSize = Settings.getLong("drainBatchSize", batchSize);
+        batchInterval = Settings.getLong("drainBatchInterval", batchInterval);
+        flushWait = Settings.getLong("drainFlushWait", flushWait);
+        reconnectSpread = Settings.getLong("drainReconnectSpread", reconnectSpread);
+        shutdownTimeout = Settings.getLong("drainShutdownTimeout", shutdownTimeout);
+    }
+
+    /**
+     * @return true once this node has started draining
+     */
+    public boolean isDraining() {
+        return draining.get();
+    }
+
+    /**
+     * Start draining in the background
+     * @return false if we were already draining
+     */
+    public boolean start() {
+        if ( !begin() ) {
+            return false;
+        }
+        scheduledExecutor.execute(this::closeSessions);
+        return true;
+    }
+
+    /**
+     * The application is stopping: drain (if we weren't already), and wait for it to finish.
+     */
+    @PreDestroy
+    public void shutdown() {
+        if ( begin() ) {
+            closeSessions();
+        } else {
+            try {
+                done.await(shutdownTimeout, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * @return drain status, as JSON
+     */
+    public JsonObject toJson() {
+        long s = started;
+        return Json.createObjectBuilder()
+                .add("draining", isDraining())
+                .add("done", done.getCount() == 0)
+                .add("elapsedMillis", s == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - s))
+                .add("closed", closed.get())
+                .add("remaining", drainMonitor.drains.size())
+                .add("rooms", drainMonitor.roomDrains.size())
+                .build();
+    }
+
+    private boolean begin() {
+        if ( !draining.compareAndSet(false, true) ) {
+            return false;
+        }
+        started = System.nanoTime();
+        Log.log(Level.INFO, this, "Draining {0} client sessions", drainMonitor.drains.size());
+        nexus.drain();
+        return true;
+    }
+
+    /**
+     * Close client sessions in batches
+     */
+    void closeSessions() {
+        long deadline = started + TimeUnit.SECONDS.toNanos(shutdownTimeout);
+        try {
+            List<WSDrain> batch = nextBatch();
+            while ( !batch.isEmpty() ) {
+                if ( System.nanoTime() - deadline > 0 ) {
+                    break;
+                }
+                flush(batch, Math.min(deadline, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushWait)));
+                batch.forEach(this::close);
+
+                batch = nextBatch();
+                if ( !batch.isEmpty() ) {
+                    TimeUnit.MILLISECONDS.sleep(batchInterval);
+                }
+            }
+            awaitRooms(deadline);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // out of time: everyone else goes now
+            List<WSDrain> rest = new ArrayList<>(drainMonitor.drains);
+            rest.forEach(this::close);
+
+            Log.log(Level.INFO, this, "Drained {0} client sessions in {1}ms", closed.get(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+            done.countDown();
+        }
+    }
+
+    /**
+     * @return the next sessions to close
+     */
+    List<WSDrain> nextBatch() {
+        List<WSDrain> batch = new ArrayList<>();
+        for ( WSDrain drain : drainMonitor.drains ) {
+            if ( batch.size() >= batchSize )
+                break;
+            if ( drain.isStopped() ) {
+                drainMonitor.drains.remove(drain);
+            } else {
+                batch.add(drain);
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * Give the batch a chance to write out what is already queued
+     * @param deadline (nanoTime) to stop waiting
+     */
+    static void flush(List<WSDrain> batch, long deadline) throws InterruptedException {
+        while ( System.nanoTime() - deadline < 0 && batch.stream().anyMatch(d -> !d.isStopped() && d.queueDepth() > 0) ) {
+            TimeUnit.MILLISECONDS.sleep(50);
+        }
+    }
+
+    /**
+     * Wait for remote room connections to finish writing (players parting
+     * the room) and close
+     * @param deadline (nanoTime) to stop waiting
+     */
+    void awaitRooms(long deadline) throws InterruptedException {
+        while ( System.nanoTime() - deadline < 0 && drainMonitor.openRoomDrains() > 0 ) {
+            TimeUnit.MILLISECONDS.sleep(50);
+        }
+    }
+
+    void close(WSDrain drain) {
+        if ( drainMonitor.drains.remove(drain) ) {
+            closed.incrementAndGet();
+            drain.close(goingAway());
+        }
+    }
+
+    /**
+     * @return close reason telling the client to come back (to another node) in a little while
+     */
+    CloseReason goingAway() {
+        long delay = reconnectSpread <= 0 ? 0 : ThreadLocalRandom.current().nextLong(reconnectSpread + 1);
+        return new CloseReason(CloseCodes.GOING_AWAY, "Going away, reconnect after " + delay + "s");
+    }
+}
@@ -0,0 +1,76 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.io.IOException;
+
+import javax.inject.Inject;
+import javax.json.Json;
+import javax.json.JsonWriter;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.core.MediaType;
+
+/**
+ * Drain this node before it is stopped (see {@link NodeDrain}): POST to start,
+ * GET for progress. Requires the admin credentials (see {@link AdminAuth}).
+ */
+@WebServlet("/admin/drain")
+public class NodeDrainView extends HttpServlet {
+
+    private static final long serialVersionUID = 1L;
+
+    @Inject
+    NodeDrain nodeDrain;
+
+    /**
+     * @see HttpServlet#doGet(HttpServletRequest request, HttpServletResponse
+     *      response)
+     */
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        if ( !AdminAuth.check(request, response, "Mediator drain") )
+            return;
+
+        write(response);
+    }
+
+    /**
+     * @see HttpServlet#doPost(HttpServletRequest request, HttpServletResponse
+     *      response)
+     */
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        if ( !AdminAuth.check(request, response, "Mediator drain") )
+            return;
+
+        if ( nodeDrain.start() ) {
+            response.setStatus(HttpServletResponse.SC_ACCEPTED);
+        }
+        write(response);
+    }
+
+    private void write(HttpServletResponse response) throws IOException {
+        response.setContentType(MediaType.APPLICATION_JSON);
+        response.setCharacterEncoding("UTF-8");
+        try (JsonWriter writer = Json.createWriter(response.getWriter())) {
+            writer.writeObject(nodeDrain.toJson());
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+
+/**
+ * Consistent hash of player id to mediator node.
+ * <p>
+ * All of a player's sessions (phone, browser tabs) should land on the same
+ * node, so they share one {@code ClientMediatorPod} and are merged locally by
+ * {@link MediatorNexus#join}, instead of relying on Kafka location updates and
+ * splinch recovery to keep separate nodes in step.
+ * </p>
+ * <p>
+ * The members are listed in {@code mediatorNodes} (comma separated, e.g. the
+ * pod names of a StatefulSet), and this node's own name is {@code mediatorNodeId}
+ * (defaults to the host name). Each node gets {@link #vnodes} points on the ring;
+ * a player belongs to the first point at or after the hash of their id. The
+ * hash is the first 8 bytes (big endian) of the MD5 digest of the UTF-8 string,
+ * for both player ids and points ({@code <node>#<n>}), so a load balancer or
+ * edge proxy can compute the same owner from the ring published at
+ * {@code /mediator/ring} (see {@link NodeRingView}).
+ * </p>
+ * With no members configured, every player belongs here.
+ */
+@ApplicationScoped
+public class NodeRing {
+
+    /** What to do when a session lands on a node that doesn't own the player */
+    public enum Affinity {
+        /** Keep the session, and tell the client where it should connect */
+        HINT,
+        /** Close the session, telling the client where to reconnect */
+        REDIRECT,
+        /** Ignore it */
+        OFF
+    }
+
+    /** Number of points on the ring for each node */
+    long vnodes = 100;
+
+    /** This node */
+    String self;
+
+    Affinity affinity = Affinity.HINT;
+
+    /** The current ring: replaced, never modified */
+    volatile Ring ring = new Ring(Collections.emptyList(), 0);
+
+    final LongAdder misses = new LongAdder();
+
+    @PostConstruct
+    public void postConstruct() {
+        vnodes = Settings.getLong("mediatorRingVnodes", vnodes);
+        self = Settings.getString("mediatorNodeId", System.getenv("HOSTNAME"));
+        try {
+            affinity = Affinity.valueOf(Settings.getString("mediatorAffinity", affinity.name()).toUpperCase());
+        } catch (IllegalArgumentException e) {
+            Log.log(Level.WARNING, this, "Unknown mediatorAffinity, using {0}", affinity);
+        }
+
+        String nodes = Settings.getString("mediatorNodes", "");
+        setNodes(Arrays.asList(nodes.split(",")));
+        Log.log(Level.INFO, this, "Mediator {0} in ring {1}, affinity {2}", self, ring.nodes, affinity);
+    }
+
+    /**
+     * Replace the members of the ring
+     * @param nodes node names (blank entries are ignored)
+     */
+    public void setNodes(List<String> nodes) {
+        List<String> members = new ArrayList<>();
+        for ( String n : nodes ) {
+            if ( n != null && !n.trim().isEmpty() && !members.contains(n.trim()) ) {
+                members.add(n.trim());
+            }
+        }
+        Collections.sort(members);
+        ring = new Ring(members, (int) vnodes);
+    }
+
+    /**
+     * @param userId player id
+     * @return the node that should host this player, or null if there is no ring
+     */
+    public String owner(String userId) {
+        return ring.owner(userId);
+    }
+
+    /**
+     * @param userId player id
+     * @return the node this player should move to, or null if they are in the right place
+     *    (or we can't tell)
+     */
+    public String misplaced(String userId) {
+        if ( affinity == Affinity.OFF || self == null )
+            return null;
+
+        Ring r = ring;
+        if ( !r.nodes.contains(self) )
+            return null; // we aren't a member: nowhere is right
+
+        String owner = r.owner(userId);
+        if ( owner == null || owner.equals(self) )
+            return null;
+
+        misses.increment();
+        return owner;
+    }
+
+    public Affinity getAffinity() {
+        return affinity;
+    }
+
+    public String getSelf() {
+        return self;
+    }
+
+    /**
+     * @return the ring, as published at {@code /mediator/ring}
+     */
+    public JsonObject toJson() {
+        Ring r = ring;
+        JsonArrayBuilder nodes = Json.createArrayBuilder();
+        for ( String n : r.nodes ) {
+            nodes.add(n);
+        }
+        return Json.createObjectBuilder()
+                .add("self", self == null ? "" : self)
+                .add("hash", "md5-64")
+                .add("vnodes", r.vnodes)
+                .add("nodes", nodes)
+                .add("misses", misses.sum())
+                .build();
+    }
+
+    /**
+     * @param value string to hash
+     * @return first 8 bytes of the MD5 digest, big endian
+     */
+    static long hash(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(value.getBytes(StandardCharsets.UTF_8));
+            long h = 0;
+            for ( int i = 0; i < 8; i++ ) {
+                h = (h << 8) | (digest[i] & 0xff);
+            }
+            return h;
+        } catch (NoSuchAlgorithmException e) {
+            // every JVM has MD5
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static class Ring {
+        final List<String> nodes;
+        final int vnodes;
+        final long[] points;
+        final String[] owners;
+
+        Ring(List<String> nodes, int vnodes) {
+            this.nodes = Collections.unmodifiableList(nodes);
+            this.vnodes = vnodes;
+
+            int size = nodes.size() * vnodes;
+            long[] hashes = new long[size];
+            String[] names = new String[size];
+            Integer[] order = new Integer[size];
+            int i = 0;
+            for ( String n : nodes ) {
+                for ( int v = 0; v < vnodes; v++ ) {
+                    hashes[i] = hash(n + "#" + v);
+                    names[i] = n;
+                    order[i] = i;
+                    i++;
+                }
+            }
+            Arrays.sort(order, (a, b) -> Long.compare(hashes[a], hashes[b]));
+
+            points = new long[size];
+            owners = new String[size];
+            for ( i = 0; i < size; i++ ) {
+                points[i] = hashes[order[i]];
+                owners[i] = names[order[i]];
+            }
+        }
+
+        String owner(String key) {
+            if ( points.length == 0 || key == null )
+                return null;
+
+            int i = Arrays.binarySearch(points, hash(key));
+            if ( i < 0 ) {
+                i = -i - 1; // insertion point: first point after the hash
+            }
+            return owners[i == points.length ? 0 : i];
+        }
+    }
+}
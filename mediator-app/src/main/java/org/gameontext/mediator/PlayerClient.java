@@ -29,6 +29,7 @@ import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.SSLSession;
 import javax.ws.rs.ProcessingException;
 import javax.ws.rs.WebApplicationException;
+import javax.inject.Inject;
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.Entity;
@@ -38,6 +39,7 @@ import javax.ws.rs.client.WebTarget;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
+
 import com.fasterxml.jackson.core.JsonProcessingException;
 
 /**
@@ -76,6 +78,10 @@ public class PlayerClient {
     @Resource(lookup = "serverUuid")
     String SERVER_UUID;
 
+    /** Spans for calls made on behalf of traced messages */
+    @Inject
+    MessageTracing tracing;
+
     /**
      * The root target used to define the root path and common query parameters
      * for all outbound requests to the player service.
@@ -112,12 +118,44 @@ public class PlayerClient {
                                      .build();
 
         client.register(JsonProvider.class);
+        if ( tracing != null ) {
+            client.register(new TracingClientFilter(tracing));
+        }
 
         this.root = client.target(playerLocation);
 
         Log.log(Level.FINER, this, "Player client initialized with {0}", playerLocation);
     }
 
+    /**
+     * Time an OPTIONS request against the player service root. This is
+     * answered without looking anything up, so it measures how quickly the
+     * service is responding rather than the cost of a particular query.
+     *
+     * @param timeoutMillis connect and read timeout
+     * @return round trip time in nanoseconds, or -1 if the player service
+     *     could not be reached, timed out, or returned a server error.
+     * @see HealthChecks
+     */
+    public long probe(long timeoutMillis) {
+        if ( root == null )
+            return -1;
+
+        long start = System.nanoTime();
+        try {
+            Response r = HealthChecks.withTimeout(root.request(), timeoutMillis).options();
+            r.close();
+            if ( r.getStatus() >= 500 ) {
+                Log.log(Level.FINER, this, "Player service probe returned {0}", r.getStatus());
+                return -1;
+            }
+            return System.nanoTime() - start;
+        } catch (ProcessingException | WebApplicationException ex) {
+            Log.log(Level.FINER, this, "Player service probe failed", ex);
+            return -1;
+        }
+    }
+
     /**
      * Update the player's location. The new location will always be returned
      * from the service, in the face of a conflict between updates for the
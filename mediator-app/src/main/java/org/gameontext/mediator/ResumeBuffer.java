@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.gameontext.mediator.RoutedMessage.FlowTarget;
+
+/**
+ * The last few messages sent to a player, kept so a client that
+ * reconnects after a short network blip can be sent just the messages
+ * it missed (see {@link MediatorNexus.ClientMediatorPod}).
+ * <p>
+ * Clients send the bookmark of the last message they saw when they
+ * reconnect. Bookmarks are only looked for when a client resumes
+ * (messages are parsed from the newest back): recording a message is
+ * an array write.
+ * </p>
+ */
+public final class ResumeBuffer {
+
+    /** Records nothing: clients can never resume */
+    public static final ResumeBuffer DISABLED = new ResumeBuffer(0);
+
+    private final RoutedMessage[] messages;
+
+    /** Total number of messages recorded */
+    private long next = 0;
+
+    /**
+     * @param capacity number of messages to remember, 0 to record nothing
+     */
+    public ResumeBuffer(int capacity) {
+        messages = new RoutedMessage[Math.max(0, capacity)];
+    }
+
+    /**
+     * @return number of messages remembered
+     */
+    public int capacity() {
+        return messages.length;
+    }
+
+    /**
+     * Remember a message sent to the player. Only player messages are kept:
+     * acks and location changes are sent fresh when a client resumes.
+     * @param message
+     */
+    public synchronized void record(RoutedMessage message) {
+        if ( messages.length == 0 || message.getFlowTarget() != FlowTarget.player )
+            return;
+
+        messages[(int) (next++ % messages.length)] = message;
+    }
+
+    /**
+     * @param bookmark the bookmark of the last message the client saw
+     * @return the messages recorded after the one with this bookmark, oldest first
+     *    (empty if the client is up to date), or null if the bookmark is not in the
+     *    buffer (the gap can't be filled)
+     */
+    public synchronized List<RoutedMessage> since(String bookmark) {
+        if ( bookmark == null || bookmark.isEmpty() )
+            return null;
+
+        long first = Math.max(0, next - messages.length);
+        for ( long n = next - 1; n >= first; n-- ) {
+            RoutedMessage m = messages[(int) (n % messages.length)];
+            if ( bookmark.equals(m.getString(Constants.KEY_BOOKMARK)) ) {
+                if ( n == next - 1 )
+                    return Collections.emptyList();
+
+                List<RoutedMessage> gap = new ArrayList<>((int) (next - 1 - n));
+                for ( long i = n + 1; i < next; i++ ) {
+                    gap.add(messages[(int) (i % messages.length)]);
+                }
+                return gap;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Forget everything: the client can't resume from any earlier bookmark
+     */
+    public synchronized void clear() {
+        for ( int i = 0; i < messages.length; i++ ) {
+            messages[i] = null;
+        }
+        next = 0;
+    }
+}
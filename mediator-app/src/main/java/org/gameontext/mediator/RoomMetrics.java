@@ -0,0 +1,475 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+import java.util.logging.Level;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedScheduledExecutorService;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+
+import org.eclipse.microprofile.metrics.Gauge;
+import org.eclipse.microprofile.metrics.Metadata;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.MetricType;
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.gameontext.mediator.room.RoomMediator;
+
+/**
+ * Traffic and health of the rooms this mediator is talking to, by room id:
+ * connected players, messages and bytes in each direction, reconnects after
+ * a dropped connection, failed connection attempts (which leave the player
+ * in a {@link org.gameontext.mediator.room.SickRoom}), the last handshake
+ * latency, and the type of the delegate most recently chosen for the room.
+ * <p>
+ * Every room is counted, but only the busiest {@link #topK} rooms (by message
+ * rate over the last interval) get their own mpMetrics gauges
+ * ({@code room_<id>_*}). Everything else is summed into {@code rooms_other_*},
+ * which keeps the number of metrics bounded no matter how many rooms exist.
+ * Rooms move in and out of the top K, so the gauges only report values for
+ * the last interval (rates, and counts within the interval): a running total
+ * would jump whenever a room changed buckets. Running totals are listed,
+ * with every room, by the admin resource, {@link RoomMetricsView}.
+ * </p>
+ * Rankings and rates are recalculated every {@link #interval} seconds.
+ * Rooms with no players and no traffic for a few intervals are forgotten.
+ */
+@ApplicationScoped
+public class RoomMetrics {
+
+    static final String PREFIX = "room_";
+    static final String OTHER = "other";
+    static final String OTHER_PREFIX = "rooms_other";
+
+    /** Idle rooms are forgotten after this many intervals */
+    static final int IDLE_INTERVALS = 10;
+
+    @Inject
+    MetricRegistry metrics;
+
+    @Resource
+    ManagedScheduledExecutorService scheduledExecutor;
+
+    /** Number of rooms that get their own gauges */
+    long topK = 10;
+
+    /** Seconds between ranking updates */
+    long interval = 60;
+
+    /** Source of the number of connected players in a room (see {@link MediatorNexus#roomPopulation(String)}) */
+    ToIntFunction<String> population = roomId -> 0;
+
+    final ConcurrentHashMap<String, RoomStats> rooms = new ConcurrentHashMap<>();
+
+    /** Totals for rooms outside the top K, as of the last ranking */
+    volatile Snapshot other = new Snapshot(OTHER);
+
+    /** Rooms with registered gauges, by room id: only touched by {@link #rank()} */
+    final Map<String, String> registered = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void postConstruct() {
+        topK = Settings.getLong("roomMetricsTopK", topK);
+        interval = Settings.getLong("roomMetricsInterval", interval);
+
+        if ( metrics != null ) {
+            register(OTHER_PREFIX, () -> other);
+        }
+        if ( scheduledExecutor != null ) {
+            scheduledExecutor.scheduleAtFixedRate(this::rank, interval, interval, TimeUnit.SECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void preDestroy() {
+        if ( metrics != null ) {
+            registered.values().forEach(this::unregister);
+            registered.clear();
+        }
+    }
+
+    /**
+     * @param population provides the number of players connected to a room
+     */
+    public void setPopulation(ToIntFunction<String> population) {
+        this.population = population;
+    }
+
+    /**
+     * One pass over the (already encoded) text, without allocating: cheaper
+     * than {@code getBytes(UTF_8).length} on the per-message path.
+     * @param text
+     * @return the length of the text encoded as UTF-8 (as written to the websocket), in bytes
+     */
+    static int utf8Length(String text) {
+        int length = text.length();
+        int bytes = length;
+        for ( int i = 0; i < length; i++ ) {
+            char c = text.charAt(i);
+            if ( c >= 0x800 ) {
+                bytes += 2;
+                if ( Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1)) ) {
+                    i++; // 4 bytes for the pair
+                }
+            } else if ( c >= 0x80 ) {
+                bytes += 1;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * A message from the room, headed to players
+     * @param roomId
+     * @param message
+     */
+    public void received(String roomId, RoutedMessage message) {
+        RoomStats stats = stats(roomId);
+        stats.messagesIn.increment();
+        stats.bytesIn.add(utf8Length(message.toString()));
+    }
+
+    /**
+     * A message from a player, accepted for delivery to the room
+     * @param roomId
+     * @param message
+     */
+    public void sent(String roomId, RoutedMessage message) {
+        RoomStats stats = stats(roomId);
+        stats.messagesOut.increment();
+        stats.bytesOut.add(utf8Length(message.toString()));
+    }
+
+    /**
+     * The connection to the room dropped, and we're trying again
+     * @param roomId
+     */
+    public void reconnect(String roomId) {
+        stats(roomId).reconnects.increment();
+    }
+
+    /**
+     * An attempt to connect to the room failed: players get a sick room
+     * @param roomId
+     */
+    public void connectFailed(String roomId) {
+        stats(roomId).sickAttempts.increment();
+    }
+
+    /**
+     * The websocket handshake with the room completed
+     * @param roomId
+     * @param latencyNanos
+     */
+    public void handshake(String roomId, long latencyNanos) {
+        stats(roomId).handshakeNanos = latencyNanos;
+    }
+
+    /**
+     * A proxy for the room has a new delegate
+     * @param roomId
+     * @param type
+     */
+    public void delegate(String roomId, RoomMediator.Type type) {
+        stats(roomId).delegateType = type;
+    }
+
+    /**
+     * Recalculate message rates, choose the busiest rooms, and move gauges
+     * to match. Called every {@link #interval} seconds.
+     */
+    public synchronized void rank() {
+        long now = System.nanoTime();
+        List<Snapshot> all = new ArrayList<>(rooms.size());
+
+        for ( RoomStats stats : rooms.values() ) {
+            Snapshot s = stats.snapshot(now, population.applyAsInt(stats.roomId));
+            if ( s.idle() ) {
+                if ( ++stats.idleIntervals >= IDLE_INTERVALS ) {
+                    rooms.remove(stats.roomId, stats);
+                    continue;
+                }
+            } else {
+                stats.idleIntervals = 0;
+            }
+            all.add(s);
+        }
+
+        Collections.sort(all, BUSIEST);
+
+        Snapshot otherTotal = new Snapshot(OTHER);
+        Set<String> top = new HashSet<>();
+        for ( Snapshot s : all ) {
+            if ( top.size() < topK ) {
+                top.add(s.roomId);
+            } else {
+                otherTotal.add(s);
+            }
+        }
+        other = otherTotal;
+
+        if ( metrics == null )
+            return;
+
+        registered.entrySet().removeIf(e -> {
+            if ( top.contains(e.getKey()) )
+                return false;
+            unregister(e.getValue());
+            return true;
+        });
+
+        for ( String roomId : top ) {
+            if ( !registered.containsKey(roomId) ) {
+                String prefix = PREFIX + metricName(roomId);
+                if ( registered.containsValue(prefix) ) {
+                    // two ids that only differ by punctuation
+                    prefix += "_" + Integer.toHexString(roomId.hashCode());
+                }
+                Log.log(Level.FINER, this, "Room metrics: {0} is now in the top {1}", roomId, topK);
+                register(prefix, () -> {
+                    RoomStats stats = rooms.get(roomId);
+                    return stats == null ? null : stats.last;
+                });
+                registered.put(roomId, prefix);
+            }
+        }
+    }
+
+    /**
+     * @return all known rooms (busiest first) and the total for rooms outside the top K
+     */
+    public JsonObject toJson() {
+        List<Snapshot> all = new ArrayList<>(rooms.size());
+        for ( RoomStats stats : rooms.values() ) {
+            if ( stats.last != null )
+                all.add(stats.last);
+        }
+        Collections.sort(all, BUSIEST);
+
+        JsonArrayBuilder list = Json.createArrayBuilder();
+        for ( Snapshot s : all ) {
+            RoomStats stats = rooms.get(s.roomId);
+            JsonObjectBuilder room = s.toJson();
+            room.add("top", registered.containsKey(s.roomId));
+            if ( stats != null && stats.delegateType != null ) {
+                room.add("delegate", stats.delegateType.name());
+            }
+            list.add(room);
+        }
+
+        return Json.createObjectBuilder()
+                .add("interval", interval)
+                .add("topK", topK)
+                .add("rooms", list)
+                .add(OTHER, other.toJson())
+                .build();
+    }
+
+    /**
+     * @param roomId
+     * @return a metric-name friendly version of the room id
+     */
+    static String metricName(String roomId) {
+        StringBuilder name = new StringBuilder(roomId.length());
+        for ( int i = 0; i < roomId.length(); i++ ) {
+            char c = roomId.charAt(i);
+            name.append(Character.isLetterOrDigit(c) && c < 128 ? c : '_');
+        }
+        return name.toString();
+    }
+
+    private RoomStats stats(String roomId) {
+        return rooms.computeIfAbsent(roomId, RoomStats::new);
+    }
+
+    private void register(String prefix, Supplier<Snapshot> source) {
+        gauge(prefix + "_pods", MetricUnits.NONE, source, s -> s.pods);
+        gauge(prefix + "_messages_in_rate", MetricUnits.PER_SECOND, source, s -> s.messagesInRate);
+        gauge(prefix + "_messages_out_rate", MetricUnits.PER_SECOND, source, s -> s.messagesOutRate);
+        gauge(prefix + "_bytes_in_rate", MetricUnits.PER_SECOND, source, s -> s.bytesInRate);
+        gauge(prefix + "_bytes_out_rate", MetricUnits.PER_SECOND, source, s -> s.bytesOutRate);
+        gauge(prefix + "_reconnects_interval", MetricUnits.NONE, source, s -> s.reconnectsInterval);
+        gauge(prefix + "_sick_attempts_interval", MetricUnits.NONE, source, s -> s.sickAttemptsInterval);
+        gauge(prefix + "_handshake_latency", MetricUnits.MILLISECONDS, source, s -> s.handshakeMillis);
+    }
+
+    private void unregister(String prefix) {
+        for ( String suffix : SUFFIXES ) {
+            metrics.remove(prefix + suffix);
+        }
+    }
+
+    private void gauge(String name, String unit, Supplier<Snapshot> source, ToLongFunction<Snapshot> value) {
+        Gauge<Long> gauge = () -> {
+            Snapshot s = source.get();
+            return s == null ? 0 : value.applyAsLong(s);
+        };
+        metrics.register(new Metadata(name, MetricType.GAUGE, unit), gauge);
+    }
+
+    static final String[] SUFFIXES = {
+            "_pods", "_messages_in_rate", "_messages_out_rate", "_bytes_in_rate", "_bytes_out_rate",
+            "_reconnects_interval", "_sick_attempts_interval", "_handshake_latency"
+    };
+
+    static final Comparator<Snapshot> BUSIEST = Comparator
+            .comparingLong((Snapshot s) -> s.messagesInRate + s.messagesOutRate)
+            .thenComparingInt(s -> s.pods)
+            .reversed()
+            .thenComparing(s -> s.roomId);
+
+    /**
+     * Running totals for one room. Counters are updated without locking,
+     * {@link #snapshot(long, int)} is only called while ranking.
+     */
+    static class RoomStats {
+        final String roomId;
+        final LongAdder messagesIn = new LongAdder();
+        final LongAdder messagesOut = new LongAdder();
+        final LongAdder bytesIn = new LongAdder();
+        final LongAdder bytesOut = new LongAdder();
+        final LongAdder reconnects = new LongAdder();
+        final LongAdder sickAttempts = new LongAdder();
+        volatile long handshakeNanos = -1;
+        volatile RoomMediator.Type delegateType;
+
+        /** Most recent snapshot, as of the last ranking */
+        volatile Snapshot last;
+        long lastTime = System.nanoTime();
+        int idleIntervals = 0;
+
+        RoomStats(String roomId) {
+            this.roomId = roomId;
+        }
+
+        Snapshot snapshot(long now, int pods) {
+            Snapshot s = new Snapshot(roomId);
+            s.pods = pods;
+            s.messagesIn = messagesIn.sum();
+            s.messagesOut = messagesOut.sum();
+            s.bytesIn = bytesIn.sum();
+            s.bytesOut = bytesOut.sum();
+            s.reconnects = reconnects.sum();
+            s.sickAttempts = sickAttempts.sum();
+            s.handshakeMillis = handshakeNanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(handshakeNanos);
+
+            Snapshot previous = last == null ? new Snapshot(roomId) : last;
+            long elapsed = TimeUnit.NANOSECONDS.toSeconds(now - lastTime);
+            if ( elapsed > 0 ) {
+                s.messagesInRate = (s.messagesIn - previous.messagesIn) / elapsed;
+                s.messagesOutRate = (s.messagesOut - previous.messagesOut) / elapsed;
+                s.bytesInRate = (s.bytesIn - previous.bytesIn) / elapsed;
+                s.bytesOutRate = (s.bytesOut - previous.bytesOut) / elapsed;
+            }
+            s.reconnectsInterval = s.reconnects - previous.reconnects;
+            s.sickAttemptsInterval = s.sickAttempts - previous.sickAttempts;
+            s.changed = last == null
+                    || s.messagesIn != previous.messagesIn
+                    || s.messagesOut != previous.messagesOut
+                    || s.reconnects != previous.reconnects
+                    || s.sickAttempts != previous.sickAttempts;
+
+            last = s;
+            lastTime = now;
+            return s;
+        }
+    }
+
+    /**
+     * Values for one room (or the sum of several), as of the last ranking
+     */
+    static class Snapshot {
+        final String roomId;
+        int pods;
+        long messagesIn;
+        long messagesOut;
+        long messagesInRate;
+        long messagesOutRate;
+        long bytesIn;
+        long bytesOut;
+        long bytesInRate;
+        long bytesOutRate;
+        long reconnects;
+        long sickAttempts;
+        /** Reconnects and failed connection attempts since the previous snapshot */
+        long reconnectsInterval;
+        long sickAttemptsInterval;
+        long handshakeMillis = -1;
+        boolean changed;
+
+        Snapshot(String roomId) {
+            this.roomId = roomId;
+        }
+
+        boolean idle() {
+            return pods == 0 && !changed;
+        }
+
+        void add(Snapshot s) {
+            pods += s.pods;
+            messagesIn += s.messagesIn;
+            messagesOut += s.messagesOut;
+            messagesInRate += s.messagesInRate;
+            messagesOutRate += s.messagesOutRate;
+            bytesIn += s.bytesIn;
+            bytesOut += s.bytesOut;
+            bytesInRate += s.bytesInRate;
+            bytesOutRate += s.bytesOutRate;
+            reconnects += s.reconnects;
+            sickAttempts += s.sickAttempts;
+            reconnectsInterval += s.reconnectsInterval;
+            sickAttemptsInterval += s.sickAttemptsInterval;
+            handshakeMillis = Math.max(handshakeMillis, s.handshakeMillis);
+        }
+
+        JsonObjectBuilder toJson() {
+            return Json.createObjectBuilder()
+                    .add("id", roomId)
+                    .add("pods", pods)
+                    .add("messagesIn", messagesIn)
+                    .add("messagesOut", messagesOut)
+                    .add("messagesInRate", messagesInRate)
+                    .add("messagesOutRate", messagesOutRate)
+                    .add("bytesIn", bytesIn)
+                    .add("bytesOut", bytesOut)
+                    .add("bytesInRate", bytesInRate)
+                    .add("bytesOutRate", bytesOutRate)
+                    .add("reconnects", reconnects)
+                    .add("sickAttempts", sickAttempts)
+                    .add("handshakeMillis", handshakeMillis);
+        }
+    }
+}
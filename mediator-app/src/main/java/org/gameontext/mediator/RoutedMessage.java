@@ -31,6 +31,8 @@ import javax.websocket.DecodeException;
 
 import org.gameontext.mediator.room.RoomMediator;
 
+import io.opentracing.SpanContext;
+
 /**
  * Routed messages are intended to defer or avoid processing the bulk of the
  * JSON message for the instances when the mediator acts only as a pass-through.
@@ -177,6 +179,15 @@ public class RoutedMessage {
      */
     private String wholeMessage;
 
+    /** When the message was decoded (System.nanoTime), 0 for messages created by the mediator */
+    private long ingressNanos;
+
+    /** Id of the room a client-bound message came from, if it came from a room */
+    private String sourceRoom;
+
+    /** Trace context, if this message is being traced (see {@link MessageTracing}) */
+    private SpanContext spanContext;
+
     /**
      * Either player* if the message is flowing from room to player, or room* if
      * the message is flowing from player to room.
@@ -289,6 +300,48 @@ public class RoutedMessage {
         this.jsonData = jsonData;
     }
 
+    /**
+     * Remember when this message arrived (see {@link HopLatency})
+     */
+    public void markIngress() {
+        this.ingressNanos = System.nanoTime();
+    }
+
+    /**
+     * @return when this message was decoded (System.nanoTime), or 0
+     */
+    public long getIngressNanos() {
+        return ingressNanos;
+    }
+
+    /**
+     * @param roomId id of the room this (client-bound) message came from
+     */
+    public void setSourceRoom(String roomId) {
+        this.sourceRoom = roomId;
+    }
+
+    /**
+     * @return id of the room this message came from, or null
+     */
+    public String getSourceRoom() {
+        return sourceRoom;
+    }
+
+    /**
+     * @param spanContext trace context for this message
+     */
+    public void setSpanContext(SpanContext spanContext) {
+        this.spanContext = spanContext;
+    }
+
+    /**
+     * @return trace context for this message, or null if it isn't being traced
+     */
+    public SpanContext getSpanContext() {
+        return spanContext;
+    }
+
     /**
      * @return the routing portion of the original message (player*, room*,
      *         ready, ack, sos)
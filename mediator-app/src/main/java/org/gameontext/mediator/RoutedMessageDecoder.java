@@ -28,12 +28,15 @@ public class RoutedMessageDecoder implements Decoder.Text<RoutedMessage> {
 
     /**
      * Simple decoder: relies on RoutedMessage to parse the message.
+     * The message is stamped with the time it arrived.
      *
      * @see javax.websocket.Decoder.Text#decode(java.lang.String)
      */
     @Override
     public RoutedMessage decode(String msg) throws DecodeException {
-        return new RoutedMessage(msg);
+        RoutedMessage message = new RoutedMessage(msg);
+        message.markIngress();
+        return message;
     }
 
     @Override
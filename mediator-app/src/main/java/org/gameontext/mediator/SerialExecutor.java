@@ -0,0 +1,80 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+
+/**
+ * Runs tasks one at a time, in the order they were submitted, using a shared
+ * underlying executor. Tasks submitted while another is running (including
+ * from within a running task) are queued behind it: the underlying executor
+ * only ever sees one drain task for this instance at a time.
+ */
+public class SerialExecutor implements Executor {
+
+    private final Executor executor;
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean draining = new AtomicBoolean(false);
+
+    public SerialExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        tasks.add(task);
+        scheduleDrain();
+    }
+
+    /**
+     * @return true if nothing is queued or running
+     */
+    public boolean isIdle() {
+        return !draining.get() && tasks.isEmpty();
+    }
+
+    private void scheduleDrain() {
+        if ( draining.compareAndSet(false, true) ) {
+            try {
+                executor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                // executor is going away: do the work here
+                drain();
+            }
+        }
+    }
+
+    private void drain() {
+        Runnable task;
+        while ( (task = tasks.poll()) != null ) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                Log.log(Level.WARNING, this, "Uncaught exception processing queued task", e);
+            }
+        }
+        draining.set(false);
+
+        // Something may have been added after the last poll, but before the flag was cleared
+        if ( !tasks.isEmpty() ) {
+            scheduleDrain();
+        }
+    }
+}
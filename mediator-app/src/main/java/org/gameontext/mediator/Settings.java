@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.util.logging.Level;
+
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+
+/**
+ * Optional tuning values. These are read from JNDI ({@code <jndiEntry />}
+ * elements in server.xml, usually mapped from environment variables),
+ * falling back to a default when the entry is missing or unusable.
+ * <p>
+ * Required values (urls, keys) are still injected with {@code @Resource}:
+ * this is for knobs that have sensible defaults.
+ * </p>
+ */
+public class Settings {
+
+    /**
+     * @param jndiName name of the jndiEntry
+     * @param defaultValue value to use if the entry is missing or not a number
+     * @return configured value or the default
+     */
+    public static long getLong(String jndiName, long defaultValue) {
+        try {
+            Object value = new InitialContext().lookup(jndiName);
+            if ( value instanceof Number ) {
+                return ((Number) value).longValue();
+            } else if ( value != null ) {
+                return Long.parseLong(value.toString().trim());
+            }
+        } catch (NamingException | NumberFormatException e) {
+            Log.log(Level.FINEST, jndiName, "Using default value for {0}: {1}", jndiName, defaultValue);
+        }
+        return defaultValue;
+    }
+
+    /**
+     * @param jndiName name of the jndiEntry
+     * @param defaultValue value to use if the entry is missing
+     * @return configured value or the default
+     */
+    public static boolean getBoolean(String jndiName, boolean defaultValue) {
+        try {
+            Object value = new InitialContext().lookup(jndiName);
+            if ( value instanceof Boolean ) {
+                return (Boolean) value;
+            } else if ( value != null ) {
+                return Boolean.parseBoolean(value.toString().trim());
+            }
+        } catch (NamingException e) {
+            Log.log(Level.FINEST, jndiName, "Using default value for {0}: {1}", jndiName, defaultValue);
+        }
+        return defaultValue;
+    }
+
+    /**
+     * @param jndiName name of the jndiEntry
+     * @param defaultValue value to use if the entry is missing or empty
+     * @return configured value or the default
+     */
+    public static String getString(String jndiName, String defaultValue) {
+        try {
+            Object value = new InitialContext().lookup(jndiName);
+            if ( value != null && !value.toString().trim().isEmpty() ) {
+                return value.toString().trim();
+            }
+        } catch (NamingException e) {
+            Log.log(Level.FINEST, jndiName, "Using default value for {0}: {1}", jndiName, defaultValue);
+        }
+        return defaultValue;
+    }
+}
@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket used to shape message flow.
+ * <p>
+ * Rather than tracking a count of tokens that has to be refilled, this
+ * tracks the theoretical arrival time of the next message (GCRA): each
+ * accepted message pushes that time forward by one emission interval,
+ * and a message is rejected if accepting it would push the time further
+ * ahead of now than the allowed burst. A single CAS per attempt.
+ * </p>
+ */
+public class TokenBucket {
+
+    /** Nanoseconds per token (1 / rate) */
+    private final long interval;
+
+    /** How far ahead of now the arrival time may run (burst) */
+    private final long limit;
+
+    /** Theoretical arrival time of the next message */
+    private final AtomicLong tat;
+
+    /** Number of rejected attempts */
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * @param perSecond sustained rate (messages per second). A value &lt;= 0 disables the limit.
+     * @param burst number of messages that may be sent back-to-back
+     */
+    public TokenBucket(long perSecond, long burst) {
+        this.interval = perSecond <= 0 ? 0 : TimeUnit.SECONDS.toNanos(1) / perSecond;
+        this.limit = interval * Math.max(1, burst);
+        this.tat = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * @return true if a token was available, false if the caller should back off
+     */
+    public boolean tryAcquire() {
+        return tryAcquire(System.nanoTime());
+    }
+
+    boolean tryAcquire(long now) {
+        if ( interval == 0 )
+            return true;
+
+        while (true) {
+            long current = tat.get();
+            long next = (current - now > 0 ? current : now) + interval;
+
+            if ( next - now > limit ) {
+                rejected.incrementAndGet();
+                return false;
+            }
+            if ( tat.compareAndSet(current, next) ) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return number of attempts that were rejected by this bucket
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName()
+                + "[interval=" + interval
+                + ", limit=" + limit
+                + ", rejected=" + rejected.get()
+                + "]";
+    }
+}
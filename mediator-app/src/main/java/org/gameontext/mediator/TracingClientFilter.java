@@ -0,0 +1,73 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientRequestFilter;
+import javax.ws.rs.client.ClientResponseContext;
+import javax.ws.rs.client.ClientResponseFilter;
+
+import io.opentracing.Span;
+import io.opentracing.propagation.TextMap;
+
+/**
+ * Adds a span to map and player service calls made on behalf of a traced
+ * message (see {@link MessageTracing#startClient(String, String, TextMap)}),
+ * and passes the trace context along in the request headers. Untraced calls
+ * go out untouched, so REST traffic follows the same sampling as messages.
+ */
+public class TracingClientFilter implements ClientRequestFilter, ClientResponseFilter {
+
+    static final String SPAN_PROPERTY = TracingClientFilter.class.getName() + ".span";
+
+    final MessageTracing tracing;
+
+    public TracingClientFilter(MessageTracing tracing) {
+        this.tracing = tracing;
+    }
+
+    @Override
+    public void filter(ClientRequestContext request) throws IOException {
+        Span span = tracing.startClient(request.getMethod(), String.valueOf(request.getUri()), new TextMap() {
+            @Override
+            public void put(String key, String value) {
+                request.getHeaders().putSingle(key, value);
+            }
+
+            @Override
+            public Iterator<Map.Entry<String, String>> iterator() {
+                throw new UnsupportedOperationException("inject only");
+            }
+        });
+
+        if ( span != null ) {
+            request.setProperty(SPAN_PROPERTY, span);
+        }
+    }
+
+    @Override
+    public void filter(ClientRequestContext request, ClientResponseContext response) throws IOException {
+        Object span = request.getProperty(SPAN_PROPERTY);
+        if ( span instanceof Span ) {
+            ((Span) span).setTag("http.status_code", response.getStatus());
+            ((Span) span).finish();
+        }
+    }
+}
@@ -15,30 +15,74 @@
  *******************************************************************************/
 package org.gameontext.mediator;
 
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 
 import javax.websocket.CloseReason;
+import javax.websocket.CloseReason.CloseCodes;
+import javax.websocket.EncodeException;
+import javax.websocket.SendResult;
 import javax.websocket.Session;
 
+import io.opentracing.Span;
+
 /**
- * Encapsulation of a drain. Uses the {@code ManagedThreadFactory} to create
- * a dedicated thread that will drain the queue as messages arrive.
- *
+ * Encapsulation of a drain. Messages are queued by the caller, and written
+ * to the session in order, one at a time, with the session's asynchronous
+ * sender. A drain has no thread of its own: each write is started by a task
+ * on a shared executor, and the next one is scheduled when it completes.
+ * An idle drain is just its (empty) queue.
  */
 public class WSDrain implements Runnable, Drain {
+    /** Marks the end of what {@link #finish()} should write */
+    private static final Pending END = new Pending(null);
+
+    /** Milliseconds before a write refused because another is in progress is tried again */
+    private static final long RETRY_DELAY = 5;
+
     private final String id;
-    private Thread thread;
+    private ScheduledExecutorService executor;
     private ScheduledFuture<?> pingFuture;
     private Session targetSession;
+    private TokenBucket rateLimit;
+    private HopLatency latency;
+    private MessageTracing tracing;
     boolean wsToRoom;
 
     /** Queue of messages  */
-    private final LinkedBlockingDeque<RoutedMessage> pendingMessages;
+    private final ConcurrentLinkedDeque<Pending> pendingMessages;
+
+    /** Set while a write is scheduled or in progress */
+    private final AtomicBoolean writing = new AtomicBoolean(false);
 
     private volatile boolean keepGoing = true;
 
+    /** Milliseconds {@link #finish()} allows for queued messages to be written */
+    private long flushTimeout = 2000;
+
+    /** Stops a {@link #finish()} that is taking too long, null if not finishing */
+    private volatile ScheduledFuture<?> finishBy;
+
+    /** Released when a drain that is finishing stops, null if not finishing */
+    private volatile CountDownLatch finished;
+
+    /** Enqueue time of the message being written, 0 when not writing */
+    private volatile long writingSince = 0;
+
+    /** Longest write since {@link #resetMaxWriteNanos()} */
+    private volatile long maxWriteNanos = 0;
+
+    /** Consecutive {@link DrainMonitor} sweeps that found this drain too far behind */
+    int slowSweeps = 0;
+
+    /** Time the drain was started, 0 if it hasn't been */
+    private volatile long opened = 0;
+
     /**
      * Construct a drain around the given message queue.
      *
@@ -55,19 +99,30 @@ public class WSDrain implements Runnable, Drain {
     public WSDrain(String id, Session targetSession) {
         this.id = id;
         this.targetSession = targetSession;
-        this.pendingMessages = new LinkedBlockingDeque<>();
+        this.pendingMessages = new ConcurrentLinkedDeque<>();
         this.wsToRoom = false; // outbound client connection
     }
 
     public WSDrain(String id) {
         this.id = id;
-        this.pendingMessages = new LinkedBlockingDeque<>();
+        this.pendingMessages = new ConcurrentLinkedDeque<>();
         this.wsToRoom = true; // incoming server connection
     }
 
     @Override
     public void send(RoutedMessage message) {
-        pendingMessages.offer(message);
+        pendingMessages.offer(new Pending(message));
+        schedule();
+    }
+
+    @Override
+    public boolean trySend(RoutedMessage message) {
+        if ( rateLimit == null || rateLimit.tryAcquire() ) {
+            pendingMessages.offer(new Pending(message));
+            schedule();
+            return true;
+        }
+        return false;
     }
 
     @Override
@@ -75,81 +130,300 @@ public class WSDrain implements Runnable, Drain {
         WSUtils.tryToClose(targetSession, reason);
     }
 
+    /**
+     * Start writing the next message, unless a write is already
+     * scheduled or in progress.
+     */
+    private void schedule() {
+        if ( opened != 0 && keepGoing && !pendingMessages.isEmpty() && writing.compareAndSet(false, true) ) {
+            executor.execute(this);
+        }
+    }
+
+    /**
+     * Write the next queued message: the write completes (and the next
+     * one is scheduled) in {@link #written(Pending, Span, long, SendResult)}.
+     */
     @Override
     public void run() {
+        Pending pending = keepGoing ? pendingMessages.poll() : null;
+        if ( pending == null ) {
+            writing.set(false);
+            // something may have been queued before the flag was cleared
+            schedule();
+            return;
+        } else if ( pending == END ) {
+            Log.log(Level.FINER, this, "DRAIN FINISHED {0}", id);
+            stop();
+            return;
+        } else if ( !targetSession.isOpen() ) {
+            // Tuck the message back in the head of the queue: the
+            // session is closing, and the drain will be stopped.
+            pendingMessages.offerFirst(pending);
+            writing.set(false);
+            return;
+        }
 
-        Log.log(Level.FINER, this, "DRAIN OPEN {0}", id);
-        boolean interrupted = false;
-
-        // Dedicated thread sending messages to the room as fast
-        // as it can take them: maybe we batch these someday.
-        while (keepGoing) {
-            try {
-                RoutedMessage message = pendingMessages.take();
-
-                if ( wsToRoom ) {
-                    Log.log(Level.FINEST, this, "C    M -> R : {0} {1}", message, targetSession.getId());
-                } else {
-                    Log.log(Level.FINEST, this, "C <- M    R : {0} {1}", message, targetSession.getId());
-                }
-
-                try {
-                    if (!WSUtils.sendMessage(targetSession, message)) {
-                        // If the send failed, tuck the message back in the
-                        // head of the queue.
-                        pendingMessages.offerFirst(message);
-                    }
-                } catch (IllegalStateException e) {
-                    // write not allowed because another in progress. Try again.
-                    pendingMessages.offerFirst(message);
-                }
-            } catch (InterruptedException ex) {
-                interrupted = true;
-            }
+        RoutedMessage message = pending.message;
+        if ( wsToRoom ) {
+            Log.route(this, "C    M -> R : {0} {1}", message, targetSession.getId());
+        } else {
+            Log.route(this, "C <- M    R : {0} {1}", message, targetSession.getId());
+        }
+
+        writingSince = pending.enqueued;
+        Span span = tracing == null ? null : tracing.startWrite(message, pending.enqueued, id);
+        long start = System.nanoTime();
+        try {
+            targetSession.getAsyncRemote().sendObject(message, result -> written(pending, span, start, result));
+        } catch (IllegalStateException e) {
+            // write not allowed because another in progress. Try again.
+            pendingMessages.offerFirst(pending);
+            endWrite(span, start);
+            executor.schedule(this, RETRY_DELAY, TimeUnit.MILLISECONDS);
         }
+    }
+
+    /**
+     * A write has completed (called by the websocket container)
+     */
+    private void written(Pending pending, Span span, long start, SendResult result) {
+        endWrite(span, start);
 
-        Log.log(Level.FINER, this, "DRAIN CLOSED {0}", id);
+        if ( result.isOK() ) {
+            if ( latency != null ) {
+                latency.record(wsToRoom ? HopLatency.Hop.CLIENT_TO_ROOM : HopLatency.Hop.ROOM_TO_CLIENT, pending.message);
+            }
+        } else if ( result.getException() instanceof EncodeException ) {
+            // Something was wrong encoding this message, but the connection
+            // is likely just fine.
+            Log.log(Level.FINEST, this, "Unexpected condition writing message", result.getException());
+        } else {
+            // An IOException, on the other hand, suggests the connection is
+            // in a bad state.
+            Log.log(Level.FINEST, this, "Unexpected condition writing message", result.getException());
+            WSUtils.tryToClose(targetSession, new CloseReason(CloseCodes.UNEXPECTED_CONDITION,
+                    WSUtils.trimReason(String.valueOf(result.getException()))));
+        }
 
-        // this really needs to not be in the stop method.
-        WSUtils.tryToClose(targetSession);
+        // the next write starts on the executor, not the container's thread
+        executor.execute(this);
+    }
 
-        // reset interrupted flag
-        if (interrupted)
-            Thread.currentThread().interrupt();
+    private void endWrite(Span span, long start) {
+        if ( span != null ) {
+            span.finish();
+        }
+        writingSince = 0;
+        long elapsed = System.nanoTime() - start;
+        if ( elapsed > maxWriteNanos ) {
+            maxWriteNanos = elapsed;
+        }
     }
 
     @Override
     public void start() {
         if ( targetSession == null )
             return;
-        thread.start();
+        open();
     }
 
     @Override
     public void start(Session session) {
         this.targetSession = session;
-        thread.start();
+        open();
     }
 
+    private void open() {
+        Log.log(Level.FINER, this, "DRAIN OPEN {0}", id);
+        opened = System.nanoTime();
+        if ( !keepGoing ) {
+            // stopped before it was started
+            WSUtils.tryToClose(targetSession);
+            return;
+        }
+        schedule();
+    }
 
     @Override
     public void stop() {
+        boolean wasRunning = keepGoing;
         keepGoing = false;
 
-        // Interrupt the other thread
-        if (thread != null) {
-            thread.interrupt();
-        }
         if ( pingFuture != null ) {
             pingFuture.cancel(true);
         }
+        ScheduledFuture<?> timer = finishBy;
+        if ( timer != null ) {
+            timer.cancel(false);
+        }
+
+        if ( wasRunning && opened != 0 ) {
+            Log.log(Level.FINER, this, "DRAIN CLOSED {0}", id);
+            WSUtils.tryToClose(targetSession);
+        }
+
+        CountDownLatch latch = finished;
+        if ( latch != null ) {
+            latch.countDown();
+        }
     }
 
-    public void setThread(Thread t) {
-        this.thread = t;
+    /**
+     * Write what has already been queued (for up to {@link #flushTimeout}
+     * milliseconds), then stop. Messages queued after this are not written.
+     * A drain that was never started is stopped right away.
+     */
+    @Override
+    public void finish() {
+        if ( opened == 0 || !keepGoing ) {
+            stop();
+            return;
+        }
+        synchronized(this) {
+            if ( finished != null ) {
+                return;
+            }
+            finished = new CountDownLatch(1);
+        }
+        pendingMessages.offer(END);
+        finishBy = executor.schedule(() -> {
+            if ( keepGoing ) {
+                Log.log(Level.FINE, this, "DRAIN {0}: out of time to flush, {1} messages not written", id, queueDepth());
+                stop();
+            }
+        }, flushTimeout, TimeUnit.MILLISECONDS);
+        schedule();
+    }
+
+    /**
+     * Wait for a drain that is finishing to stop. The drain stops itself
+     * after the flush timeout: this waits up to twice that, in case the
+     * executor is running late.
+     */
+    @Override
+    public void awaitFinished() {
+        CountDownLatch latch = finished;
+        if ( latch == null ) {
+            return;
+        }
+        try {
+            latch.await(2 * flushTimeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @param flushTimeout milliseconds {@link #finish()} allows for queued messages to be written
+     */
+    public void setFlushTimeout(long flushTimeout) {
+        this.flushTimeout = flushTimeout;
+    }
+
+    /**
+     * Add spans for writes of traced messages
+     * @param tracing
+     */
+    public void setTracing(MessageTracing tracing) {
+        this.tracing = tracing;
+    }
+
+    /**
+     * @return true once the drain has been stopped
+     */
+    public boolean isStopped() {
+        return !keepGoing;
+    }
+
+    /**
+     * @return the id of this drain (user or room id)
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return number of messages waiting to be written (counted, so
+     *      this is for monitoring rather than the write path)
+     */
+    public int queueDepth() {
+        return pendingMessages.size();
+    }
+
+    /**
+     * @param now current time (nanoTime)
+     * @return time the oldest unwritten message (including one that is being
+     *      written right now) has been waiting, in nanoseconds; 0 if there isn't one
+     */
+    public long oldestAge(long now) {
+        long oldest = writingSince;
+        Pending head = pendingMessages.peekFirst();
+        if ( head != null && head != END && (oldest == 0 || head.enqueued < oldest) ) {
+            oldest = head.enqueued;
+        }
+        return oldest == 0 ? 0 : now - oldest;
+    }
+
+    /**
+     * @param now current time (nanoTime)
+     * @return time since the drain was started in nanoseconds, 0 if it hasn't been
+     */
+    public long openFor(long now) {
+        long start = opened;
+        return start == 0 ? 0 : now - start;
+    }
+
+    /**
+     * @return the longest single write since the last reset, in nanoseconds
+     */
+    public long maxWriteNanos() {
+        return maxWriteNanos;
+    }
+
+    /**
+     * Start a new interval for {@link #maxWriteNanos()}
+     */
+    public void resetMaxWriteNanos() {
+        maxWriteNanos = 0;
+    }
+
+    /**
+     * @param executor runs the tasks that write to the session (shared by all drains)
+     */
+    public void setExecutor(ScheduledExecutorService executor) {
+        this.executor = executor;
     }
 
     public void setFuture(ScheduledFuture<?> pingFuture) {
         this.pingFuture = pingFuture;
     }
+
+    /**
+     * Shape traffic through this drain: see {@link #trySend(RoutedMessage)}
+     * @param rateLimit
+     */
+    public void setRateLimit(TokenBucket rateLimit) {
+        this.rateLimit = rateLimit;
+    }
+
+    /**
+     * Record how long messages took to get through the mediator
+     * @param latency
+     */
+    public void setLatency(HopLatency latency) {
+        this.latency = latency;
+    }
+
+    /**
+     * A queued message, and when it was queued.
+     */
+    static final class Pending {
+        final RoutedMessage message;
+        final long enqueued = System.nanoTime();
+
+        Pending(RoutedMessage message) {
+            this.message = message;
+        }
+    }
 }
@@ -19,13 +19,22 @@ import rx.Subscription;
 
 public class EventSubscription {
 	private Subscription subscription;
+	private Runnable onUnsubscribe;
 	
 	EventSubscription(Subscription s){
+		this(s, null);
+	}
+	
+	EventSubscription(Subscription s, Runnable onUnsubscribe){
 		subscription = s;
+		this.onUnsubscribe = onUnsubscribe;
 	}
 	
 	public void unsubscribe(){
-		if(!subscription.isUnsubscribed())
+		if(!subscription.isUnsubscribed()) {
 			subscription.unsubscribe();
+			if(onUnsubscribe != null)
+				onUnsubscribe.run();
+		}
 	}
 }
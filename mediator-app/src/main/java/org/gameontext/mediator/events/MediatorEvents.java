@@ -26,6 +26,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 
 import org.gameontext.mediator.Log;
 import org.gameontext.mediator.kafka.GameOnEvent;
+import org.gameontext.mediator.kafka.KafkaCDIBridge;
 import org.gameontext.mediator.kafka.KafkaRxJavaObservable;
 
 import rx.Subscription;
@@ -51,11 +52,16 @@ public class MediatorEvents {
     @Inject
     KafkaRxJavaObservable kafka;
 
+    @Inject
+    KafkaCDIBridge bridge;
+
     public EventSubscription subscribeToPlayerEvents(String userId, PlayerEventHandler peh) {
         Subscription subscription = kafka.consume().filter(event -> "playerEvents".equals(event.getTopic()))
                 .filter(event -> userId.equals(event.getKey())).subscribe(event -> handlePlayerEvent(event, peh));
 
-        return new EventSubscription(subscription);
+        // make sure the partition holding this player's events is being read
+        bridge.hostPlayer(userId);
+        return new EventSubscription(subscription, () -> bridge.releasePlayer(userId));
     }
 
     // Map events into player event handler callbacks.
@@ -15,10 +15,19 @@
  *******************************************************************************/
 package org.gameontext.mediator.kafka;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 import java.util.logging.Level;
 
 import javax.annotation.Resource;
@@ -34,17 +43,57 @@ import javax.inject.Inject;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndTimestamp;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.utils.Utils;
 import org.gameontext.mediator.Log;
+import org.gameontext.mediator.Settings;
 
 /**
  * A simple bean that obtains a kakfa consumer, subscribes to a topic via the
  * consumer and polls for messages on the topic, for each message, the bean
  * emits a cdi event. This bean is self-creating by monitoring the Initialized
  * event for the ApplicationScope
+ * <p>
+ * Every mediator needs the player events for the players connected to it,
+ * so mediators must not share partitions the way members of a consumer
+ * group do (each node has its own group, see {@link KafkaConsumerInjector}).
+ * By default ({@code kafkaHostedPartitions}), partitions are assigned rather
+ * than subscribed: all partitions of the site and general topics, but only
+ * the {@code playerEvents} partitions that hold events for players hosted
+ * here (see {@link #hostPlayer(String)}). Player events are keyed by player
+ * id, so the partition is the one Kafka's default partitioner picks for that
+ * key. The assignment is updated on the polling thread as players come and go.
+ * A partition newly assigned for a player starts from the first record
+ * written after the player arrived (found by timestamp), so events produced
+ * between {@link #hostPlayer(String)} and the next poll aren't missed. Other
+ * newly assigned partitions start from the latest offset.
+ * </p>
+ * With {@code kafkaHostedPartitions} off, every node subscribes to all topics
+ * and reads everything.
  */
 @ApplicationScoped
 public class KafkaCDIBridge {
 
+    /** How often the consumer lag is read from the consumer's metrics */
+    static final long LAG_CHECK_INTERVAL = TimeUnit.SECONDS.toNanos(5);
+
+    /** How often partition counts are re-read, in case topics were repartitioned */
+    static final long METADATA_INTERVAL = TimeUnit.MINUTES.toNanos(1);
+
+    static final String PLAYER_EVENTS = "playerEvents";
+
+    static final List<String> TOPICS = Arrays.asList(new String[] { "gameon", PLAYER_EVENTS, "siteEvents" });
+
+    /** Topics read on behalf of a listener, rather than fired as CDI events */
+    private final Map<String, BiConsumer<String, String>> listeners = new ConcurrentHashMap<>();
+
+    /** Set when a listener is added, and the subscription needs to change */
+    private volatile boolean resubscribe = false;
+
     @Inject
     private KafkaConsumer<String, String> consumer;
 
@@ -54,18 +103,64 @@ public class KafkaCDIBridge {
     @SuppressWarnings({ "rawtypes" })
     private ScheduledFuture pollingThread;
 
+    /** When the consumer last returned from poll (System.nanoTime) */
+    private volatile long lastPoll = System.nanoTime();
+
+    /** When the lag was last read (only touched by the polling thread) */
+    private long lastLagCheck = System.nanoTime();
+
+    /** Maximum lag (in records) across our partitions, or -1 if unknown */
+    private volatile long lag = -1;
+
+    /** Only read the playerEvents partitions for hosted players */
+    boolean hostedPartitions = true;
+
+    /** Players hosted here, with the number of subscriptions for each */
+    private final ConcurrentHashMap<String, Integer> hosted = new ConcurrentHashMap<>();
+
+    /** Set when the hosted players change */
+    private volatile boolean reassign = true;
+
+    /** When newly hosted players arrived (ms), until their partition is assigned */
+    private final ConcurrentHashMap<String, Long> arrived = new ConcurrentHashMap<>();
+
+    /** When the assignment was last computed (only touched by the polling thread) */
+    private long lastAssign = System.nanoTime();
+
     public void init(@Observes @Initialized(ApplicationScoped.class) Object init) {
+        // read before the polling task starts: it decides how partitions are chosen
+        hostedPartitions = Settings.getBoolean("kafkaHostedPartitions", hostedPartitions);
+
         Runnable r = new Runnable() {
             public void run() {
                 ConsumerRecords<String, String> records = null;
                 synchronized (this) {
                     if (consumer != null) {
+                        if ( hostedPartitions && (reassign || System.nanoTime() - lastAssign > METADATA_INTERVAL) ) {
+                            assignPartitions();
+                        } else if ( !hostedPartitions && resubscribe ) {
+                            resubscribe = false;
+                            consumer.subscribe(allTopics());
+                        }
                         records = consumer.poll(100);
+
+                        long now = System.nanoTime();
+                        lastPoll = now;
+                        if ( now - lastLagCheck > LAG_CHECK_INTERVAL ) {
+                            // the consumer isn't thread safe: read its metrics from here
+                            lastLagCheck = now;
+                            lag = recordsLagMax(consumer.metrics());
+                        }
                     }
                 }
                 if (records != null && !records.isEmpty()) {
                     BeanManager bm = CDI.current().getBeanManager();
                     for (ConsumerRecord<String, String> record : records) {
+                        BiConsumer<String, String> listener = listeners.get(record.topic());
+                        if ( listener != null ) {
+                            listener.accept(record.key(), record.value());
+                            continue;
+                        }
                     	Log.log(Level.FINEST, this, "CDI Event firing..");
                         bm.fireEvent(new GameOnEvent(record.offset(), record.topic(), record.key(), record.value()));
                         Log.log(Level.FINEST, this, "CDI Event fired.");
@@ -74,12 +169,162 @@ public class KafkaCDIBridge {
             }
         };
 
+        if ( !hostedPartitions ) {
+            Log.log(Level.FINEST, this, "CDI Subscribing to topics : "+TOPICS);
+            consumer.subscribe(TOPICS);
+        }
+
         Log.log(Level.FINEST, this, "CDI Registering Polling Thread.");
         pollingThread = executor.scheduleWithFixedDelay(r, 100, 100, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Read all partitions of another topic, handing its records straight to
+     * a listener instead of firing CDI events for them.
+     * @param topic topic to read
+     * @param listener called with the key and value of each record, on the polling thread
+     */
+    public void listen(String topic, BiConsumer<String, String> listener) {
+        listeners.put(topic, listener);
+        reassign = true;
+        resubscribe = true;
+    }
+
+    private List<String> allTopics() {
+        List<String> topics = new ArrayList<>(TOPICS);
+        topics.addAll(listeners.keySet());
+        return topics;
+    }
+
+    /**
+     * Start reading player events for this player (if we weren't already).
+     * Each call must be matched by {@link #releasePlayer(String)}.
+     * @param userId player id
+     */
+    public void hostPlayer(String userId) {
+        if ( hosted.merge(userId, 1, Integer::sum) == 1 ) {
+            arrived.putIfAbsent(userId, System.currentTimeMillis());
+            reassign = true;
+        }
+    }
+
+    /**
+     * Stop reading player events for this player, once all
+     * subscriptions for the player have been released.
+     * @param userId player id
+     */
+    public void releasePlayer(String userId) {
+        if ( hosted.computeIfPresent(userId, (k, v) -> v <= 1 ? null : v - 1) == null ) {
+            arrived.remove(userId);
+            reassign = true;
+        }
+    }
 
-        List<String> topics = Arrays.asList(new String[] { "gameon", "playerEvents", "siteEvents" });
-        Log.log(Level.FINEST, this, "CDI Subscribing to topics : "+topics);
-        consumer.subscribe(topics);
+    /**
+     * Assign the partitions we need. Called on the polling thread.
+     */
+    private void assignPartitions() {
+        reassign = false;
+        lastAssign = System.nanoTime();
+
+        Set<TopicPartition> wanted = new HashSet<>();
+        int playerEventPartitions = 0;
+        for ( String topic : allTopics() ) {
+            List<PartitionInfo> partitions = consumer.partitionsFor(topic);
+            if ( partitions == null || partitions.isEmpty() )
+                continue;
+
+            if ( PLAYER_EVENTS.equals(topic) ) {
+                playerEventPartitions = partitions.size();
+                wanted.addAll(playerPartitions(hosted.keySet(), playerEventPartitions));
+            } else {
+                for ( PartitionInfo p : partitions ) {
+                    wanted.add(new TopicPartition(topic, p.partition()));
+                }
+            }
+        }
+
+        Set<TopicPartition> current = consumer.assignment();
+        if ( !wanted.equals(current) ) {
+            Log.log(Level.FINER, this, "Assigning {0} partitions for {1} players", wanted.size(), hosted.size());
+            consumer.assign(wanted);
+            if ( playerEventPartitions > 0 ) {
+                catchUp(arrivals(arrived, playerEventPartitions, current));
+            }
+        }
+        if ( playerEventPartitions > 0 ) {
+            // these players' partitions are being read now
+            int n = playerEventPartitions;
+            arrived.keySet().removeIf(userId -> wanted.contains(new TopicPartition(PLAYER_EVENTS, partition(userId, n))));
+        }
+    }
+
+    /**
+     * @param arrived when newly hosted players arrived, by player id
+     * @param numPartitions number of playerEvents partitions
+     * @param current partitions assigned before now (null or empty for none)
+     * @return the earliest arrival time for each playerEvents partition that
+     *     wasn't already assigned
+     */
+    static Map<TopicPartition, Long> arrivals(Map<String, Long> arrived, int numPartitions, Set<TopicPartition> current) {
+        Map<TopicPartition, Long> result = new HashMap<>();
+        for ( Map.Entry<String, Long> e : arrived.entrySet() ) {
+            TopicPartition tp = new TopicPartition(PLAYER_EVENTS, partition(e.getKey(), numPartitions));
+            if ( current == null || !current.contains(tp) ) {
+                result.merge(tp, e.getValue(), Math::min);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Start newly assigned player partitions from the first record written
+     * after the player arrived. Called on the polling thread, after assign.
+     * @param times arrival time for each newly assigned partition
+     */
+    private void catchUp(Map<TopicPartition, Long> times) {
+        if ( times.isEmpty() )
+            return;
+
+        try {
+            Map<TopicPartition, OffsetAndTimestamp> offsets = consumer.offsetsForTimes(times);
+            for ( TopicPartition tp : times.keySet() ) {
+                OffsetAndTimestamp found = offsets == null ? null : offsets.get(tp);
+                if ( found != null ) {
+                    Log.log(Level.FINER, this, "Reading {0} from offset {1}", tp, found.offset());
+                    consumer.seek(tp, found.offset());
+                }
+                // otherwise nothing was written since: start from the latest offset
+            }
+        } catch (RuntimeException e) {
+            // e.g. a broker too old for timestamp lookups: start from the latest offset
+            Log.log(Level.FINE, this, "Unable to find offsets by time for {0}: {1}", times.keySet(), e);
+        }
+    }
+
+    /**
+     * @param userIds hosted players
+     * @param numPartitions number of playerEvents partitions
+     * @return the playerEvents partitions holding events for these players
+     */
+    static Set<TopicPartition> playerPartitions(Collection<String> userIds, int numPartitions) {
+        Set<TopicPartition> result = new HashSet<>();
+        for ( String userId : userIds ) {
+            result.add(new TopicPartition(PLAYER_EVENTS, partition(userId, numPartitions)));
+            if ( result.size() == numPartitions )
+                break;
+        }
+        return result;
+    }
+
+    /**
+     * The partition Kafka's default partitioner chooses for a (string) key
+     * @param key record key
+     * @param numPartitions number of partitions in the topic
+     * @return partition number
+     */
+    static int partition(String key, int numPartitions) {
+        return Utils.toPositive(Utils.murmur2(key.getBytes(StandardCharsets.UTF_8))) % numPartitions;
     }
 
     public void destroy(@Observes @Destroyed(ApplicationScoped.class) Object init) {
@@ -92,4 +337,42 @@ public class KafkaCDIBridge {
     public boolean isHealthy() {
         return consumer != null;
     }
+
+    /**
+     * @return nanoseconds since the consumer last returned from poll
+     */
+    public long sinceLastPoll() {
+        return System.nanoTime() - lastPoll;
+    }
+
+    /**
+     * @return the number of records the consumer is behind by (the largest
+     *    lag of any of its partitions), or -1 if not known yet.
+     */
+    public long getLag() {
+        return lag;
+    }
+
+    /**
+     * Find the consumer's overall {@code records-lag-max}: the one metric
+     * with that name that isn't tagged with a topic or partition.
+     * @param metrics consumer metrics
+     * @return lag in records, or -1 if not (yet) available
+     */
+    static long recordsLagMax(Map<MetricName, ? extends Metric> metrics) {
+        if ( metrics == null )
+            return -1;
+
+        for ( Map.Entry<MetricName, ? extends Metric> entry : metrics.entrySet() ) {
+            MetricName name = entry.getKey();
+            if ( "records-lag-max".equals(name.name())
+                    && !name.tags().containsKey("topic")
+                    && !name.tags().containsKey("partition") ) {
+                double value = entry.getValue().value();
+                // NaN or -Infinity until partitions are assigned and fetched
+                return Double.isNaN(value) || value < 0 ? -1 : (long) value;
+            }
+        }
+        return -1;
+    }
 }
@@ -0,0 +1,186 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator.kafka;
+
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.websocket.DecodeException;
+
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.gameontext.mediator.ClusterBus;
+import org.gameontext.mediator.Constants;
+import org.gameontext.mediator.Log;
+import org.gameontext.mediator.RoutedMessage;
+import org.gameontext.mediator.Settings;
+import org.gameontext.mediator.room.RoomMediator;
+
+/**
+ * A {@link ClusterBus} over a kafka topic ({@code clusterBusTopic}), used when
+ * {@code clusterBus} is set to {@code kafka}.
+ * <p>
+ * Each broadcast is one record, keyed by room id so a room's broadcasts stay
+ * in order. The producer batches records for up to {@link #linger} ms and
+ * compresses each batch, so a busy First Room costs a few requests per
+ * second rather than one per message. Records are read back by
+ * {@link KafkaCDIBridge} (all partitions, on every node).
+ * </p>
+ * The value is {@code origin \n sequence \n type \n message}. Every node reads
+ * the whole topic, including its own broadcasts: those are skipped by origin.
+ * The sequence number (per origin) lets us skip records seen twice, which
+ * producer retries can cause.
+ */
+@ApplicationScoped
+public class KafkaClusterBus implements ClusterBus {
+
+    /** Forget the last sequence numbers once we are tracking this many origin/room pairs */
+    static final int MAX_TRACKED = 10000;
+
+    @Resource(lookup = "kafkaUrl")
+    String kafkaUrl;
+
+    @Inject
+    KafkaCDIBridge bridge;
+
+    /** Use kafka for the cluster bus */
+    boolean enabled = false;
+
+    String topic = "mediatorBroadcast";
+
+    /** Producer batching delay (milliseconds) */
+    long linger = 10;
+
+    /** Unique to this process */
+    final String origin = Constants.MEDIATOR_UUID;
+
+    final AtomicLong sequence = new AtomicLong();
+
+    /** Last sequence number seen, by origin and room */
+    final Map<String, Long> lastSeen = new ConcurrentHashMap<>();
+
+    final LongAdder duplicates = new LongAdder();
+
+    private volatile Receiver receiver;
+
+    private KafkaProducer<String, String> producer;
+
+    @PostConstruct
+    public void postConstruct() {
+        enabled = "kafka".equalsIgnoreCase(Settings.getString("clusterBus", "none"));
+        topic = Settings.getString("clusterBusTopic", topic);
+        linger = Settings.getLong("clusterBusLinger", linger);
+        if ( !enabled )
+            return;
+
+        Properties props = new Properties();
+        props.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, kafkaUrl);
+        props.put(ProducerConfig.CLIENT_ID_CONFIG, "mediator-bus-" + origin);
+        props.put(ProducerConfig.LINGER_MS_CONFIG, String.valueOf(linger));
+        props.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, "lz4");
+        props.put(ProducerConfig.ACKS_CONFIG, "1");
+        // keep retries in order
+        props.put(ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION, "1");
+        props.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG,
+                "org.apache.kafka.common.serialization.StringSerializer");
+        props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG,
+                "org.apache.kafka.common.serialization.StringSerializer");
+        producer = new KafkaProducer<>(props);
+
+        bridge.listen(topic, this::consume);
+        Log.log(Level.INFO, this, "Sharing local room broadcasts on {0} as {1}", topic, origin);
+    }
+
+    @PreDestroy
+    public void preDestroy() {
+        if ( producer != null ) {
+            producer.close();
+        }
+    }
+
+    /**
+     * @return true if kafka should be used for the cluster bus
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void publish(String roomId, RoomMediator.Type type, RoutedMessage message) {
+        if ( producer == null )
+            return;
+
+        String value = encode(origin, sequence.incrementAndGet(), type, message);
+        producer.send(new ProducerRecord<>(topic, roomId, value), (metadata, e) -> {
+            if ( e != null ) {
+                Log.log(Level.FINE, this, "Broadcast to other nodes failed", e);
+            }
+        });
+    }
+
+    @Override
+    public void setReceiver(Receiver receiver) {
+        this.receiver = receiver;
+    }
+
+    /**
+     * A record from the topic (called on the kafka polling thread)
+     * @param roomId record key
+     * @param value encoded broadcast
+     */
+    void consume(String roomId, String value) {
+        Receiver r = receiver;
+        if ( r == null || roomId == null || value == null )
+            return;
+
+        String[] parts = value.split("\n", 4);
+        if ( parts.length != 4 || origin.equals(parts[0]) )
+            return; // garbage, or our own
+
+        try {
+            long seq = Long.parseLong(parts[1]);
+            if ( lastSeen.size() > MAX_TRACKED ) {
+                lastSeen.clear();
+            }
+            String key = parts[0] + '/' + roomId;
+            Long last = lastSeen.get(key);
+            if ( last != null && seq <= last ) {
+                duplicates.increment();
+                return;
+            }
+            lastSeen.put(key, seq);
+
+            RoomMediator.Type type = parts[2].isEmpty() ? null : RoomMediator.Type.valueOf(parts[2]);
+            r.receive(roomId, type, new RoutedMessage(parts[3]));
+        } catch (IllegalArgumentException | DecodeException e) {
+            Log.log(Level.FINE, this, "Unreadable broadcast from another node: {0}", value);
+        }
+    }
+
+    static String encode(String origin, long seq, RoomMediator.Type type, RoutedMessage message) {
+        return origin + '\n' + seq + '\n' + (type == null ? "" : type.name()) + '\n' + message;
+    }
+}
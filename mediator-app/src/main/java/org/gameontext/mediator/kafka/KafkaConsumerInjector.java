@@ -30,12 +30,21 @@ import org.gameontext.mediator.Log;
 
 /**
  * Builds a kafkaconsumer with no subscriptions..
+ * <p>
+ * Each mediator gets its own consumer group (the server's uuid is part of the
+ * group id). Members of a shared group would split the partitions between them,
+ * and a node would miss events for players it is hosting. Offsets aren't
+ * committed: we only care about events from now on.
+ * </p>
  */
 public class KafkaConsumerInjector {
 
     @Resource(lookup = "kafkaUrl")
     private String kafkaUrl;
 
+    @Resource(lookup = "serverUuid")
+    private String serverUuid;
+
     @Produces
     public KafkaConsumer<String, String> expose(InjectionPoint injection) {
         Log.log(Level.FINEST, this, "Building kafka for url " + kafkaUrl + " for class " + injection.getBean().getBeanClass().getName());
@@ -48,8 +57,9 @@ public class KafkaConsumerInjector {
         Log.log(Level.FINEST, this, "Building Consumer.");
         Properties consumerProps = new Properties();
         consumerProps.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, kafkaUrl);
-        consumerProps.put(ConsumerConfig.GROUP_ID_CONFIG, "kafka." + injection.getBean().getBeanClass().getName());
-        consumerProps.put(ConsumerConfig.AUTO_COMMIT_INTERVAL_MS_CONFIG, "1000");
+        consumerProps.put(ConsumerConfig.GROUP_ID_CONFIG, "kafka." + injection.getBean().getBeanClass().getName() + "." + serverUuid);
+        consumerProps.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "false");
+        consumerProps.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "latest");
         consumerProps.put(ConsumerConfig.SESSION_TIMEOUT_MS_CONFIG, "30000");
         consumerProps.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG,
                 "org.apache.kafka.common.serialization.StringDeserializer");
@@ -19,7 +19,6 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.logging.Level;
 
 import javax.json.Json;
 import javax.json.JsonObject;
@@ -178,7 +177,7 @@ public abstract class AbstractRoomMediator implements RoomMediator {
 
     @Override
     public void sendToRoom(RoutedMessage message) {
-        Log.log(Level.FINEST, this, "{0}/{1} received: {2}", getName(), getType(), message);
+        Log.route(this, "{0}/{1} received: {2}", getName(), getType(), message);
 
         JsonObject sourceMessage = message.getParsedBody();
         String userId = sourceMessage.getString(RoomUtils.USER_ID);
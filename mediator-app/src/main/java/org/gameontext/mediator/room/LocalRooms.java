@@ -0,0 +1,79 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator.room;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import org.gameontext.mediator.models.Site;
+
+/**
+ * Local stand-ins for rooms that don't have (or have lost) a remote endpoint:
+ * {@link EmptyRoom} and {@link UnknownRoom}.
+ * <p>
+ * Neither keeps anything about the player, so every player visiting a room
+ * shares the same delegate (and the same view of the nexus), rather than each
+ * visit building its own. Entries are dropped when the last player leaves
+ * the room (see {@link #evict(String)}).
+ * </p>
+ * {@link ConnectingRoom} and {@link SickRoom} are not shared: they drive the
+ * connection attempts of a single {@link RemoteRoomProxy}.
+ */
+public class LocalRooms {
+
+    private final Map<String, RoomMediator> emptyRooms = new ConcurrentHashMap<>();
+    private final Map<String, RoomMediator> unknownRooms = new ConcurrentHashMap<>();
+
+    /**
+     * @param site current site information for the room
+     * @param factory creates the delegate if there isn't one for this room
+     * @return the shared empty room delegate for the site, refreshed with the given site information
+     */
+    public RoomMediator empty(Site site, Function<String, RoomMediator> factory) {
+        RoomMediator room = emptyRooms.get(site.getId());
+        if ( room == null ) {
+            return emptyRooms.computeIfAbsent(site.getId(), factory);
+        }
+        room.updateInformation(site);
+        return room;
+    }
+
+    /**
+     * @param roomId id of the room
+     * @param factory creates the delegate if there isn't one for this room
+     * @return the shared unknown room delegate for the room id
+     */
+    public RoomMediator unknown(String roomId, Function<String, RoomMediator> factory) {
+        return unknownRooms.computeIfAbsent(roomId, factory);
+    }
+
+    /**
+     * Forget the shared delegates for a room, called when the last player has left.
+     * @param roomId id of the room
+     */
+    public void evict(String roomId) {
+        emptyRooms.remove(roomId);
+        unknownRooms.remove(roomId);
+    }
+
+    /**
+     * @return number of shared delegates
+     */
+    public int size() {
+        return emptyRooms.size() + unknownRooms.size();
+    }
+}
@@ -22,6 +22,8 @@ import java.util.logging.Level;
 import org.gameontext.mediator.Log;
 import org.gameontext.mediator.MapClient;
 import org.gameontext.mediator.MediatorNexus;
+import org.gameontext.mediator.MessageTracing;
+import org.gameontext.mediator.RoomMetrics;
 import org.gameontext.mediator.RoutedMessage;
 import org.gameontext.mediator.WSDrain;
 import org.gameontext.mediator.models.ConnectionDetails;
@@ -32,6 +34,7 @@ public class RemoteRoom extends AbstractRoomMediator {
     interface Connection {
         void connect() throws Exception;
         void disconnect();
+        void awaitDisconnected();
         void sendToRoom(RoutedMessage message);
         long version();
     }
@@ -40,7 +43,8 @@ public class RemoteRoom extends AbstractRoomMediator {
     final RemoteRoomProxy proxy;
     final ScheduledExecutorService scheduledExecutor;
 
-    public RemoteRoom(RemoteRoomProxy proxy, MapClient mapClient, ScheduledExecutorService scheduledExecutor, Site site, WSDrain drain, MediatorNexus.View nexusView) throws Exception {
+    public RemoteRoom(RemoteRoomProxy proxy, MapClient mapClient, ScheduledExecutorService scheduledExecutor, Site site, WSDrain drain, MediatorNexus.View nexusView,
+            RoomCapabilities capabilities, RoomMetrics roomMetrics, MessageTracing tracing) throws Exception {
         super(nexusView, mapClient, site);
         this.proxy = proxy;
         this.scheduledExecutor = scheduledExecutor;
@@ -50,9 +54,13 @@ public class RemoteRoom extends AbstractRoomMediator {
 
         ConnectionDetails details = site.getInfo().getConnectionDetails();
         if ( "websocket".equals(details.getType())) {
-            connection = new WebSocketClientConnection(proxy, nexusView, drain, site);
+            connection = new WebSocketClientConnection(proxy, nexusView, drain, site, capabilities, roomMetrics, tracing);
             drain.setFuture(scheduledExecutor.scheduleAtFixedRate(() -> {
-                ((WebSocketClientConnection) connection).keepAlive();
+                if ( proxy.isIdle(System.nanoTime()) ) {
+                    proxy.hibernate();
+                } else {
+                    ((WebSocketClientConnection) connection).keepAlive();
+                }
             }, 50, 2, TimeUnit.SECONDS));
         } else {
             throw new UnsupportedOperationException(details.getType() + " is not a supported transport type");
@@ -133,6 +141,14 @@ public class RemoteRoom extends AbstractRoomMediator {
         connection.disconnect();
     }
 
+    /**
+     * Wait (for a bounded time) for a {@link #disconnect()} to finish
+     * writing to the room, e.g. the part sent when the proxy hibernated.
+     */
+    public void awaitDisconnected() {
+        connection.awaitDisconnected();
+    }
+
     @Override
     public String toString() {
         return this.getClass().getName() + "[roomId=" + super.getId() + "]";
@@ -1,5 +1,8 @@
 package org.gameontext.mediator.room;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 
@@ -34,6 +37,12 @@ import org.gameontext.mediator.models.Site;
  *  Once the update is complete, the {@link MediatorBuilder} will call
  *  {@link #updateComplete(RoomMediator)} to set the new delegate.
  *
+ *  A player who stops sending messages to a remote room is parted from it, and the
+ *  connection is closed (see {@link #hibernate()}). The next message from the player
+ *  is held while a new connection is opened and the room joined again (on another
+ *  thread, as for {@link #connectRemote(boolean)}), and is then sent, in order with
+ *  anything else the player sent meanwhile.
+ *
  */
 public class RemoteRoomProxy implements RoomMediator {
 
@@ -44,6 +53,18 @@ public class RemoteRoomProxy implements RoomMediator {
 
     AtomicBoolean updating = new AtomicBoolean(false);
 
+    /** Time of the last message from the player to the room */
+    volatile long lastActivity = System.nanoTime();
+
+    /** True while the remote room connection is closed because the player is idle */
+    volatile boolean hibernating = false;
+
+    /**
+     * Calls to the room held while a hibernating room is woken, null otherwise.
+     * Guarded by this: hibernating and waking change together with it held.
+     */
+    List<Runnable> waking = null;
+
     /**
      * Creates a new proxy. Calls {@link MediatorBuilder#createDelegate(RemoteRoomProxy, UserView, Site)}
      * to build the initial delegate.
@@ -139,6 +160,13 @@ public class RemoteRoomProxy implements RoomMediator {
             updating.set(false);
             Log.log(Level.FINEST, this, "RemoteRoomProxy -- update complete: old={0}, new={1}", oldDelegate, delegate);
         }
+
+        synchronized(this) {
+            if ( hibernating && waking != null ) {
+                // a wake was waiting for this update to finish
+                startWake();
+            }
+        }
     }
 
     /**
@@ -168,7 +196,9 @@ public class RemoteRoomProxy implements RoomMediator {
      * This is an independently fired event/
      */
     public void reconnect() {
-        if ( updating.compareAndSet(false, true)) {
+        if ( hibernating ) {
+            Log.log(Level.FINEST, this, "RemoteRoomProxy -- hibernating, no reconnect to {0} for {1}", delegate.getName(), user);
+        } else if ( updating.compareAndSet(false, true)) {
             Log.log(Level.FINEST, this, "RemoteRoomProxy -- reconnect to {0} for {1}", delegate.getName(), user);
             mediatorBuilder.updateDelegate(UpdateType.RECONNECT, this, delegate, null, user); // refresh site
         } else {
@@ -177,6 +207,91 @@ public class RemoteRoomProxy implements RoomMediator {
     }
 
 
+    /**
+     * @param now current time in nanoseconds
+     * @return true if the player hasn't sent anything to the room for longer than
+     *     {@link MediatorBuilder#getRoomIdleTimeout()}
+     */
+    public boolean isIdle(long now) {
+        long timeout = mediatorBuilder.getRoomIdleTimeout();
+        return timeout > 0 && !hibernating && now - lastActivity > TimeUnit.SECONDS.toNanos(timeout);
+    }
+
+    /**
+     * Called from the remote room's keep-alive when the player is idle: part the
+     * room and close the connection. The player stays in the room as far as the
+     * nexus (and the room's v2 protocol) is concerned. The part is written before
+     * the connection closes, and a wake waits for that before joining again.
+     */
+    public void hibernate() {
+        if ( delegate.getType() == Type.REMOTE && updating.compareAndSet(false, true) ) {
+            // Queue to a different thread: closing the connection cancels the keep-alive
+            mediatorBuilder.execute(() -> {
+                synchronized(this) {
+                    try {
+                        if ( !isIdle(System.nanoTime()) ) {
+                            // the player spoke up while this was queued
+                            return;
+                        }
+                        Log.log(Level.FINER, this, "RemoteRoomProxy -- hibernate {0} for {1}", delegate.getName(), user);
+                        hibernating = true;
+                        delegate.part(user);
+                    } finally {
+                        updating.set(false);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Run a call against the room now, or hold it until a hibernating
+     * room has been woken. Held calls are run in the order they were made.
+     *
+     * @param call what to do with the (current) delegate
+     * @return true if the call was held
+     */
+    private synchronized boolean holdIfHibernating(Runnable call) {
+        if ( !hibernating && waking == null ) {
+            return false;
+        }
+        if ( waking == null ) {
+            waking = new ArrayList<>();
+            startWake();
+        }
+        waking.add(call);
+        return true;
+    }
+
+    /**
+     * Reconnect a hibernating room on another thread, unless another update
+     * is in progress: {@link #updateComplete(RoomMediator)} will try again
+     * when that one is done. Called with this held.
+     */
+    private void startWake() {
+        if ( updating.compareAndSet(false, true) ) {
+            Log.log(Level.FINER, this, "RemoteRoomProxy -- wake {0} for {1}", delegate.getName(), user);
+            hibernating = false;
+            RoomMediator parted = delegate;
+            mediatorBuilder.execute(() -> {
+                try {
+                    if ( parted instanceof RemoteRoom ) {
+                        // the part sent when hibernating goes out before we join again
+                        ((RemoteRoom) parted).awaitDisconnected();
+                    }
+                    mediatorBuilder.updateDelegate(UpdateType.WAKE, this, delegate, null, user);
+                } finally {
+                    synchronized(this) {
+                        // whatever we have now gets the held calls, in order
+                        List<Runnable> held = waking;
+                        waking = null;
+                        held.forEach(Runnable::run);
+                    }
+                }
+            });
+        }
+    }
+
     @Override
     public Exit getEmergencyReturnExit() {
         return delegate.getEmergencyReturnExit();
@@ -189,7 +304,10 @@ public class RemoteRoomProxy implements RoomMediator {
 
     @Override
     public void goodbye(MediatorNexus.UserView user) {
-        delegate.goodbye(user);
+        // a hibernating room still thinks the player is here
+        if ( !holdIfHibernating(() -> delegate.goodbye(user)) ) {
+            delegate.goodbye(user);
+        }
     }
 
     @Override
@@ -199,12 +317,25 @@ public class RemoteRoomProxy implements RoomMediator {
 
     @Override
     public void part(MediatorNexus.UserView user) {
+        synchronized(this) {
+            if ( hibernating ) {
+                // (already parted when the connection was closed)
+                return;
+            }
+            if ( waking != null ) {
+                waking.add(() -> delegate.part(user));
+                return;
+            }
+        }
         delegate.part(user);
     }
 
     @Override
     public void sendToRoom(RoutedMessage message) {
-        delegate.sendToRoom(message);
+        lastActivity = System.nanoTime();
+        if ( !holdIfHibernating(() -> delegate.sendToRoom(message)) ) {
+            delegate.sendToRoom(message);
+        }
     }
 
     @Override
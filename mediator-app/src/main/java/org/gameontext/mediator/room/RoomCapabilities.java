@@ -0,0 +1,133 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator.room;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers what we learned the last time we shook hands with a room endpoint:
+ * the negotiated protocol version, whether the HMAC on the handshake response
+ * was valid, and how long the handshake took.
+ * <p>
+ * New connections to a known endpoint start at the remembered protocol
+ * version instead of falling back to v1 until the room's ack arrives.
+ * The ack is still processed, and will correct the cached value if the
+ * room has changed what it supports.
+ * </p>
+ * Entries are keyed by the websocket target (not the room id): several
+ * rooms can share one endpoint, and a room can move to a new endpoint.
+ */
+public class RoomCapabilities {
+
+    /** Remembered capabilities are re-verified from scratch after this long */
+    static final long CAPABILITY_TTL = TimeUnit.MINUTES.toNanos(30);
+
+    /** Cache of capabilities by endpoint */
+    private final ConcurrentHashMap<String, Capability> endpoints = new ConcurrentHashMap<>();
+
+    /**
+     * @param target websocket target for the room
+     * @return the protocol version to start with: the previously negotiated
+     *    version if we have a fresh, valid entry for this endpoint, or 1.
+     */
+    public long initialVersion(String target) {
+        Capability c = get(target);
+        if ( c == null || !c.hmacValid ) {
+            return 1;
+        }
+        return c.version;
+    }
+
+    /**
+     * Record the result of the websocket handshake
+     * @param target websocket target for the room
+     * @param hmacValid true if the handshake response passed validation
+     * @param latencyNanos time between starting the connect and the connection being open
+     */
+    public void handshakeComplete(String target, boolean hmacValid, long latencyNanos) {
+        if ( target == null )
+            return;
+
+        if ( !hmacValid ) {
+            // don't trust anything else we remembered about this endpoint
+            forget(target);
+            return;
+        }
+
+        Capability c = endpoints.computeIfAbsent(target, k -> new Capability());
+        c.hmacValid = true;
+        c.handshakeNanos = latencyNanos;
+        c.lastUpdate = System.nanoTime();
+    }
+
+    /**
+     * Record the protocol version negotiated with the room's ack.
+     * @param target websocket target for the room
+     * @param version negotiated version
+     */
+    public void versionNegotiated(String target, long version) {
+        if ( target == null )
+            return;
+
+        Capability c = endpoints.get(target);
+        if ( c != null ) {
+            c.version = version;
+            c.lastUpdate = System.nanoTime();
+        }
+    }
+
+    /**
+     * @param target websocket target for the room
+     * @return last measured handshake latency in nanoseconds, or -1 if unknown
+     */
+    public long handshakeLatency(String target) {
+        Capability c = get(target);
+        return c == null ? -1 : c.handshakeNanos;
+    }
+
+    /**
+     * Forget what we know about an endpoint (e.g. when a handshake with it fails)
+     * @param target websocket target for the room
+     */
+    public void forget(String target) {
+        if ( target != null )
+            endpoints.remove(target);
+    }
+
+    private Capability get(String target) {
+        if ( target == null )
+            return null;
+
+        Capability c = endpoints.get(target);
+        if ( c != null && c.expired(System.nanoTime()) ) {
+            endpoints.remove(target, c);
+            return null;
+        }
+        return c;
+    }
+
+    static class Capability {
+        volatile long version = 1;
+        volatile boolean hmacValid = false;
+        volatile long handshakeNanos = -1;
+        volatile long lastUpdate = System.nanoTime();
+
+        boolean expired(long now) {
+            return now - lastUpdate > CAPABILITY_TTL;
+        }
+    }
+}
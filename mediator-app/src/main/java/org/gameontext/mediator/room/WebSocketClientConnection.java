@@ -25,10 +25,13 @@ import javax.websocket.MessageHandler;
 import javax.websocket.Session;
 import javax.websocket.WebSocketContainer;
 
+import org.gameontext.mediator.Constants;
 import org.gameontext.mediator.Drain;
 import org.gameontext.mediator.Log;
 import org.gameontext.mediator.MediatorNexus;
 import org.gameontext.mediator.MediatorNexus.View;
+import org.gameontext.mediator.MessageTracing;
+import org.gameontext.mediator.RoomMetrics;
 import org.gameontext.mediator.RoutedMessage;
 import org.gameontext.mediator.RoutedMessage.FlowTarget;
 import org.gameontext.mediator.RoutedMessageDecoder;
@@ -40,31 +43,46 @@ import org.gameontext.mediator.models.Site;
 import org.gameontext.signed.SignedRequestHmac;
 import org.gameontext.signed.SignedRequestMap;
 
+import io.opentracing.Scope;
+
 class WebSocketClientConnection extends Endpoint implements RemoteRoom.Connection {
     final static long MAX_PROTOCOL_VERSION = 2;
 
     /**
      * The WebSocket protocol version.
      */
-    private long protocolVersion = 1;
+    private volatile long protocolVersion = 1;
 
     final RemoteRoomProxy proxy;
     final String id;
     final RoomInfo info;
     final Drain drain;
     final MediatorNexus.View nexus;
+    final RoomCapabilities capabilities;
+    final RoomMetrics metrics;
+    final MessageTracing tracing;
     
     final ByteBuffer pingData = ByteBuffer.wrap("ping".getBytes());
 
     GameOnHeaderAuthConfigurator authConfigurator;
     Session session;
+    long connectStart;
+
+    /** true while room-bound messages are being refused by the drain's rate limit */
+    volatile boolean throttled = false;
 
-    WebSocketClientConnection(RemoteRoomProxy proxy, View nexus, Drain drain, Site site) {
+    WebSocketClientConnection(RemoteRoomProxy proxy, View nexus, Drain drain, Site site, RoomCapabilities capabilities, RoomMetrics metrics, MessageTracing tracing) {
         this.proxy = proxy;
         this.nexus = nexus;
         this.drain = drain;
         this.id = site.getId();
         this.info = site.getInfo();
+        this.capabilities = capabilities;
+        this.metrics = metrics;
+        this.tracing = tracing;
+
+        // Start with what we negotiated last time (if anything), the ack will correct it
+        this.protocolVersion = capabilities.initialVersion(info.getConnectionDetails().getTarget());
     }
 
     @Override
@@ -81,12 +99,36 @@ class WebSocketClientConnection extends Endpoint implements RemoteRoom.Connectio
                 .build();
 
         WebSocketContainer c = ContainerProvider.getWebSocketContainer();
-        this.session = c.connectToServer(this, cec, uriServerEP);
+        connectStart = System.nanoTime();
+        try {
+            this.session = c.connectToServer(this, cec, uriServerEP);
+        } catch (DeploymentException | IOException e) {
+            // the endpoint may have changed: negotiate from scratch next time
+            capabilities.forget(details.getTarget());
+            throw e;
+        }
     }
 
     @Override
     public void sendToRoom(RoutedMessage message) {
-        drain.send(message);
+        if ( message.getFlowTarget() != FlowTarget.room ) {
+            // protocol messages (hello, goodbye, join, part) are never shaped
+            drain.send(message);
+            metrics.sent(id, message);
+        } else if ( drain.trySend(message) ) {
+            throttled = false;
+            metrics.sent(id, message);
+        } else {
+            Log.route(drain, "C    M -x R : rate limited {0}", message);
+
+            // Reply locally rather than flooding the room. Only once per burst.
+            if ( !throttled ) {
+                throttled = true;
+                String userId = proxy.user.getUserId();
+                nexus.sendToClients(RoutedMessage.createSimpleEventMessage(FlowTarget.player, userId,
+                        Constants.EVENTMSG_ROOM_SLOW_DOWN));
+            }
+        }
     }
 
     public void keepAlive() {
@@ -100,7 +142,13 @@ class WebSocketClientConnection extends Endpoint implements RemoteRoom.Connectio
     @Override
     public void disconnect() {
         Log.log(Level.FINE, drain, "Disconnecting... ");
-        drain.stop();
+        // let a part or goodbye that was just queued go out first
+        drain.finish();
+    }
+
+    @Override
+    public void awaitDisconnected() {
+        drain.awaitFinished();
     }
 
     @Override
@@ -110,6 +158,11 @@ class WebSocketClientConnection extends Endpoint implements RemoteRoom.Connectio
 
     @Override
     public void onOpen(Session session, EndpointConfig config) {
+        long handshakeNanos = System.nanoTime() - connectStart;
+        capabilities.handshakeComplete(info.getConnectionDetails().getTarget(),
+                authConfigurator.isResponseValid(), handshakeNanos);
+        metrics.handshake(id, handshakeNanos);
+
         //check all validations passed before proceeding with the session
         if(!authConfigurator.isResponseValid()) {
             WSUtils.tryToClose(session,
@@ -125,13 +178,15 @@ class WebSocketClientConnection extends Endpoint implements RemoteRoom.Connectio
         session.addMessageHandler(new MessageHandler.Whole<RoutedMessage>() {
             @Override
             public void onMessage(RoutedMessage message) {
-                Log.log(Level.FINEST, drain, "C    M <- R : {0}", message);
+                Log.route(drain, "C    M <- R : {0}", message);
+                message.setSourceRoom(id);
+                metrics.received(id, message);
 
                 if(message.getFlowTarget() == FlowTarget.ack){
                     //ack from room is meant for us..
                     handleAck(message);
                 } else {
-                    try {
+                    try (Scope scope = tracing.start("mediator.fromRoom", message, id)) {
                         nexus.sendToClients(message);
                     } catch(Exception e) {
                         Log.log(Level.WARNING, session, "Uncaught exception handling client-bound message", e);
@@ -163,19 +218,25 @@ class WebSocketClientConnection extends Endpoint implements RemoteRoom.Connectio
     /**
      * ack from room is sent to allow us to select a compatible websocket json protocol
      * currently we only support the one, maybe in future we'll add more.
+     * We may have started with a cached version: negotiate from scratch so a room
+     * that has dropped support for a version is corrected.
      */
     private void handleAck(RoutedMessage ackack){
         JsonObject ackackobject = ackack.getParsedBody();
         JsonArray versions = ackackobject.getJsonArray("version");
+        long negotiated = 1;
 
         for(JsonValue version : versions){
             if(JsonValue.ValueType.NUMBER.equals(version.getValueType())){
                 long value = ((JsonNumber) version).longValue();
-                if ( value > protocolVersion && value <= MAX_PROTOCOL_VERSION ) {
-                    protocolVersion = value;
+                if ( value > negotiated && value <= MAX_PROTOCOL_VERSION ) {
+                    negotiated = value;
                 }
             }
         }
+
+        protocolVersion = negotiated;
+        capabilities.versionNegotiated(info.getConnectionDetails().getTarget(), negotiated);
     }
 
     public class GameOnHeaderAuthConfigurator extends Configurator {
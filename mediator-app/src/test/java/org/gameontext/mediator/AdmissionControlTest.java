@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.websocket.CloseReason;
+import javax.websocket.CloseReason.CloseCodes;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AdmissionControlTest {
+
+    private AdmissionControl admission() {
+        AdmissionControl admission = new AdmissionControl();
+        admission.healthChecks = new HealthChecks();
+        admission.drainMonitor = new DrainMonitor();
+        admission.nodeDrain = new NodeDrain();
+        admission.maxHeapPercent = 0;
+        admission.postConstruct();
+        return admission;
+    }
+
+    @Test
+    public void testSessionLimit() {
+        AdmissionControl admission = admission();
+        admission.maxSessions = 2;
+
+        Assert.assertNull(admission.admit());
+        admission.openComplete();
+        Assert.assertNull(admission.admit());
+        admission.openComplete();
+
+        CloseReason reason = admission.admit();
+        Assert.assertNotNull(reason);
+        Assert.assertEquals(CloseCodes.TRY_AGAIN_LATER, reason.getCloseCode());
+        Assert.assertTrue(reason.getReasonPhrase(), reason.getReasonPhrase().startsWith("Busy (session limit), retry after "));
+
+        admission.sessionClosed();
+        Assert.assertNull(admission.admit());
+        admission.openComplete();
+    }
+
+    @Test
+    public void testClientBacklog() {
+        AdmissionControl admission = admission();
+        admission.healthChecks.maxQueued = 10;
+        admission.drainMonitor.last.totalDepth = 11;
+
+        Assert.assertEquals("client backlog", admission.overloaded());
+        Assert.assertNotNull(admission.admit());
+        Assert.assertEquals(0, admission.sessions.get());
+    }
+
+    @Test
+    public void testDraining() {
+        AdmissionControl admission = admission();
+        admission.nodeDrain.draining.set(true);
+
+        Assert.assertEquals("draining", admission.overloaded());
+        Assert.assertNotNull(admission.admit());
+        Assert.assertEquals(0, admission.sessions.get());
+    }
+
+    @Test
+    public void testHeap() {
+        AdmissionControl admission = new AdmissionControl() {
+            @Override
+            long heapPercent() {
+                return 95;
+            }
+        };
+        admission.healthChecks = new HealthChecks();
+        admission.drainMonitor = new DrainMonitor();
+        admission.nodeDrain = new NodeDrain();
+        admission.postConstruct();
+
+        Assert.assertEquals("heap", admission.overloaded());
+    }
+
+    @Test
+    public void testQueuedUntilTurn() throws Exception {
+        AdmissionControl admission = new AdmissionControl();
+        admission.healthChecks = new HealthChecks();
+        admission.drainMonitor = new DrainMonitor();
+        admission.nodeDrain = new NodeDrain();
+        admission.maxHeapPercent = 0;
+        admission.maxOpening = 1;
+        admission.queueWait = 5000;
+        admission.postConstruct();
+
+        Assert.assertNull(admission.admit());
+
+        // second connection waits for the first to finish opening
+        CompletableFuture<CloseReason> second = CompletableFuture.supplyAsync(admission::admit);
+        while ( admission.waiting.get() == 0 ) {
+            Thread.sleep(10);
+        }
+        Assert.assertFalse(second.isDone());
+
+        admission.openComplete();
+        Assert.assertNull(second.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(2, admission.sessions.get());
+    }
+
+    @Test
+    public void testQueueTimeout() {
+        AdmissionControl admission = admission();
+        admission.maxOpening = 1;
+        admission.queueWait = 10;
+        admission.postConstruct();
+
+        Assert.assertNull(admission.admit());
+        CloseReason reason = admission.admit();
+        Assert.assertNotNull(reason);
+        Assert.assertTrue(reason.getReasonPhrase(), reason.getReasonPhrase().contains("timed out waiting"));
+        Assert.assertEquals(0, admission.waiting.get());
+    }
+}
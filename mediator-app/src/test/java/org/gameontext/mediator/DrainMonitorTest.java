@@ -0,0 +1,124 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.util.concurrent.ScheduledExecutorService;
+
+import javax.websocket.Session;
+
+import org.gameontext.mediator.RoutedMessage.FlowTarget;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import mockit.Mocked;
+import mockit.Verifications;
+import mockit.integration.junit4.JMockit;
+
+@RunWith(JMockit.class)
+public class DrainMonitorTest {
+
+    @Mocked Session session;
+
+    @Test
+    public void testSlowSessionDisconnected() throws Exception {
+        DrainMonitor monitor = new DrainMonitor();
+        monitor.slowDepth = 2;
+        monitor.slowSweeps = 2;
+        monitor.slowDisconnect = true;
+
+        // drain thread never started: messages just pile up
+        WSDrain drain = new WSDrain("slow", session);
+        for ( int i = 0; i < 5; i++ ) {
+            drain.send(RoutedMessage.createMessage(FlowTarget.player, "slow", "{}"));
+        }
+        monitor.watch(drain);
+
+        monitor.sweep();
+        Assert.assertEquals(1, monitor.last.slow);
+        Assert.assertEquals(5, monitor.last.maxDepth);
+        Assert.assertEquals(0, monitor.disconnects.sum());
+        Assert.assertTrue(monitor.drains.contains(drain));
+
+        monitor.sweep();
+        Assert.assertEquals(1, monitor.disconnects.sum());
+        Assert.assertFalse(monitor.drains.contains(drain));
+
+        new Verifications() {{
+            session.close(DrainMonitor.SLOW_CONSUMER); times = 1;
+        }};
+    }
+
+    @Test
+    public void testSlowSessionFlaggedOnly() throws Exception {
+        DrainMonitor monitor = new DrainMonitor();
+        monitor.slowDepth = 2;
+        monitor.slowSweeps = 1;
+
+        WSDrain drain = new WSDrain("slow", session);
+        for ( int i = 0; i < 5; i++ ) {
+            drain.send(RoutedMessage.createMessage(FlowTarget.player, "slow", "{}"));
+        }
+        monitor.watch(drain);
+
+        monitor.sweep();
+        monitor.sweep();
+        Assert.assertEquals(1, monitor.last.slow);
+        Assert.assertEquals(0, monitor.disconnects.sum());
+
+        new Verifications() {{
+            session.close(DrainMonitor.SLOW_CONSUMER); times = 0;
+        }};
+    }
+
+    @Test
+    public void testStoppedDrainsForgotten() {
+        DrainMonitor monitor = new DrainMonitor();
+
+        WSDrain drain = new WSDrain("gone", session);
+        monitor.watch(drain);
+        drain.stop();
+
+        monitor.sweep();
+        Assert.assertTrue(monitor.drains.isEmpty());
+        Assert.assertEquals(0, monitor.last.sessions);
+    }
+
+    @Test
+    public void testPing(@Mocked ScheduledExecutorService executor) {
+        DrainMonitor monitor = new DrainMonitor();
+        monitor.pingDelay = 0;
+
+        // opened, but nothing is written: pings stay queued
+        WSDrain open = new WSDrain("open", session);
+        open.setExecutor(executor);
+        open.start();
+        monitor.watch(open);
+
+        // not started yet
+        WSDrain pending = new WSDrain("pending");
+        monitor.watch(pending);
+
+        monitor.ping();
+        Assert.assertEquals(1, open.queueDepth());
+        Assert.assertEquals(0, pending.queueDepth());
+
+        // not open long enough
+        monitor.pingDelay = 3600;
+        monitor.ping();
+        Assert.assertEquals(1, open.queueDepth());
+    }
+}
@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.util.concurrent.TimeUnit;
+
+import org.gameontext.mediator.HealthChecks.Probe;
+import org.gameontext.mediator.kafka.KafkaCDIBridge;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HealthChecksTest {
+
+    @Test
+    public void testOverloadedAndRecovered() {
+        HealthChecks health = new HealthChecks();
+        health.nodeDrain = new NodeDrain();
+        health.maxQueued = 100;
+
+        health.update(probe(50));
+        Assert.assertTrue(health.ready);
+        Assert.assertNull(health.getReason());
+
+        health.update(probe(101));
+        Assert.assertFalse(health.ready);
+        Assert.assertEquals("101 messages waiting for clients", health.getReason());
+
+        // under the limit, but not by enough
+        health.update(probe(90));
+        Assert.assertFalse(health.ready);
+
+        health.update(probe(80));
+        Assert.assertTrue(health.ready);
+        Assert.assertNull(health.getReason());
+    }
+
+    @Test
+    public void testLatencyLimits() {
+        HealthChecks health = new HealthChecks();
+        health.nodeDrain = new NodeDrain();
+
+        // slow or unreachable services are reported, but don't count against us
+        Probe p = probe(0);
+        p.playerNanos = TimeUnit.SECONDS.toNanos(30);
+        Assert.assertNull(health.overLimit(p, 1.0));
+        p.playerNanos = -1;
+        p.mapNanos = -1;
+        Assert.assertNull(health.overLimit(p, 1.0));
+
+        p.kafkaLag = health.maxKafkaLag + 1;
+        Assert.assertEquals("kafka consumer lag " + p.kafkaLag, health.overLimit(p, 1.0));
+
+        // 0 turns a check off
+        health.maxKafkaLag = 0;
+        Assert.assertNull(health.overLimit(p, 1.0));
+    }
+
+    @Test
+    public void testExecutorDelay() {
+        HealthChecks health = new HealthChecks();
+        health.nodeDrain = new NodeDrain();
+        Assert.assertEquals(0, health.executorDelay(System.nanoTime()));
+
+        // probe submitted, not run yet
+        long now = System.nanoTime();
+        health.executorSubmitted = now - 500;
+        Assert.assertEquals(500, health.executorDelay(now));
+
+        health.executorRan = now - 200;
+        Assert.assertEquals(300, health.executorDelay(now + 1000));
+    }
+
+    @Test
+    public void testProbeWithoutExecutor() {
+        HealthChecks health = new HealthChecks();
+        health.nodeDrain = new NodeDrain();
+        health.mapClient = new MapClient();
+        health.playerClient = new PlayerClient();
+        health.kafka = new KafkaCDIBridge();
+        health.drainMonitor = new DrainMonitor();
+
+        // no scheduled executor (e.g. not injected): probe still measures
+        health.probe();
+        Assert.assertTrue(health.last.when != 0);
+        Assert.assertEquals(-1, health.last.mapNanos);
+        Assert.assertTrue(health.ready);
+    }
+
+    private Probe probe(long queued) {
+        Probe p = new Probe();
+        p.mapNanos = TimeUnit.MILLISECONDS.toNanos(10);
+        p.playerNanos = TimeUnit.MILLISECONDS.toNanos(10);
+        p.kafkaLag = 0;
+        p.queued = queued;
+        return p;
+    }
+}
@@ -0,0 +1,53 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import org.gameontext.mediator.HopLatency.Hop;
+import org.gameontext.mediator.RoutedMessage.FlowTarget;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HopLatencyTest {
+
+    @Test
+    public void testMediatorMessagesIgnored() {
+        HopLatency latency = new HopLatency();
+
+        // created by the mediator: never decoded
+        latency.record(Hop.ROOM_TO_CLIENT, RoutedMessage.createMessage(FlowTarget.player, "*", "{}"));
+
+        Assert.assertEquals(0, latency.all.get(Hop.ROOM_TO_CLIENT).recorder.getIntervalHistogram().getTotalCount());
+    }
+
+    @Test
+    public void testRecordByRoom() throws Exception {
+        HopLatency latency = new HopLatency();
+        RoutedMessageDecoder decoder = new RoutedMessageDecoder();
+
+        RoutedMessage toRoom = decoder.decode("room,roomId,{}");
+        latency.record(Hop.CLIENT_TO_ROOM, toRoom);
+
+        RoutedMessage toClient = decoder.decode("player,*,{}");
+        toClient.setSourceRoom("otherRoom");
+        latency.record(Hop.ROOM_TO_CLIENT, toClient);
+
+        Assert.assertEquals(1, latency.all.get(Hop.CLIENT_TO_ROOM).recorder.getIntervalHistogram().getTotalCount());
+        Assert.assertEquals(1, latency.byRoom.get(Hop.CLIENT_TO_ROOM)[HopLatency.bucket("roomId")]
+                .recorder.getIntervalHistogram().getTotalCount());
+        Assert.assertEquals(1, latency.byRoom.get(Hop.ROOM_TO_CLIENT)[HopLatency.bucket("otherRoom")]
+                .recorder.getIntervalHistogram().getTotalCount());
+    }
+}
@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.gameontext.signed.SignedJWT;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import io.jsonwebtoken.Claims;
+import mockit.Expectations;
+import mockit.Mocked;
+import mockit.integration.junit4.JMockit;
+
+@RunWith(JMockit.class)
+public class JwtCacheTest {
+
+    @Mocked SignedJWT jwt;
+    @Mocked Claims claims;
+
+    private void expiresIn(long seconds) {
+        new Expectations() {{
+            jwt.isValid(); result = true; minTimes = 0;
+            jwt.getClaims(); result = claims; minTimes = 0;
+            claims.getExpiration(); result = new Date(System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(seconds)); minTimes = 0;
+        }};
+    }
+
+    @Test
+    public void testCachedUntilNearExpiry() {
+        JwtCache cache = new JwtCache();
+        expiresIn(3600);
+
+        Assert.assertNull(cache.get("token"));
+        cache.put("token", jwt, "server");
+
+        JwtCache.Entry e = cache.get("token");
+        Assert.assertNotNull(e);
+        Assert.assertSame(jwt, e.getClientJwt());
+        Assert.assertEquals("server", e.getServerJwt());
+
+        // only an exact match
+        Assert.assertNull(cache.get("token2"));
+
+        // capped by the ttl, not the (much later) expiry
+        Assert.assertTrue(e.expires <= System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(cache.ttl));
+    }
+
+    @Test
+    public void testNotCachedCloseToExpiry() {
+        JwtCache cache = new JwtCache();
+        expiresIn(30);
+
+        cache.put("token", jwt, "server");
+        Assert.assertNull(cache.get("token"));
+    }
+
+    @Test
+    public void testInvalidNotCached() {
+        JwtCache cache = new JwtCache();
+        new Expectations() {{
+            jwt.isValid(); result = false;
+        }};
+
+        cache.put("token", jwt, "server");
+        Assert.assertTrue(cache.entries.isEmpty());
+    }
+
+    @Test
+    public void testBounded() {
+        JwtCache cache = new JwtCache();
+        cache.maxEntries = 2;
+        expiresIn(3600);
+
+        cache.put("a", jwt, "server");
+        cache.put("b", jwt, "server");
+        cache.put("c", jwt, "server");
+
+        Assert.assertEquals(2, cache.entries.size());
+        Assert.assertNotNull(cache.get("a"));
+        Assert.assertNull(cache.get("c"));
+    }
+}
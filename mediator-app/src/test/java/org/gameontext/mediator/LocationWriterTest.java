@@ -0,0 +1,86 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LocationWriterTest {
+
+    /** Records updates, and answers with the requested location unless told otherwise */
+    static class Service extends PlayerClient {
+        final List<String> updates = new ArrayList<>();
+        String answer = null;
+
+        @Override
+        public String updatePlayerLocation(String playerId, String jwt, String oldRoomId, String newRoomId) {
+            updates.add(oldRoomId + "->" + newRoomId);
+            return answer == null ? newRoomId : answer;
+        }
+    }
+
+    final Service service = new Service();
+    final List<Runnable> pending = new ArrayList<>();
+    final List<String> conflicts = new ArrayList<>();
+
+    final LocationWriter writer = new LocationWriter(service, "user", pending::add,
+            (from, to, actual) -> conflicts.add(from + "->" + to + ":" + actual));
+
+    @Test
+    public void testCollapsed() {
+        writer.moved("a", "b", "jwt");
+        writer.moved("b", "c", "jwt");
+        writer.moved("c", "d", "jwt");
+        Assert.assertEquals("one update at a time", 1, pending.size());
+
+        pending.remove(0).run();
+        Assert.assertEquals("[a->d]", service.updates.toString());
+
+        // later moves start from the confirmed location
+        writer.moved("d", "e", "jwt");
+        pending.remove(0).run();
+        Assert.assertEquals("[a->d, d->e]", service.updates.toString());
+        Assert.assertTrue(conflicts.isEmpty());
+    }
+
+    @Test
+    public void testMovedBack() {
+        writer.moved("a", "b", "jwt");
+        writer.moved("b", "a", "jwt");
+        pending.remove(0).run();
+
+        Assert.assertTrue("nothing to write: " + service.updates, service.updates.isEmpty());
+    }
+
+    @Test
+    public void testConflict() {
+        service.answer = "x";
+        writer.moved("a", "b", "jwt");
+        pending.remove(0).run();
+
+        Assert.assertEquals("[a->b]", service.updates.toString());
+        Assert.assertEquals("[a->b:x]", conflicts.toString());
+
+        // the next move starts over
+        service.answer = null;
+        writer.moved("x", "y", "jwt");
+        pending.remove(0).run();
+        Assert.assertEquals("[a->b, x->y]", service.updates.toString());
+    }
+}
@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import org.gameontext.mediator.Log.AsyncWriter;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LogTest {
+
+    @Test
+    public void testPrefix() {
+        int hash = Log.getHash(this);
+        Assert.assertEquals(String.format(": %-8x : ", hash), Log.prefix(hash).toString());
+        Assert.assertEquals(String.format(": %-8x : ", 0), Log.prefix(0).toString());
+    }
+
+    @Test
+    public void testFullRingDrops() {
+        AsyncWriter writer = new AsyncWriter(4);
+        Assert.assertEquals(4, writer.ring.length);
+
+        for ( int i = 0; i < 4; i++ ) {
+            Assert.assertTrue(writer.offer(Level.FINEST, this, "event {0}", new Object[] { i }, null));
+        }
+        Assert.assertFalse(writer.offer(Level.FINEST, this, "one too many", null, null));
+        Assert.assertEquals(1, writer.dropped.sum());
+
+        // warnings are written by the caller instead: not dropped
+        Assert.assertFalse(writer.offer(Level.WARNING, this, "one too many", null, null));
+        Assert.assertEquals(1, writer.dropped.sum());
+
+        Assert.assertEquals(4, writer.drain());
+        Assert.assertNull(writer.ring[0].message);
+
+        // room again
+        Assert.assertTrue(writer.offer(Level.FINEST, this, "event", null, null));
+        Assert.assertEquals(1, writer.drain());
+        Assert.assertEquals(0, writer.drain());
+    }
+
+    @Test
+    public void testRingSize() {
+        Assert.assertEquals(8, new AsyncWriter(5).ring.length);
+        Assert.assertEquals(8, new AsyncWriter(8).ring.length);
+        Assert.assertEquals(2, new AsyncWriter(1).ring.length);
+    }
+
+    @Test
+    public void testWarningsNotSampled() {
+        List<LogRecord> records = new ArrayList<>();
+        Handler handler = new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                records.add(record);
+            }
+
+            @Override
+            public void flush() {}
+
+            @Override
+            public void close() {}
+        };
+
+        Logger logger = Logger.getLogger("org.gameontext.mediator");
+        logger.addHandler(handler);
+        Log.setSampling(Log.Category.GENERAL, 0);
+        try {
+            Log.log(Level.INFO, this, "sampled out");
+            Log.log(Level.WARNING, this, "kept");
+            Log.log(Level.SEVERE, this, "kept", new Exception("kept"));
+
+            Assert.assertEquals(2, records.size());
+        } finally {
+            Log.setSampling(Log.Category.GENERAL, 1);
+            logger.removeHandler(handler);
+        }
+    }
+}
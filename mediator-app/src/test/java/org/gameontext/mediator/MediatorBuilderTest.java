@@ -14,20 +14,24 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 
 import javax.enterprise.concurrent.ManagedScheduledExecutorService;
-import javax.enterprise.concurrent.ManagedThreadFactory;
 import javax.enterprise.concurrent.Trigger;
 import javax.websocket.Session;
 
 import org.gameontext.mediator.ClientMediator;
 import org.gameontext.mediator.Constants;
+import org.gameontext.mediator.DrainMonitor;
+import org.gameontext.mediator.HopLatency;
+import org.gameontext.mediator.RoomMetrics;
 import org.gameontext.mediator.Log;
 import org.gameontext.mediator.MapClient;
 import org.gameontext.mediator.MediatorBuilder;
 import org.gameontext.mediator.MediatorNexus;
+import org.gameontext.mediator.MessageTracing;
 import org.gameontext.mediator.PlayerClient;
 import org.gameontext.mediator.WSDrain;
 import org.gameontext.mediator.MediatorNexus.ClientMediatorPod;
 import org.gameontext.mediator.MediatorNexus.UserView;
+import org.gameontext.mediator.kafka.KafkaClusterBus;
 import org.gameontext.mediator.models.Exit;
 import org.gameontext.mediator.models.Exits;
 import org.gameontext.mediator.models.RoomInfo;
@@ -64,8 +68,12 @@ public class MediatorBuilderTest {
     @Injectable MediatorNexus nexus;
     @Injectable MapClient mapClient;
     @Injectable PlayerClient playerClient;
+    @Injectable HopLatency hopLatency;
+    @Injectable RoomMetrics roomMetrics;
+    @Injectable DrainMonitor drainMonitor;
+    @Injectable MessageTracing tracing;
+    @Injectable KafkaClusterBus kafkaBus;
 
-    @Injectable ManagedThreadFactory threadFactory;
     @Injectable ManagedScheduledExecutorService scheduledExecutor;
     
     @Injectable String systemId;
@@ -315,6 +323,27 @@ public class MediatorBuilderTest {
         Assert.assertEquals(Type.EMPTY, proxy.getType()); // proxy type should reflect the guts!
     }
 
+    @Test
+    public void testCreateDelegateEmptyShared(@Mocked Site site1) throws Exception {
+        new Expectations() {{
+            site1.getId(); result = roomId;
+            site1.getInfo(); result = null;
+        }};
+
+        Field field_delegate = RemoteRoomProxy.class.getDeclaredField("delegate");
+        field_delegate.setAccessible(true);
+
+        RemoteRoomProxy proxy1 = new RemoteRoomProxy(builder, userView, roomId);
+        RemoteRoomProxy proxy2 = new RemoteRoomProxy(builder, userView, roomId);
+        Assert.assertSame(field_delegate.get(proxy1), field_delegate.get(proxy2));
+
+        // last player left the room
+        builder.roomEmpty(roomId);
+        RemoteRoomProxy proxy3 = new RemoteRoomProxy(builder, userView, roomId);
+        Assert.assertEquals(Type.EMPTY, proxy3.getType());
+        Assert.assertNotSame(field_delegate.get(proxy1), field_delegate.get(proxy3));
+    }
+
     @Test
     public void testCreateConnectingDelegateHelloBadConnectionType(@Mocked Site site1,
                                    @Mocked RoomInfo info,
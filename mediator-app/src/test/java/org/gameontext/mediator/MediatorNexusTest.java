@@ -23,6 +23,8 @@ import java.util.ConcurrentModificationException;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 
 import javax.json.Json;
@@ -628,6 +630,57 @@ public class MediatorNexusTest {
     }
 
 
+    @Test
+    public void testTransitionLocationConflict(@Mocked ClientMediator client1,
+                                               @Mocked RoomMediator room1,
+                                               @Mocked RoomMediator room2) {
+
+        String roomId2 = "room2";
+
+        new Expectations() {{
+            client1.getUserId(); result = "client1";
+            client1.getRoomMediator(); returns(room1, room2);
+
+            room1.getId(); result = roomId;
+            room1.getName(); result = roomName;
+            room1.getFullName(); result = roomFullName;
+            room1.listExits(); result = roomExits;
+
+            room2.getId(); result = roomId2;
+            room2.getName(); result = roomName;
+            room2.getFullName(); result = roomFullName;
+            room2.listExits(); result = roomExits;
+
+            // the player service keeps the player where they were
+            playerClient.updatePlayerLocation("client1",(String)any,roomId,roomId2); result = roomId;
+
+            builder.findMediatorForRoom((ClientMediatorPod) any, roomId); result = room1;
+            builder.findMediatorForRoom((ClientMediatorPod) any, roomId2); result = room2;
+        }};
+
+        MediatorNexus nexus = new MediatorNexus();
+        nexus.events = events;
+        nexus.setBuilder(builder);
+        Deencapsulation.setField(nexus,playerClient);
+
+        nexus.join(client1, roomId, "previous");
+        nexus.transition(client1, roomId2);
+
+        new Verifications() {{
+            // moved right away
+            room1.goodbye((UserView) any); times = 1;
+            room2.hello((UserView) any); times = 1;
+            playerClient.updatePlayerLocation("client1",(String)any,roomId,roomId2); times = 1;
+
+            // .. and back again, without another update
+            room2.goodbye((UserView) any); times = 1;
+            room1.hello((UserView) any); times = 1;
+            builder.findMediatorForRoom((ClientMediatorPod) any, roomId); times = 2;
+            client1.setRoomMediator(room1, false); times = 2;
+            playerClient.updatePlayerLocation((String)any, (String)any, (String)any, (String)any); times = 1;
+        }};
+    }
+
     @Test
     public void testTransitionToRoomConflict(@Mocked ClientMediator client1,
                                              @Mocked RoomMediator room1) throws Throwable {
@@ -919,6 +972,449 @@ public class MediatorNexusTest {
         }};
     }
 
+    @Test
+    public void testInboundRateLimit(@Mocked ClientMediator client1,
+            @Mocked ClientMediator client1a,
+            @Mocked RoomMediator room1) {
+
+        new Expectations() {{
+            client1.getUserId(); result = "client1";
+            client1a.getUserId(); result = "client1";
+            room1.getId(); result = roomId;
+            room1.getName(); result = roomName;
+            room1.getFullName(); result = roomFullName;
+            room1.listExits(); result = roomExits;
+            builder.findMediatorForRoom((ClientMediatorPod) any, roomId); result = room1;
+        }};
+
+        MediatorNexus nexus = new MediatorNexus();
+        nexus.events = events;
+        nexus.setBuilder(builder);
+        nexus.clientRoomRate = 1;
+        nexus.clientRoomBurst = 2;
+
+        RoutedMessage roomMessage = RoutedMessage.createMessage(RoutedMessage.FlowTarget.room, roomId, "{}");
+        RoutedMessage readyMessage = RoutedMessage.createMessage(RoutedMessage.FlowTarget.ready, "", "{}");
+
+        // no pod yet: nothing to limit
+        Assert.assertTrue(nexus.tryAccept(client1, roomMessage));
+
+        nexus.join(client1, roomId, "previous");
+        nexus.join(client1a, roomId, "previous");
+
+        // the burst is shared by both sessions
+        Assert.assertTrue(nexus.tryAccept(client1, roomMessage));
+        Assert.assertTrue(nexus.tryAccept(client1a, roomMessage));
+        Assert.assertFalse(nexus.tryAccept(client1, roomMessage));
+        Assert.assertFalse(nexus.tryAccept(client1, roomMessage));
+
+        // other flow targets are not limited
+        Assert.assertTrue(nexus.tryAccept(client1, readyMessage));
+
+        new Verifications() {{
+            List<RoutedMessage> messages = new ArrayList<>();
+            client1.sendToClient(withCapture(messages));
+
+            // only the first refused message gets a notice
+            long notices = messages.stream()
+                    .filter(m -> m.toString().contains(Constants.EVENTMSG_CLIENT_SLOW_DOWN))
+                    .count();
+            Assert.assertEquals("One slow down notice expected: " + messages, 1, notices);
+        }};
+    }
+
+    @Test
+    public void testRoomMessageBeforeJoin(@Mocked Drain drain,
+                                          @Mocked RoomMediator room1) {
+
+        new Expectations() {{
+            room1.getId(); result = roomId;
+            room1.getName(); result = roomName;
+            room1.getFullName(); result = roomFullName;
+            room1.listExits(); result = roomExits;
+
+            builder.findMediatorForRoom((ClientMediatorPod) any, roomId); result = room1;
+        }};
+
+        // hold pod operations until we say so
+        List<Runnable> pending = new ArrayList<>();
+
+        MediatorNexus nexus = new MediatorNexus();
+        nexus.events = events;
+        nexus.setBuilder(builder);
+        nexus.setExecutor(pending::add);
+        Deencapsulation.setField(nexus,playerClient);
+
+        ClientMediator client1 = new ClientMediator(nexus, drain, "client1", null, signedJwt);
+        client1.ready(new RoutedMessage("ready,{\"roomId\":\"" + roomId + "\"}"));
+        Assert.assertEquals("Join should be queued: " + pending, 1, pending.size());
+
+        // the client speaks before the join has been processed
+        RoutedMessage chat = new RoutedMessage("room," + roomId + ",{\"username\":\"" + userName + "\",\"userId\":\"client1\",\"content\":\"hi\"}");
+        client1.handleMessage(chat);
+        new Verifications() {{
+            room1.sendToRoom((RoutedMessage) any); times = 0;
+        }};
+
+        pending.remove(0).run();
+        Assert.assertSame(room1, client1.getRoomMediator());
+
+        new Verifications() {{
+            room1.sendToRoom(chat); times = 1;
+        }};
+    }
+
+    @Test
+    public void testQueuedTransitionsCollapse(@Mocked ClientMediator client1,
+                                              @Mocked RoomMediator room1,
+                                              @Mocked RoomMediator room3) {
+
+        String roomId2 = "room2";
+        String roomId3 = "room3";
+
+        new Expectations() {{
+            client1.getUserId(); result = "client1";
+            client1.getRoomMediator(); result = room1;
+
+            room1.getId(); result = roomId;
+            room1.getName(); result = roomName;
+            room1.getFullName(); result = roomFullName;
+            room1.listExits(); result = roomExits;
+
+            room3.getId(); result = roomId3;
+            room3.getName(); result = roomName;
+            room3.getFullName(); result = roomFullName;
+            room3.listExits(); result = roomExits;
+
+            playerClient.updatePlayerLocation("client1",(String)any,roomId,roomId3); result = roomId3;
+
+            builder.findMediatorForRoom((ClientMediatorPod) any, roomId); result = room1;
+            builder.findMediatorForRoom((ClientMediatorPod) any, roomId3); result = room3;
+        }};
+
+        // hold pod operations until we say so
+        List<Runnable> pending = new ArrayList<>();
+
+        MediatorNexus nexus = new MediatorNexus();
+        nexus.events = events;
+        nexus.setBuilder(builder);
+        nexus.setExecutor(pending::add);
+        Deencapsulation.setField(nexus,playerClient);
+
+        nexus.join(client1, roomId, "previous");
+        Assert.assertEquals("Pod should be draining: " + pending, 1, pending.size());
+        pending.remove(0).run();
+
+        // two transitions queued before the pod gets a chance to act
+        nexus.transition(client1, roomId2);
+        nexus.transition(client1, roomId3);
+        Assert.assertEquals("Only one drain should be scheduled: " + pending, 1, pending.size());
+        pending.remove(0).run();
+
+        // the location is written once the pod has moved on
+        Assert.assertEquals("Location update should be scheduled: " + pending, 1, pending.size());
+        pending.remove(0).run();
+
+        new Verifications() {{
+            builder.findMediatorForRoom((ClientMediatorPod) any, roomId2); times = 0;  // superseded
+            builder.findMediatorForRoom((ClientMediatorPod) any, roomId3); times = 1;
+            playerClient.updatePlayerLocation("client1",(String)any,roomId,roomId3); times = 1;
+
+            room1.goodbye((UserView) any); times = 1;
+            room3.hello((UserView) any); times = 1;
+        }};
+    }
+
+    @Test
+    public void testLargeRoomBroadcast(@Mocked ClientMediator client1,
+                                       @Mocked ClientMediator client2,
+                                       @Mocked RoomMediator room1) {
+
+        new Expectations() {{
+            client1.getUserId(); result = "client1";
+            client2.getUserId(); result = "client2";
+
+            room1.getId(); result = roomId;
+            room1.getName(); result = roomName;
+            room1.getFullName(); result = roomFullName;
+            room1.listExits(); result = roomExits;
+
+            builder.findMediatorForRoom((ClientMediatorPod) any, roomId); result = room1;
+        }};
+
+        MediatorNexus nexus = new MediatorNexus();
+        nexus.events = events;
+        nexus.setBuilder(builder);
+        nexus.broadcastFanoutThreshold = 2;
+
+        nexus.join(client1, roomId, "previous");
+        nexus.join(client2, roomId, "previous");
+
+        RoutedMessage broadcast = RoutedMessage.createMessage(RoutedMessage.FlowTarget.player, "*", "{}");
+        RoutedMessage direct = RoutedMessage.createMessage(RoutedMessage.FlowTarget.player, "client2", "{}");
+        RoutedMessage notForPlayers = RoutedMessage.createMessage(RoutedMessage.FlowTarget.room, "*", "{}");
+
+        MediatorNexus.View view = nexus.getMultiUserView(roomId);
+        view.sendToClients(broadcast);
+        view.sendToClients(direct);
+        view.sendToClients(notForPlayers);
+
+        Object lanes = Deencapsulation.getField(nexus.roomClients.get(roomId), "lanes");
+        Assert.assertNotNull("Room should be using broadcast lanes", lanes);
+
+        // pods are split between the lanes: each lane only delivers to its own
+        int assigned = 0;
+        for ( Object lane : (Object[]) lanes ) {
+            assigned += ((Set<?>) Deencapsulation.getField(lane, "pods")).size();
+        }
+        Assert.assertEquals("Each pod should be in exactly one lane", 2, assigned);
+
+        new Verifications() {{
+            client1.deliver(broadcast); times = 1;
+            client2.deliver(broadcast); times = 1;
+            client2.deliver(direct); times = 1;
+            client1.deliver(notForPlayers); times = 0;
+            client2.deliver(notForPlayers); times = 0;
+        }};
+    }
+
+    @Test
+    public void testLargeRoomShrinks(@Mocked ClientMediator client1,
+                                     @Mocked ClientMediator client2,
+                                     @Mocked ClientMediator client3,
+                                     @Mocked ClientMediator client4,
+                                     @Mocked RoomMediator room1) {
+
+        new Expectations() {{
+            client1.getUserId(); result = "client1";
+            client2.getUserId(); result = "client2";
+            client3.getUserId(); result = "client3";
+            client4.getUserId(); result = "client4";
+
+            room1.getId(); result = roomId;
+            room1.getName(); result = roomName;
+            room1.getFullName(); result = roomFullName;
+            room1.listExits(); result = roomExits;
+
+            builder.findMediatorForRoom((ClientMediatorPod) any, roomId); result = room1;
+        }};
+
+        MediatorNexus nexus = new MediatorNexus();
+        nexus.events = events;
+        nexus.setBuilder(builder);
+        nexus.broadcastFanoutThreshold = 4;
+
+        nexus.join(client1, roomId, "previous");
+        nexus.join(client2, roomId, "previous");
+        nexus.join(client3, roomId, "previous");
+        nexus.join(client4, roomId, "previous");
+
+        MediatorNexus.View view = nexus.getMultiUserView(roomId);
+        RoutedMessage first = RoutedMessage.createMessage(RoutedMessage.FlowTarget.player, "*", "{}");
+        view.sendToClients(first);
+        Assert.assertNotNull("Room should be using broadcast lanes",
+                Deencapsulation.getField(nexus.roomClients.get(roomId), "lanes"));
+
+        // half the threshold: still using lanes
+        nexus.part(client4);
+        nexus.part(client3);
+        Assert.assertNotNull("Room should still be using broadcast lanes",
+                Deencapsulation.getField(nexus.roomClients.get(roomId), "lanes"));
+
+        nexus.part(client2);
+        Assert.assertNull("Room should be back to inline broadcast",
+                Deencapsulation.getField(nexus.roomClients.get(roomId), "lanes"));
+
+        RoutedMessage second = RoutedMessage.createMessage(RoutedMessage.FlowTarget.player, "*", "{}");
+        view.sendToClients(second);
+
+        new Verifications() {{
+            client1.deliver(first); times = 1;
+            client4.deliver(first); times = 1;
+            client1.deliver(second); times = 1;
+            client2.deliver(second); times = 0;
+        }};
+    }
+
+    @Test
+    public void testClusterBroadcast(@Mocked ClientMediator client1,
+                                     @Mocked ClientMediator client2,
+                                     @Mocked RoomMediator room1) {
+
+        new Expectations() {{
+            client1.getUserId(); result = "client1";
+            client2.getUserId(); result = "client2";
+
+            room1.getId(); result = roomId;
+            room1.getName(); result = roomName;
+            room1.getFullName(); result = roomFullName;
+            room1.listExits(); result = roomExits;
+
+            builder.findMediatorForRoom((ClientMediatorPod) any, roomId); result = room1;
+        }};
+
+        // two nodes, one player on each
+        LocalClusterBus.Hub hub = new LocalClusterBus.Hub();
+
+        MediatorNexus node1 = new MediatorNexus();
+        node1.events = events;
+        node1.setBuilder(builder);
+        node1.setClusterBus(new LocalClusterBus(hub));
+
+        MediatorNexus node2 = new MediatorNexus();
+        node2.events = events;
+        node2.setBuilder(builder);
+        node2.setClusterBus(new LocalClusterBus(hub));
+
+        node1.join(client1, roomId, "previous");
+        node2.join(client2, roomId, "previous");
+
+        RoutedMessage broadcast = RoutedMessage.createMessage(RoutedMessage.FlowTarget.player, "*", "{}");
+        RoutedMessage direct = RoutedMessage.createMessage(RoutedMessage.FlowTarget.player, "client1", "{}");
+        RoutedMessage notForPlayers = RoutedMessage.createMessage(RoutedMessage.FlowTarget.room, "*", "{}");
+
+        MediatorNexus.View view = node1.getMultiUserView(roomId);
+        view.sendToClients(broadcast);
+        view.sendToClients(direct);
+        view.sendToClients(notForPlayers);
+
+        new Verifications() {{
+            client1.deliver(broadcast); times = 1;
+            client2.deliver(broadcast); times = 1; // via the bus, once
+            client1.deliver(direct); times = 1;
+            client2.deliver(direct); times = 0;
+            client2.deliver(notForPlayers); times = 0;
+        }};
+    }
+
+    @Test
+    public void testResumeAfterReconnect(@Mocked ClientMediator client1,
+                                         @Mocked ClientMediator client1a,
+                                         @Mocked ClientMediator client1b,
+                                         @Mocked RoomMediator room1,
+                                         @Mocked ScheduledExecutorService scheduler) {
+
+        new Expectations() {{
+            client1.getUserId(); result = "client1";
+            client1a.getUserId(); result = "client1";
+            client1b.getUserId(); result = "client1";
+
+            room1.getId(); result = roomId;
+            room1.getName(); result = roomName;
+            room1.getFullName(); result = roomFullName;
+            room1.listExits(); result = roomExits;
+
+            builder.findMediatorForRoom((ClientMediatorPod) any, roomId); result = room1;
+        }};
+
+        MediatorNexus nexus = new MediatorNexus();
+        nexus.events = events;
+        nexus.setBuilder(builder);
+        nexus.setScheduler(scheduler);
+
+        RoutedMessage m1 = RoutedMessage.createMessage(RoutedMessage.FlowTarget.player, "*", "{\"bookmark\": \"b1\"}");
+        RoutedMessage m2 = RoutedMessage.createMessage(RoutedMessage.FlowTarget.player, "*", "{\"bookmark\": \"b2\"}");
+        MediatorNexus.View view = nexus.getMultiUserView(roomId);
+
+        nexus.join(client1, roomId, "previous");
+        view.sendToClients(m1);
+
+        // connection drops: the player stays in the room for a while
+        nexus.part(client1);
+        assertMapSize("Pod should wait for a reconnect", 1, nexus.clientMap);
+        Assert.assertEquals(1, nexus.roomPopulation(roomId));
+
+        view.sendToClients(m2);
+
+        // reconnect with the last bookmark seen: only the gap is sent
+        nexus.join(client1a, roomId, "b1");
+
+        new Verifications() {{
+            room1.join((UserView) any); times = 1;
+            room1.hello((UserView) any); times = 0;
+            room1.part((UserView) any); times = 0;
+            scheduler.schedule((Runnable) any, nexus.resumeWindow, TimeUnit.SECONDS); times = 1;
+
+            client1.deliver(m1); times = 1;
+            client1a.setRoomMediator(room1, false); times = 1;
+            client1a.sendToClient(m1); times = 0;
+            client1a.sendToClient(m2); times = 1;
+        }};
+
+        // a bookmark we don't have: leave, and join again from scratch
+        nexus.part(client1a);
+        nexus.join(client1b, roomId, "unknown");
+
+        new Verifications() {{
+            room1.part((UserView) any); times = 1;
+            room1.join((UserView) any); times = 2;
+            client1b.sendToClient(m2); times = 0;
+        }};
+    }
+
+    @Test
+    public void testResumeFromRemoteRoom(@Mocked ClientMediator client1,
+                                         @Mocked ClientMediator client1a,
+                                         @Mocked ClientMediator client1b,
+                                         @Mocked RoomMediator room1,
+                                         @Mocked ScheduledExecutorService scheduler) {
+
+        new Expectations() {{
+            client1.getUserId(); result = "client1";
+            client1a.getUserId(); result = "client1";
+            client1b.getUserId(); result = "client1";
+
+            room1.getId(); result = roomId;
+            room1.getName(); result = roomName;
+            room1.getFullName(); result = roomFullName;
+            room1.listExits(); result = roomExits;
+
+            builder.findMediatorForRoom((ClientMediatorPod) any, roomId); result = room1;
+        }};
+
+        MediatorNexus nexus = new MediatorNexus();
+        nexus.events = events;
+        nexus.setBuilder(builder);
+        nexus.setScheduler(scheduler);
+
+        RoutedMessage m1 = RoutedMessage.createMessage(RoutedMessage.FlowTarget.player, "client1", "{\"bookmark\": \"b1\"}");
+        RoutedMessage m2 = RoutedMessage.createMessage(RoutedMessage.FlowTarget.player, "*", "{\"bookmark\": \"b2\"}");
+        RoutedMessage location = RoutedMessage.createMessage(RoutedMessage.FlowTarget.playerLocation, "client1", "{\"exitId\": \"N\"}");
+
+        nexus.join(client1, roomId, "previous");
+
+        // a remote room talks to the player's pod only
+        MediatorNexus.View view = nexus.getSingleUserView(roomId, nexus.clientMap.get("client1"));
+        view.sendToClients(m1);
+
+        // connection drops: the room connection is kept, and messages are recorded
+        nexus.part(client1);
+        Assert.assertTrue("Room connection should be kept during the grace period", view.stillConnected());
+        view.sendToClients(m2);
+
+        nexus.join(client1a, roomId, "b1");
+
+        new Verifications() {{
+            room1.join((UserView) any); times = 1;
+            room1.part((UserView) any); times = 0;
+
+            client1.deliver(m1); times = 1;
+            client1a.sendToClient(m1); times = 0;
+            client1a.sendToClient(m2); times = 1;
+        }};
+
+        // the room sends the player elsewhere while it is away: don't resume here
+        nexus.part(client1a);
+        view.sendToClients(location);
+        nexus.join(client1b, roomId, "b2");
+
+        new Verifications() {{
+            room1.part((UserView) any); times = 1;
+            room1.join((UserView) any); times = 2;
+            client1b.sendToClient(m2); times = 0;
+        }};
+    }
+
     void assertMapSize(String prefix, int size, Map<?, ?> map) {
         Assert.assertEquals(prefix + ": " + map, size, map.size());
     }
@@ -0,0 +1,46 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import org.gameontext.mediator.MessageTrace.Direction;
+import org.gameontext.mediator.RoutedMessage.FlowTarget;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MessageTraceTest {
+
+    @Test
+    public void testDisabled() {
+        MessageTrace.DISABLED.record(Direction.TO_CLIENT, RoutedMessage.createMessage(FlowTarget.player, "*", "{}"));
+        Assert.assertEquals(0, MessageTrace.DISABLED.capacity());
+        Assert.assertEquals("", MessageTrace.DISABLED.toString());
+    }
+
+    @Test
+    public void testKeepsMostRecent() {
+        MessageTrace trace = new MessageTrace(3);
+        Assert.assertEquals(4, trace.capacity());
+
+        for ( int i = 0; i < 6; i++ ) {
+            trace.record(Direction.FROM_CLIENT, RoutedMessage.createMessage(FlowTarget.room, "room" + i, "{}"));
+        }
+
+        String[] lines = trace.toString().trim().split("\n");
+        Assert.assertEquals(4, lines.length);
+        Assert.assertTrue(lines[0], lines[0].endsWith("C -> M room,room2 (" + "room,room2,{}".length() + ")"));
+        Assert.assertTrue(lines[3], lines[3].endsWith("C -> M room,room5 (" + "room,room5,{}".length() + ")"));
+    }
+}
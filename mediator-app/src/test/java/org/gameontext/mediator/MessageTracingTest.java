@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import org.gameontext.mediator.RoutedMessage.FlowTarget;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import io.opentracing.Tracer;
+import mockit.Expectations;
+import mockit.Mocked;
+import mockit.Verifications;
+import mockit.integration.junit4.JMockit;
+
+@RunWith(JMockit.class)
+public class MessageTracingTest {
+
+    @Test
+    public void testNoTracer() {
+        MessageTracing tracing = new MessageTracing();
+        RoutedMessage message = RoutedMessage.createMessage(FlowTarget.room, "roomId", "{}");
+        Runnable work = () -> {};
+
+        Assert.assertNull(tracing.start("test", message, "userId"));
+        Assert.assertNull(message.getSpanContext());
+        Assert.assertNull(tracing.startWrite(message, System.nanoTime(), "roomId"));
+        Assert.assertSame(work, tracing.wrap("test", work));
+    }
+
+    @Test
+    public void testSampledMessageCarriesContext(@Mocked Tracer tracer) {
+        MessageTracing tracing = new MessageTracing();
+        tracing.tracer = tracer;
+        tracing.sampleRate = 1;
+
+        RoutedMessage message = RoutedMessage.createMessage(FlowTarget.room, "roomId", "{}");
+        Assert.assertNotNull(tracing.start("test", message, "userId"));
+        Assert.assertNotNull(message.getSpanContext());
+
+        // downstream spans only for traced messages
+        Assert.assertNotNull(tracing.startWrite(message, System.nanoTime(), "roomId"));
+        RoutedMessage untraced = RoutedMessage.createMessage(FlowTarget.room, "roomId", "{}");
+        Assert.assertNull(tracing.startWrite(untraced, System.nanoTime(), "roomId"));
+    }
+
+    @Test
+    public void testSamplingOff(@Mocked Tracer tracer) {
+        MessageTracing tracing = new MessageTracing();
+        tracing.tracer = tracer;
+        tracing.sampleRate = 0;
+
+        RoutedMessage message = RoutedMessage.createMessage(FlowTarget.room, "roomId", "{}");
+        Assert.assertNull(tracing.start("test", message, "userId"));
+
+        new Verifications() {{
+            tracer.buildSpan(anyString); times = 0;
+        }};
+    }
+
+    @Test
+    public void testClientSpanOnlyInsideTracedMessage(@Mocked Tracer tracer) {
+        MessageTracing tracing = new MessageTracing();
+        Assert.assertNull(tracing.startClient("GET", "http://map/sites", null));
+
+        tracing.tracer = tracer;
+        new Expectations() {{
+            tracer.activeSpan(); result = null;
+        }};
+        Assert.assertNull(tracing.startClient("GET", "http://map/sites", null));
+
+        new Verifications() {{
+            tracer.buildSpan(anyString); times = 0;
+        }};
+    }
+}
@@ -0,0 +1,70 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class NodeDrainTest {
+
+    @Test
+    public void testBatches() {
+        NodeDrain drain = new NodeDrain();
+        drain.drainMonitor = new DrainMonitor();
+        drain.nexus = new MediatorNexus();
+        drain.batchSize = 2;
+        drain.batchInterval = 0;
+        drain.flushWait = 0;
+
+        for ( int i = 0; i < 5; i++ ) {
+            drain.drainMonitor.watch(new WSDrain("user" + i, null));
+        }
+        Assert.assertEquals(2, drain.nextBatch().size());
+        Assert.assertFalse(drain.isDraining());
+
+        drain.shutdown();
+
+        Assert.assertTrue(drain.isDraining());
+        Assert.assertTrue(drain.nexus.draining);
+        Assert.assertEquals(0, drain.done.getCount());
+        Assert.assertEquals(5, drain.closed.get());
+        Assert.assertTrue(drain.drainMonitor.drains.isEmpty());
+
+        // only once
+        Assert.assertFalse(drain.start());
+    }
+
+    @Test
+    public void testAwaitRooms() throws InterruptedException {
+        NodeDrain drain = new NodeDrain();
+        drain.drainMonitor = new DrainMonitor();
+
+        // never stopped: the wait is bounded
+        WSDrain room = new WSDrain("room");
+        drain.drainMonitor.watchRoom(room);
+
+        long start = System.nanoTime();
+        drain.awaitRooms(start + TimeUnit.MILLISECONDS.toNanos(100));
+        Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+        Assert.assertEquals(1, drain.drainMonitor.openRoomDrains());
+
+        room.stop();
+        drain.awaitRooms(System.nanoTime() + TimeUnit.SECONDS.toNanos(10));
+        Assert.assertEquals(0, drain.drainMonitor.openRoomDrains());
+    }
+}
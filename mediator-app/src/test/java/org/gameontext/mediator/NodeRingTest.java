@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class NodeRingTest {
+
+    @Test
+    public void testNoRing() {
+        NodeRing ring = new NodeRing();
+        ring.self = "mediator-0";
+        ring.setNodes(Arrays.asList("", " "));
+
+        Assert.assertNull(ring.owner("player"));
+        Assert.assertNull(ring.misplaced("player"));
+    }
+
+    @Test
+    public void testSpreadAndStable() {
+        NodeRing ring = new NodeRing();
+        ring.setNodes(Arrays.asList("mediator-0", "mediator-1", "mediator-2"));
+
+        Map<String, String> owners = new HashMap<>();
+        Map<String, Integer> counts = new HashMap<>();
+        for ( int i = 0; i < 3000; i++ ) {
+            String owner = ring.owner("player" + i);
+            owners.put("player" + i, owner);
+            counts.merge(owner, 1, Integer::sum);
+        }
+        Assert.assertEquals(3, counts.size());
+        for ( int c : counts.values() ) {
+            Assert.assertTrue("uneven: " + counts, c > 600 && c < 1400);
+        }
+
+        // order of the member list doesn't matter
+        ring.setNodes(Arrays.asList("mediator-2", "mediator-0", "mediator-1"));
+        Assert.assertEquals(owners.get("player42"), ring.owner("player42"));
+
+        // a new node only takes players, it doesn't shuffle the others
+        ring.setNodes(Arrays.asList("mediator-0", "mediator-1", "mediator-2", "mediator-3"));
+        int moved = 0;
+        for ( Map.Entry<String, String> e : owners.entrySet() ) {
+            String owner = ring.owner(e.getKey());
+            if ( !owner.equals(e.getValue()) ) {
+                Assert.assertEquals("mediator-3", owner);
+                moved++;
+            }
+        }
+        Assert.assertTrue("moved " + moved, moved > 400 && moved < 1200);
+    }
+
+    @Test
+    public void testMisplaced() {
+        NodeRing ring = new NodeRing();
+        ring.self = "mediator-0";
+        ring.setNodes(Arrays.asList("mediator-0", "mediator-1"));
+
+        String mine = null;
+        String theirs = null;
+        for ( int i = 0; mine == null || theirs == null; i++ ) {
+            String userId = "player" + i;
+            if ( "mediator-0".equals(ring.owner(userId)) ) {
+                mine = userId;
+            } else {
+                theirs = userId;
+            }
+        }
+
+        Assert.assertNull(ring.misplaced(mine));
+        Assert.assertEquals("mediator-1", ring.misplaced(theirs));
+        Assert.assertEquals(1, ring.misses.sum());
+
+        ring.affinity = NodeRing.Affinity.OFF;
+        Assert.assertNull(ring.misplaced(theirs));
+
+        // not a member of the ring: can't be in the wrong place
+        ring.affinity = NodeRing.Affinity.HINT;
+        ring.self = "mediator-9";
+        Assert.assertNull(ring.misplaced(theirs));
+    }
+}
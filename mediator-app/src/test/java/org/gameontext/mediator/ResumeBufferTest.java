@@ -0,0 +1,72 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.util.List;
+
+import org.gameontext.mediator.RoutedMessage.FlowTarget;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ResumeBufferTest {
+
+    static RoutedMessage message(String bookmark) {
+        return RoutedMessage.createMessage(FlowTarget.player, "*", "{\"bookmark\": \"" + bookmark + "\"}");
+    }
+
+    @Test
+    public void testDisabled() {
+        ResumeBuffer.DISABLED.record(message("b1"));
+        Assert.assertEquals(0, ResumeBuffer.DISABLED.capacity());
+        Assert.assertNull(ResumeBuffer.DISABLED.since("b1"));
+    }
+
+    @Test
+    public void testGap() {
+        ResumeBuffer buffer = new ResumeBuffer(4);
+        RoutedMessage b1 = message("b1");
+        RoutedMessage b2 = message("b2");
+        RoutedMessage b3 = message("b3");
+        buffer.record(b1);
+        buffer.record(RoutedMessage.createMessage(FlowTarget.ack, "*", "{}"));
+        buffer.record(b2);
+        buffer.record(b3);
+
+        List<RoutedMessage> gap = buffer.since("b1");
+        Assert.assertEquals(2, gap.size());
+        Assert.assertSame(b2, gap.get(0));
+        Assert.assertSame(b3, gap.get(1));
+
+        Assert.assertTrue("up to date", buffer.since("b3").isEmpty());
+        Assert.assertNull("unknown bookmark", buffer.since("b9"));
+        Assert.assertNull("no bookmark", buffer.since(""));
+        Assert.assertNull("no bookmark", buffer.since(null));
+    }
+
+    @Test
+    public void testKeepsMostRecent() {
+        ResumeBuffer buffer = new ResumeBuffer(3);
+        for ( int i = 0; i < 5; i++ ) {
+            buffer.record(message("b" + i));
+        }
+
+        Assert.assertNull("evicted", buffer.since("b1"));
+        Assert.assertEquals(2, buffer.since("b2").size());
+
+        buffer.clear();
+        Assert.assertNull("cleared", buffer.since("b4"));
+    }
+}
@@ -0,0 +1,116 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.json.JsonObject;
+
+import org.gameontext.mediator.RoutedMessage.FlowTarget;
+import org.gameontext.mediator.room.RoomMediator.Type;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RoomMetricsTest {
+
+    @Test
+    public void testTopRoomsAndOther() {
+        Map<String, Integer> pods = new HashMap<>();
+        pods.put("busy", 3);
+        pods.put("quiet", 2);
+        pods.put("lonely", 1);
+
+        RoomMetrics metrics = new RoomMetrics();
+        metrics.topK = 2;
+        metrics.setPopulation(roomId -> pods.getOrDefault(roomId, 0));
+
+        RoutedMessage message = RoutedMessage.createMessage(FlowTarget.player, "*", "{}");
+        for ( String roomId : pods.keySet() ) {
+            metrics.received(roomId, message);
+            metrics.sent(roomId, message);
+        }
+        metrics.reconnect("lonely");
+        metrics.connectFailed("lonely");
+        metrics.delegate("busy", Type.REMOTE);
+
+        metrics.rank();
+
+        Assert.assertEquals(1, metrics.other.pods);
+        Assert.assertEquals(1, metrics.other.messagesIn);
+        Assert.assertEquals(message.toString().getBytes(StandardCharsets.UTF_8).length, metrics.other.bytesOut);
+        Assert.assertEquals(1, metrics.other.reconnects);
+        Assert.assertEquals(1, metrics.other.sickAttempts);
+
+        JsonObject json = metrics.toJson();
+        Assert.assertEquals(3, json.getJsonArray("rooms").size());
+
+        JsonObject first = json.getJsonArray("rooms").getJsonObject(0);
+        Assert.assertEquals("busy", first.getString("id"));
+        Assert.assertEquals("REMOTE", first.getString("delegate"));
+        Assert.assertEquals(3, first.getInt("pods"));
+    }
+
+    @Test
+    public void testIdleRoomsForgotten() {
+        RoomMetrics metrics = new RoomMetrics();
+        metrics.received("room", RoutedMessage.createMessage(FlowTarget.player, "*", "{}"));
+
+        metrics.rank();
+        Assert.assertTrue(metrics.rooms.containsKey("room"));
+
+        for ( int i = 0; i < RoomMetrics.IDLE_INTERVALS; i++ ) {
+            metrics.rank();
+        }
+        Assert.assertFalse(metrics.rooms.containsKey("room"));
+    }
+
+    @Test
+    public void testIntervalValues() {
+        RoomMetrics metrics = new RoomMetrics();
+        metrics.reconnect("room");
+        metrics.rank();
+        Assert.assertEquals(1, metrics.rooms.get("room").last.reconnectsInterval);
+
+        // totals keep growing, but the gauges only see the last interval
+        metrics.reconnect("room");
+        metrics.connectFailed("room");
+        metrics.rank();
+        RoomMetrics.Snapshot s = metrics.rooms.get("room").last;
+        Assert.assertEquals(2, s.reconnects);
+        Assert.assertEquals(1, s.reconnectsInterval);
+        Assert.assertEquals(1, s.sickAttemptsInterval);
+
+        metrics.rank();
+        s = metrics.rooms.get("room").last;
+        Assert.assertEquals(2, s.reconnects);
+        Assert.assertEquals(0, s.reconnectsInterval);
+        Assert.assertEquals(0, s.sickAttemptsInterval);
+    }
+
+    @Test
+    public void testMetricName() {
+        Assert.assertEquals("abc_123", RoomMetrics.metricName("abc-123"));
+    }
+
+    @Test
+    public void testUtf8Length() {
+        for ( String text : new String[] { "", "plain", "caf\u00e9", "\u20ac5", "\ud83d\ude00!" } ) {
+            Assert.assertEquals(text, text.getBytes(StandardCharsets.UTF_8).length, RoomMetrics.utf8Length(text));
+        }
+    }
+}
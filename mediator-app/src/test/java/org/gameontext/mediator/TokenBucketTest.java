@@ -0,0 +1,61 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TokenBucketTest {
+
+    @Test
+    public void testBurst() {
+        TokenBucket bucket = new TokenBucket(10, 5);
+        long now = System.nanoTime();
+
+        for (int i = 0; i < 5; i++) {
+            Assert.assertTrue("Request " + i + " should be allowed", bucket.tryAcquire(now));
+        }
+        Assert.assertFalse("Request past the burst should be refused", bucket.tryAcquire(now));
+        Assert.assertEquals(1, bucket.getRejected());
+    }
+
+    @Test
+    public void testRefill() {
+        TokenBucket bucket = new TokenBucket(10, 1);
+        long now = System.nanoTime();
+
+        Assert.assertTrue(bucket.tryAcquire(now));
+        Assert.assertFalse(bucket.tryAcquire(now));
+
+        // 10/second: one token every 100ms
+        now += TimeUnit.MILLISECONDS.toNanos(100);
+        Assert.assertTrue(bucket.tryAcquire(now));
+        Assert.assertFalse(bucket.tryAcquire(now));
+    }
+
+    @Test
+    public void testUnlimited() {
+        TokenBucket bucket = new TokenBucket(0, 0);
+        long now = System.nanoTime();
+
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertTrue(bucket.tryAcquire(now));
+        }
+        Assert.assertEquals(0, bucket.getRejected());
+    }
+}
@@ -0,0 +1,186 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.websocket.RemoteEndpoint;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+
+import org.gameontext.mediator.RoutedMessage.FlowTarget;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WSDrainTest {
+
+    ScheduledExecutorService executor;
+    ScheduledExecutorService container;
+
+    final List<Object> written = Collections.synchronizedList(new ArrayList<>());
+    final AtomicInteger inFlight = new AtomicInteger();
+    final AtomicBoolean overlapped = new AtomicBoolean();
+    final AtomicBoolean closed = new AtomicBoolean();
+
+    /** false: writes never complete */
+    volatile boolean complete = true;
+
+    @Before
+    public void before() {
+        executor = Executors.newScheduledThreadPool(2);
+        container = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @After
+    public void after() {
+        executor.shutdownNow();
+        container.shutdownNow();
+    }
+
+    @Test
+    public void testWritesInOrder() throws InterruptedException {
+        WSDrain drain = drain();
+        drain.start(session());
+
+        List<RoutedMessage> sent = new ArrayList<>();
+        for ( int i = 0; i < 100; i++ ) {
+            RoutedMessage m = RoutedMessage.createMessage(FlowTarget.player, "user", "{\"n\":" + i + "}");
+            sent.add(m);
+            drain.send(m);
+        }
+
+        awaitWritten(100);
+        Assert.assertEquals(sent, written);
+        Assert.assertFalse("one write at a time", overlapped.get());
+        Assert.assertEquals(0, drain.queueDepth());
+        Assert.assertFalse(drain.isStopped());
+    }
+
+    @Test
+    public void testQueuedBeforeStart() throws InterruptedException {
+        WSDrain drain = drain();
+        RoutedMessage hello = RoutedMessage.createMessage(FlowTarget.roomHello, "room", "{}");
+        drain.send(hello);
+        Assert.assertEquals(1, drain.queueDepth());
+
+        drain.start(session());
+        awaitWritten(1);
+        Assert.assertEquals(hello, written.get(0));
+    }
+
+    @Test
+    public void testFinishWritesQueued() throws InterruptedException {
+        RoutedMessage part = RoutedMessage.createMessage(FlowTarget.roomPart, "room", "{}");
+        RoutedMessage late = RoutedMessage.createMessage(FlowTarget.room, "room", "{}");
+
+        WSDrain drain = drain();
+        drain.send(part);
+        drain.finish(); // not started: nothing to wait for
+        Assert.assertTrue(drain.isStopped());
+
+        drain = drain();
+        drain.start(session());
+        drain.send(part);
+        drain.finish();
+        drain.send(late);
+
+        drain.awaitFinished();
+        Assert.assertTrue(drain.isStopped());
+        Assert.assertEquals(Collections.singletonList(part), written);
+        Assert.assertTrue(closed.get());
+    }
+
+    @Test
+    public void testFinishIsBounded() {
+        complete = false;
+
+        WSDrain drain = drain();
+        drain.setFlushTimeout(50);
+        drain.start(session());
+        drain.send(RoutedMessage.createMessage(FlowTarget.roomPart, "room", "{}"));
+        drain.finish();
+
+        // the part is never written: give up after the flush timeout
+        long start = System.nanoTime();
+        drain.awaitFinished();
+        Assert.assertTrue(drain.isStopped());
+        Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+        Assert.assertTrue(closed.get());
+    }
+
+    WSDrain drain() {
+        WSDrain drain = new WSDrain("room");
+        drain.setExecutor(executor);
+        return drain;
+    }
+
+    void awaitWritten(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while ( written.size() < count && System.nanoTime() - deadline < 0 ) {
+            Thread.sleep(1);
+        }
+    }
+
+    /** An open session that completes writes on another thread, as the container would */
+    Session session() {
+        RemoteEndpoint.Async async = (RemoteEndpoint.Async) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { RemoteEndpoint.Async.class },
+                (proxy, method, args) -> {
+                    if ( "sendObject".equals(method.getName()) ) {
+                        if ( inFlight.incrementAndGet() > 1 ) {
+                            overlapped.set(true);
+                        }
+                        if ( complete ) {
+                            container.execute(() -> {
+                                written.add(args[0]);
+                                inFlight.decrementAndGet();
+                                ((SendHandler) args[1]).onResult(new SendResult());
+                            });
+                        }
+                    }
+                    return null;
+                });
+
+        return (Session) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { Session.class },
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "isOpen" :
+                            return !closed.get();
+                        case "getAsyncRemote" :
+                            return async;
+                        case "close" :
+                            closed.set(true);
+                            return null;
+                        case "getId" :
+                            return "test";
+                        default :
+                            return null;
+                    }
+                });
+    }
+}
@@ -17,6 +17,7 @@ package org.gameontext.mediator.events;
 
 import org.gameontext.mediator.events.MediatorEvents.PlayerEventHandler;
 import org.gameontext.mediator.kafka.GameOnEvent;
+import org.gameontext.mediator.kafka.KafkaCDIBridge;
 import org.gameontext.mediator.kafka.KafkaRxJavaObservable;
 import org.junit.Test;
 
@@ -34,6 +35,7 @@ public class MediatorEventsTestViaMock {
     @SuppressWarnings("unchecked")
     @Test
     public void TestEvents(@Mocked KafkaRxJavaObservable kafkarx, 
+            @Mocked KafkaCDIBridge bridge,
             @Mocked Subscription subscription, 
             @Mocked Observable<GameOnEvent> observable, 
             @Mocked PlayerEventHandler peh){
@@ -41,6 +43,7 @@ public class MediatorEventsTestViaMock {
         MediatorEvents events = new MediatorEvents();
         
         Deencapsulation.setField(events, "kafka", kafkarx);
+        Deencapsulation.setField(events, "bridge", bridge);
         
         new Expectations(){{ 
             kafkarx.consume(); result = observable;
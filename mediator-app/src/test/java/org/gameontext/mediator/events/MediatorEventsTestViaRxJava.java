@@ -17,6 +17,7 @@ package org.gameontext.mediator.events;
 
 import org.gameontext.mediator.events.MediatorEvents.PlayerEventHandler;
 import org.gameontext.mediator.kafka.GameOnEvent;
+import org.gameontext.mediator.kafka.KafkaCDIBridge;
 import org.gameontext.mediator.kafka.KafkaRxJavaObservable;
 import org.junit.Test;
 
@@ -32,6 +33,7 @@ public class MediatorEventsTestViaRxJava {
 
     @Test
     public void TestMediatorEvents(@Mocked KafkaRxJavaObservable kafkarx,
+                                   @Mocked KafkaCDIBridge bridge,
                                    @Mocked PlayerEventHandler peh){
         MediatorEvents events = new MediatorEvents();
         
@@ -59,6 +61,7 @@ public class MediatorEventsTestViaRxJava {
         Observable<GameOnEvent> observable = Observable.just(event1,event2,event3,event4);
         
         Deencapsulation.setField(events, "kafka", kafkarx);
+        Deencapsulation.setField(events, "bridge", bridge);
         
         new Expectations(){{ 
             kafkarx.consume(); result = observable;
@@ -16,9 +16,14 @@
 package org.gameontext.mediator.kafka;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
@@ -29,6 +34,8 @@ import javax.enterprise.inject.spi.CDI;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndTimestamp;
+import org.apache.kafka.common.PartitionInfo;
 import org.apache.kafka.common.TopicPartition;
 import org.junit.Assert;
 import org.junit.Test;
@@ -54,6 +61,7 @@ public class CDIBridgeTest {
         
         Deencapsulation.setField(kcdib,"consumer",consumer);
         Deencapsulation.setField(kcdib,"executor",executor);
+        Deencapsulation.setField(kcdib,"hostedPartitions",false);
         
         Map<TopicPartition, List<ConsumerRecord<String,String>>> data = new HashMap<>();
         List<ConsumerRecord<String,String>> records = new ArrayList<>();
@@ -125,6 +133,128 @@ public class CDIBridgeTest {
         kcdib.destroy(null);
         
     }
-    
-}
 
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    @Test
+    public void testHostedPartitions(@Mocked ManagedScheduledExecutorService executor,
+            @Mocked KafkaConsumer<String,String> consumer,
+            @Mocked ScheduledFuture future, @Mocked PartitionInfo partition) {
+
+        KafkaCDIBridge kcdib = new KafkaCDIBridge();
+
+        Deencapsulation.setField(kcdib,"consumer",consumer);
+        Deencapsulation.setField(kcdib,"executor",executor);
+
+        List<PartitionInfo> partitions = new ArrayList<>();
+        for ( int i = 0; i < 10; i++ ) {
+            partitions.add(partition);
+        }
+
+        new Expectations() {{
+            executor.scheduleWithFixedDelay((Runnable) any,anyLong,anyLong,(TimeUnit)any); result = future;
+            consumer.partitionsFor(anyString); result = partitions;
+        }};
+
+        kcdib.init(null);
+        kcdib.hostPlayer("stilettos");
+        kcdib.hostPlayer("wedge");
+        kcdib.hostPlayer("wedge");
+        kcdib.releasePlayer("wedge");
+
+        List<Runnable> polls = new ArrayList<>();
+        new Verifications() {{
+            consumer.subscribe((List<String>)any); times = 0;
+            executor.scheduleWithFixedDelay(withCapture(polls), anyLong, anyLong, (TimeUnit)any);
+        }};
+
+        polls.get(0).run();
+
+        new Verifications() {{
+            Collection<TopicPartition> assigned;
+            consumer.assign(assigned = withCapture());
+
+            // all partitions of the other topics, only the hosted players' partitions of playerEvents
+            Assert.assertTrue(assigned.contains(new TopicPartition("playerEvents", 9)));
+            Assert.assertTrue(assigned.contains(new TopicPartition("playerEvents", 5)));
+            Assert.assertFalse(assigned.contains(new TopicPartition("playerEvents", 2)));
+        }};
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    @Test
+    public void testNewPlayerPartitionCatchesUp(@Mocked ManagedScheduledExecutorService executor,
+            @Mocked KafkaConsumer<String,String> consumer,
+            @Mocked ScheduledFuture future, @Mocked PartitionInfo partition) {
+
+        KafkaCDIBridge kcdib = new KafkaCDIBridge();
+
+        Deencapsulation.setField(kcdib,"consumer",consumer);
+        Deencapsulation.setField(kcdib,"executor",executor);
+
+        List<PartitionInfo> partitions = new ArrayList<>();
+        for ( int i = 0; i < 10; i++ ) {
+            partitions.add(partition);
+        }
+        TopicPartition stilettos = new TopicPartition("playerEvents", 9);
+
+        Map<TopicPartition, OffsetAndTimestamp> found = new HashMap<>();
+        found.put(stilettos, new OffsetAndTimestamp(42, 0));
+
+        new Expectations() {{
+            executor.scheduleWithFixedDelay((Runnable) any,anyLong,anyLong,(TimeUnit)any); result = future;
+            consumer.partitionsFor(anyString); result = partitions;
+            consumer.assignment(); result = Collections.emptySet();
+            consumer.offsetsForTimes((Map<TopicPartition, Long>) any); result = found;
+        }};
+
+        kcdib.init(null);
+        long before = System.currentTimeMillis();
+        kcdib.hostPlayer("stilettos");
+
+        List<Runnable> polls = new ArrayList<>();
+        new Verifications() {{
+            executor.scheduleWithFixedDelay(withCapture(polls), anyLong, anyLong, (TimeUnit)any);
+        }};
+        polls.get(0).run();
+
+        // events written after the player arrived, before the partition was assigned, are read
+        new Verifications() {{
+            Map<TopicPartition, Long> times;
+            consumer.offsetsForTimes(times = withCapture());
+            Assert.assertEquals(1, times.size());
+            Assert.assertTrue(times.get(stilettos) >= before);
+
+            consumer.seek(stilettos, 42); times = 1;
+        }};
+    }
+
+    @Test
+    public void testArrivals() {
+        Map<String, Long> arrived = new HashMap<>();
+        arrived.put("stilettos", 200L);
+        arrived.put("wedge", 100L);
+
+        // only partitions that weren't assigned already
+        Set<TopicPartition> current = new HashSet<>();
+        current.add(new TopicPartition("playerEvents", 5));
+        Map<TopicPartition, Long> times = KafkaCDIBridge.arrivals(arrived, 10, current);
+        Assert.assertEquals(1, times.size());
+        Assert.assertEquals(Long.valueOf(200), times.get(new TopicPartition("playerEvents", 9)));
+
+        // players sharing a partition: the earliest arrival wins
+        times = KafkaCDIBridge.arrivals(arrived, 1, null);
+        Assert.assertEquals(Long.valueOf(100), times.get(new TopicPartition("playerEvents", 0)));
+    }
+
+    @Test
+    public void testPartitionMatchesProducer() {
+        // same as Kafka's default partitioner (murmur2 of the UTF-8 key)
+        Assert.assertEquals(9, KafkaCDIBridge.partition("stilettos", 10));
+        Assert.assertEquals(5, KafkaCDIBridge.partition("wedge", 10));
+        Assert.assertEquals(2, KafkaCDIBridge.partition("Bubbles999", 10));
+        Assert.assertEquals(0, KafkaCDIBridge.partition("Bubbles999", 3));
+
+        Set<TopicPartition> all = KafkaCDIBridge.playerPartitions(Arrays.asList("stilettos", "wedge", "Bubbles999"), 1);
+        Assert.assertEquals(1, all.size());
+    }
+}
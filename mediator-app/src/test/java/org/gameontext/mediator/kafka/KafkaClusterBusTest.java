@@ -0,0 +1,56 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator.kafka;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.gameontext.mediator.RoutedMessage;
+import org.gameontext.mediator.RoutedMessage.FlowTarget;
+import org.gameontext.mediator.room.RoomMediator;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class KafkaClusterBusTest {
+
+    @Test
+    public void testReceiveFromOtherNodes() {
+        KafkaClusterBus bus = new KafkaClusterBus();
+        List<String> received = new ArrayList<>();
+        bus.setReceiver((roomId, type, message) -> received.add(roomId + " " + type + " " + message));
+
+        RoutedMessage message = RoutedMessage.createMessage(FlowTarget.player, "*", "{\"type\":\"chat\"}");
+
+        // our own broadcasts come back: ignore them
+        bus.consume("firstroom", KafkaClusterBus.encode(bus.origin, 1, null, message));
+        Assert.assertTrue(received.isEmpty());
+
+        bus.consume("firstroom", KafkaClusterBus.encode("other", 1, null, message));
+        bus.consume("sickroom", KafkaClusterBus.encode("other", 2, RoomMediator.Type.SICK, message));
+        Assert.assertEquals(2, received.size());
+        Assert.assertEquals("firstroom null " + message, received.get(0));
+        Assert.assertEquals("sickroom SICK " + message, received.get(1));
+
+        // redelivered
+        bus.consume("firstroom", KafkaClusterBus.encode("other", 1, null, message));
+        Assert.assertEquals(2, received.size());
+        Assert.assertEquals(1, bus.duplicates.sum());
+
+        // garbage is dropped
+        bus.consume("firstroom", "nonsense");
+        Assert.assertEquals(2, received.size());
+    }
+}
@@ -0,0 +1,56 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator.room;
+
+import org.gameontext.mediator.models.Site;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LocalRoomsTest {
+
+    static final String roomId = "roomId";
+
+    @Test
+    public void testEmptyRoomShared() {
+        LocalRooms rooms = new LocalRooms();
+        Site site = new Site(roomId);
+
+        RoomMediator first = rooms.empty(site, id -> new EmptyRoom(null, site, null, null));
+        RoomMediator second = rooms.empty(site, id -> new EmptyRoom(null, site, null, null));
+        Assert.assertSame(first, second);
+        Assert.assertEquals(RoomMediator.Type.EMPTY, first.getType());
+
+        // different type, different delegate
+        RoomMediator unknown = rooms.unknown(roomId, id -> new UnknownRoom(null, id, null));
+        Assert.assertNotSame(first, unknown);
+        Assert.assertSame(unknown, rooms.unknown(roomId, id -> new UnknownRoom(null, id, null)));
+        Assert.assertEquals(2, rooms.size());
+    }
+
+    @Test
+    public void testEvict() {
+        LocalRooms rooms = new LocalRooms();
+        Site site = new Site(roomId);
+
+        RoomMediator first = rooms.empty(site, id -> new EmptyRoom(null, site, null, null));
+        rooms.unknown(roomId, id -> new UnknownRoom(null, id, null));
+        rooms.evict(roomId);
+        Assert.assertEquals(0, rooms.size());
+
+        RoomMediator second = rooms.empty(site, id -> new EmptyRoom(null, site, null, null));
+        Assert.assertNotSame(first, second);
+    }
+}
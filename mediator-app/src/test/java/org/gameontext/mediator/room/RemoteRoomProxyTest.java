@@ -0,0 +1,180 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator.room;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.gameontext.mediator.MediatorBuilder;
+import org.gameontext.mediator.MediatorBuilder.UpdateType;
+import org.gameontext.mediator.MediatorNexus.UserView;
+import org.gameontext.mediator.RoutedMessage;
+import org.gameontext.mediator.RoutedMessage.FlowTarget;
+import org.gameontext.mediator.room.RoomMediator.Type;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import mockit.Expectations;
+import mockit.Mocked;
+import mockit.Verifications;
+import mockit.VerificationsInOrder;
+import mockit.integration.junit4.JMockit;
+
+@RunWith(JMockit.class)
+public class RemoteRoomProxyTest {
+
+    static final String roomId = "roomId";
+
+    @Mocked MediatorBuilder builder;
+    @Mocked UserView user;
+    @Mocked RoomMediator delegate;
+
+    @Test
+    public void testNeverIdle() {
+        new Expectations() {{
+            builder.createDelegate((RemoteRoomProxy) any, user, roomId); result = delegate;
+            builder.getRoomIdleTimeout(); result = 0;
+        }};
+
+        RemoteRoomProxy proxy = new RemoteRoomProxy(builder, user, roomId);
+        Assert.assertFalse(proxy.isIdle(System.nanoTime() + TimeUnit.DAYS.toNanos(1)));
+    }
+
+    @Test
+    public void testHibernateAndWake() {
+        new Expectations() {{
+            builder.createDelegate((RemoteRoomProxy) any, user, roomId); result = delegate;
+            builder.getRoomIdleTimeout(); result = 60;
+            delegate.getType(); result = Type.REMOTE;
+        }};
+
+        RemoteRoomProxy proxy = new RemoteRoomProxy(builder, user, roomId);
+        long now = System.nanoTime();
+        Assert.assertFalse(proxy.isIdle(now));
+        Assert.assertTrue(proxy.isIdle(now + TimeUnit.SECONDS.toNanos(61)));
+
+        proxy.hibernate();
+
+        List<Runnable> queued = new ArrayList<>();
+        new Verifications() {{
+            builder.execute(withCapture(queued)); times = 1;
+        }};
+        proxy.lastActivity = now - TimeUnit.SECONDS.toNanos(61);
+        queued.get(0).run();
+
+        Assert.assertTrue(proxy.hibernating);
+        Assert.assertFalse("already hibernating", proxy.isIdle(now + TimeUnit.SECONDS.toNanos(61)));
+
+        // leaving the room while hibernating: nothing more to say
+        proxy.part(user);
+
+        // the next messages are held while the room reconnects on another thread
+        RoutedMessage first = RoutedMessage.createMessage(FlowTarget.room, roomId, "{\"n\":1}");
+        RoutedMessage second = RoutedMessage.createMessage(FlowTarget.room, roomId, "{\"n\":2}");
+        proxy.sendToRoom(first);
+        proxy.sendToRoom(second);
+        Assert.assertFalse(proxy.hibernating);
+
+        new Verifications() {{
+            builder.updateDelegate(UpdateType.WAKE, proxy, delegate, null, user); times = 0;
+            delegate.sendToRoom((RoutedMessage) any); times = 0;
+        }};
+
+        List<Runnable> wake = new ArrayList<>();
+        new Verifications() {{
+            builder.execute(withCapture(wake)); times = 2;
+        }};
+        wake.get(1).run();
+        Assert.assertNull(proxy.waking);
+
+        new VerificationsInOrder() {{
+            builder.updateDelegate(UpdateType.WAKE, proxy, delegate, null, user); times = 1;
+            delegate.sendToRoom(first);
+            delegate.sendToRoom(second);
+        }};
+        new Verifications() {{
+            delegate.part(user); times = 1;
+        }};
+    }
+
+    @Test
+    public void testWakeAfterPartWritten(@Mocked RemoteRoom remote) {
+        new Expectations() {{
+            builder.createDelegate((RemoteRoomProxy) any, user, roomId); result = remote;
+            builder.getRoomIdleTimeout(); result = 60;
+            remote.getType(); result = Type.REMOTE;
+        }};
+
+        RemoteRoomProxy proxy = new RemoteRoomProxy(builder, user, roomId);
+        proxy.lastActivity = System.nanoTime() - TimeUnit.SECONDS.toNanos(61);
+        proxy.hibernate();
+
+        List<Runnable> queued = new ArrayList<>();
+        new Verifications() {{
+            builder.execute(withCapture(queued)); times = 1;
+        }};
+        queued.get(0).run();
+
+        RoutedMessage message = RoutedMessage.createMessage(FlowTarget.room, roomId, "{}");
+        proxy.sendToRoom(message);
+
+        List<Runnable> wake = new ArrayList<>();
+        new Verifications() {{
+            builder.execute(withCapture(wake)); times = 2;
+        }};
+        wake.get(1).run();
+
+        // the old connection writes its part before the room is joined again
+        new VerificationsInOrder() {{
+            remote.part(user);
+            remote.awaitDisconnected();
+            builder.updateDelegate(UpdateType.WAKE, proxy, remote, null, user);
+            remote.sendToRoom(message);
+        }};
+    }
+
+    @Test
+    public void testActiveBeforeHibernate() {
+        new Expectations() {{
+            builder.createDelegate((RemoteRoomProxy) any, user, roomId); result = delegate;
+            builder.getRoomIdleTimeout(); result = 60;
+            delegate.getType(); result = Type.REMOTE;
+        }};
+
+        RemoteRoomProxy proxy = new RemoteRoomProxy(builder, user, roomId);
+        proxy.lastActivity = System.nanoTime() - TimeUnit.SECONDS.toNanos(61);
+        proxy.hibernate();
+
+        // the player speaks up before the queued hibernate runs
+        RoutedMessage message = RoutedMessage.createMessage(FlowTarget.room, roomId, "{}");
+        proxy.sendToRoom(message);
+
+        List<Runnable> queued = new ArrayList<>();
+        new Verifications() {{
+            builder.execute(withCapture(queued)); times = 1;
+        }};
+        queued.get(0).run();
+
+        Assert.assertFalse(proxy.hibernating);
+        Assert.assertFalse(proxy.updating.get());
+        new Verifications() {{
+            delegate.sendToRoom(message); times = 1;
+            delegate.part(user); times = 0;
+        }};
+    }
+}
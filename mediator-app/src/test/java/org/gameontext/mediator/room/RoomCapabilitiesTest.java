@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator.room;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RoomCapabilitiesTest {
+
+    static final String target = "ws://room.example.com/room";
+
+    @Test
+    public void testUnknownEndpoint() {
+        RoomCapabilities capabilities = new RoomCapabilities();
+
+        Assert.assertEquals(1, capabilities.initialVersion(target));
+        Assert.assertEquals(-1, capabilities.handshakeLatency(target));
+        Assert.assertEquals(1, capabilities.initialVersion(null));
+    }
+
+    @Test
+    public void testRememberedVersion() {
+        RoomCapabilities capabilities = new RoomCapabilities();
+
+        // version is only remembered after a valid handshake
+        capabilities.versionNegotiated(target, 2);
+        Assert.assertEquals(1, capabilities.initialVersion(target));
+
+        capabilities.handshakeComplete(target, true, 1000);
+        capabilities.versionNegotiated(target, 2);
+        Assert.assertEquals(2, capabilities.initialVersion(target));
+        Assert.assertEquals(1000, capabilities.handshakeLatency(target));
+
+        // room downgraded
+        capabilities.versionNegotiated(target, 1);
+        Assert.assertEquals(1, capabilities.initialVersion(target));
+    }
+
+    @Test
+    public void testInvalidHandshakeForgets() {
+        RoomCapabilities capabilities = new RoomCapabilities();
+
+        capabilities.handshakeComplete(target, true, 1000);
+        capabilities.versionNegotiated(target, 2);
+        Assert.assertEquals(2, capabilities.initialVersion(target));
+
+        capabilities.handshakeComplete(target, false, 1000);
+        Assert.assertEquals(1, capabilities.initialVersion(target));
+        Assert.assertEquals(-1, capabilities.handshakeLatency(target));
+    }
+
+    @Test
+    public void testFailedConnectForgets() {
+        RoomCapabilities capabilities = new RoomCapabilities();
+
+        capabilities.handshakeComplete(target, true, 1000);
+        capabilities.versionNegotiated(target, 2);
+
+        capabilities.forget(target);
+        Assert.assertEquals(1, capabilities.initialVersion(target));
+        Assert.assertEquals(-1, capabilities.handshakeLatency(target));
+
+        capabilities.forget(null); // nothing to do
+    }
+}
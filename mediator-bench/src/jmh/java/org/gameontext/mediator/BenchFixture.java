@@ -0,0 +1,187 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.enterprise.concurrent.ManagedScheduledExecutorService;
+import javax.websocket.CloseReason;
+import javax.websocket.Session;
+
+import org.gameontext.mediator.MediatorNexus.ClientMediatorPod;
+import org.gameontext.mediator.events.BenchEvents;
+import org.gameontext.mediator.models.Exits;
+import org.gameontext.mediator.models.RoomInfo;
+import org.gameontext.mediator.models.Site;
+import org.gameontext.mediator.room.EmptyRoom;
+import org.gameontext.mediator.room.RemoteRoomProxy;
+import org.gameontext.mediator.room.RoomMediator;
+
+/**
+ * A nexus wired up with in-memory collaborators: the map and player
+ * services are local, rooms are local (empty) rooms, player events never
+ * arrive, and messages for clients are counted instead of being written
+ * to a websocket.
+ */
+public class BenchFixture {
+
+    /** Writes for all session drains, as the managed executor would */
+    static final ScheduledExecutorService DRAINS = Executors.newScheduledThreadPool(4, r -> {
+        Thread t = new Thread(r, "bench-drain");
+        t.setDaemon(true);
+        return t;
+    });
+
+    final MediatorNexus nexus;
+    final LocalRoomBuilder builder;
+
+    /** Number of messages handed to client drains */
+    final LongAdder delivered = new LongAdder();
+
+    public BenchFixture(Executor executor) {
+        nexus = new MediatorNexus();
+        nexus.events = new BenchEvents();
+        nexus.playerClient = new InMemoryPlayerClient();
+
+        builder = new LocalRoomBuilder();
+        builder.mapClient = new InMemoryMapClient();
+        builder.nexus = nexus;
+        builder.drainMonitor = new DrainMonitor();
+        builder.scheduledExecutor = managed(DRAINS);
+        nexus.setBuilder(builder);
+        nexus.setExecutor(executor);
+    }
+
+    /**
+     * Create a new client session
+     * @param userId
+     * @return new client mediator, not yet in any room
+     */
+    public ClientMediator newClient(String userId) {
+        return new ClientMediator(nexus, new CountingDrain(), userId, null, null);
+    }
+
+    /**
+     * Create a new client session the way the websocket endpoint does:
+     * with its own drain writing to the given session.
+     * @param userId
+     * @param session websocket session for the client
+     * @return new client mediator, not yet in any room
+     */
+    public ClientMediator newSession(String userId, Session session) {
+        return builder.buildClientMediator(userId, session, null, "bench");
+    }
+
+    /**
+     * Add players to a room
+     * @param roomId
+     * @param count number of players (each with one session)
+     */
+    public void populate(String roomId, int count) {
+        for ( int i = 0; i < count; i++ ) {
+            nexus.join(newClient(roomId + "-player" + i), roomId, "bench");
+        }
+    }
+
+    /**
+     * @param executor
+     * @return the executor, as the container's managed executor service
+     */
+    static ManagedScheduledExecutorService managed(ScheduledExecutorService executor) {
+        return (ManagedScheduledExecutorService) Proxy.newProxyInstance(BenchFixture.class.getClassLoader(),
+                new Class<?>[] { ManagedScheduledExecutorService.class },
+                (proxy, method, args) -> {
+                    try {
+                        return method.invoke(executor, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+
+    public static Site site(String roomId) {
+        Site site = new Site(roomId);
+        site.setExits(new Exits());
+        site.setInfo(new RoomInfo());
+        return site;
+    }
+
+    /**
+     * Every room is a local room: no websocket connections. If proxied,
+     * players reach the room through a {@link RemoteRoomProxy}, as they
+     * would for a room registered with the map.
+     */
+    static class LocalRoomBuilder extends MediatorBuilder {
+        boolean proxied = false;
+
+        @Override
+        public RoomMediator findMediatorForRoom(ClientMediatorPod pod, String roomId) {
+            if ( proxied ) {
+                return super.findMediatorForRoom(pod, roomId);
+            }
+            Site site = mapClient.getSite(roomId);
+            return new EmptyRoom(mapClient, site, null, nexus.getMultiUserView(roomId));
+        }
+    }
+
+    /** Every room exists, and is remembered once asked about */
+    static class InMemoryMapClient extends MapClient {
+        final ConcurrentHashMap<String, Site> sites = new ConcurrentHashMap<>();
+
+        @Override
+        public Site getSite(String roomId) {
+            return sites.computeIfAbsent(roomId, BenchFixture::site);
+        }
+    }
+
+    /** Location updates always succeed */
+    static class InMemoryPlayerClient extends PlayerClient {
+        final ConcurrentHashMap<String, String> locations = new ConcurrentHashMap<>();
+
+        @Override
+        public String updatePlayerLocation(String playerId, String jwt, String oldRoomId, String newRoomId) {
+            locations.put(playerId, newRoomId);
+            return newRoomId;
+        }
+    }
+
+    /** Counts messages, and encodes them the way the websocket encoder would */
+    class CountingDrain implements Drain {
+        @Override
+        public void send(RoutedMessage message) {
+            if ( message.toString() != null )
+                delivered.increment();
+        }
+
+        @Override
+        public void close(CloseReason reason) {}
+
+        @Override
+        public void start() {}
+
+        @Override
+        public void start(Session session) {}
+
+        @Override
+        public void stop() {}
+    }
+}
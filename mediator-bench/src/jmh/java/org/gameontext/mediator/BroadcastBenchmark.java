@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.gameontext.mediator.MediatorNexus.View;
+import org.gameontext.mediator.RoutedMessage.FlowTarget;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Room broadcast (destination "*") to every player in a shared room.
+ * <p>
+ * The "inline" variant delivers on the calling thread; "lanes" forces
+ * parallel fan-out on a small pool and waits until every player has
+ * the message.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BroadcastBenchmark {
+
+    static final String ROOM_ID = "benchRoom";
+
+    @Param({"1", "100", "1000"})
+    int pods;
+
+    @Param({"inline", "lanes"})
+    String fanout;
+
+    ExecutorService pool;
+    BenchFixture fixture;
+    View view;
+    int sequence = 0;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        if ( "lanes".equals(fanout) ) {
+            pool = Executors.newFixedThreadPool(4);
+            fixture = new BenchFixture(pool);
+            fixture.nexus.broadcastFanoutThreshold = 1;
+        } else {
+            fixture = new BenchFixture(Runnable::run);
+            fixture.nexus.broadcastFanoutThreshold = Long.MAX_VALUE;
+        }
+
+        fixture.populate(ROOM_ID, pods);
+        view = fixture.nexus.getMultiUserView(ROOM_ID);
+        awaitQuiet();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if ( pool != null )
+            pool.shutdownNow();
+    }
+
+    @Benchmark
+    public long broadcast() {
+        long target = fixture.delivered.sum() + pods;
+
+        // a new message each time: the encoded form is cached in the message
+        view.sendToClients(RoutedMessage.createMessage(FlowTarget.player, "*",
+                "{\"type\":\"chat\",\"username\":\"bench\",\"content\":\"message " + (sequence++) + "\",\"bookmark\":" + sequence + "}"));
+
+        long delivered;
+        while ( (delivered = fixture.delivered.sum()) < target ) {
+            Thread.yield();
+        }
+        return delivered;
+    }
+
+    private void awaitQuiet() {
+        long last = -1;
+        long current = fixture.delivered.sum();
+        while ( last != current ) {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            last = current;
+            current = fixture.delivered.sum();
+        }
+    }
+}
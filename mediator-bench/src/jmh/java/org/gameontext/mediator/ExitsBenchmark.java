@@ -0,0 +1,57 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.json.JsonObject;
+
+import org.gameontext.mediator.models.Exit;
+import org.gameontext.mediator.models.Exits;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The exit list is rebuilt for every ack and location message.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ExitsBenchmark {
+
+    Exits exits;
+
+    @Setup
+    public void setup() {
+        exits = new Exits();
+        exits.setN(new Exit(BenchFixture.site("north"), "n"));
+        exits.setS(new Exit(BenchFixture.site("south"), "s"));
+        exits.setE(new Exit(BenchFixture.site("east"), "e"));
+        exits.setW(new Exit(BenchFixture.site("west"), "w"));
+        exits.setU(new Exit(BenchFixture.site("up"), "u"));
+        exits.setD(new Exit(BenchFixture.site("down"), "d"));
+    }
+
+    @Benchmark
+    public JsonObject toSimpleJsonList() {
+        return exits.toSimpleJsonList();
+    }
+}
@@ -0,0 +1,74 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Session lifecycle through the nexus: join, transition between rooms,
+ * and part. Pod operations run on the calling thread, and each room
+ * starts with some other players in it (who see hello/goodbye).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class NexusBenchmark {
+
+    static final String ROOM_A = "roomA";
+    static final String ROOM_B = "roomB";
+
+    @Param({"0", "100"})
+    int occupants;
+
+    BenchFixture fixture;
+    ClientMediator traveller;
+    boolean inRoomA = true;
+    int sequence = 0;
+
+    @Setup
+    public void setup() {
+        fixture = new BenchFixture(Runnable::run);
+        fixture.populate(ROOM_A, occupants);
+        fixture.populate(ROOM_B, occupants);
+
+        traveller = fixture.newClient("traveller");
+        fixture.nexus.join(traveller, ROOM_A, "bench");
+    }
+
+    @Benchmark
+    public ClientMediator joinPart() {
+        ClientMediator session = fixture.newClient("visitor" + (sequence++));
+        fixture.nexus.join(session, ROOM_A, "bench");
+        fixture.nexus.part(session);
+        return session;
+    }
+
+    @Benchmark
+    public ClientMediator transition() {
+        fixture.nexus.transition(traveller, inRoomA ? ROOM_B : ROOM_A);
+        inRoomA = !inRoomA;
+        return traveller;
+    }
+}
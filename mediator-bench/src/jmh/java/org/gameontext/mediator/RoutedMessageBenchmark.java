@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.json.JsonObject;
+import javax.websocket.DecodeException;
+
+import org.gameontext.mediator.RoutedMessage.FlowTarget;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Decoding, encoding and payload parsing for the messages that make up
+ * most of the traffic through the mediator.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RoutedMessageBenchmark {
+
+    static final String CHAT_FROM_CLIENT = "room,roomId,{\"username\":\"DevUser\",\"userId\":\"dummy.DevUser\",\"content\":\"Hello, everyone: how are you?\"}";
+
+    static final String CHAT_FROM_ROOM = "player,*,{\"type\":\"chat\",\"username\":\"DevUser\",\"content\":\"Hello, everyone: how are you?\",\"bookmark\":42}";
+
+    static final String LOCATION_FROM_ROOM = "player,dummy.DevUser,{\"type\":\"location\",\"name\":\"roomName\",\"fullName\":\"Room Full Name\","
+            + "\"description\":\"A room with a description, and some exits\",\"exits\":{\"N\":\"A door\",\"S\":\"Another door\"},"
+            + "\"commands\":{},\"roomInventory\":[\"a thing\",\"another thing\"],\"bookmark\":43}";
+
+    @Benchmark
+    public FlowTarget decodeChat() throws DecodeException {
+        return new RoutedMessage(CHAT_FROM_CLIENT).getFlowTarget();
+    }
+
+    @Benchmark
+    public String encodeChat() {
+        return RoutedMessage.createMessage(FlowTarget.room, "roomId",
+                "{\"username\":\"DevUser\",\"userId\":\"dummy.DevUser\",\"content\":\"Hello, everyone: how are you?\"}").toString();
+    }
+
+    @Benchmark
+    public String encodeSimpleEvent() {
+        return RoutedMessage.createSimpleEventMessage(FlowTarget.player, "dummy.DevUser", Constants.EVENTMSG_REJOIN_ADVENTURE).toString();
+    }
+
+    @Benchmark
+    public JsonObject parsedBodyChat() throws DecodeException {
+        return new RoutedMessage(CHAT_FROM_ROOM).getParsedBody();
+    }
+
+    @Benchmark
+    public JsonObject parsedBodyLocation() throws DecodeException {
+        return new RoutedMessage(LOCATION_FROM_ROOM).getParsedBody();
+    }
+
+    @Benchmark
+    public String bookmark() throws DecodeException {
+        return new RoutedMessage(CHAT_FROM_ROOM).getString(Constants.KEY_BOOKMARK);
+    }
+}
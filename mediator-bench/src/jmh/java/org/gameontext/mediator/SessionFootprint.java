@@ -0,0 +1,174 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import javax.websocket.RemoteEndpoint;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+
+import org.gameontext.mediator.models.Site;
+
+/**
+ * Heap retained by idle client sessions: connected, in a room, and quiet.
+ * <p>
+ * This isn't a JMH benchmark (JMH measures time): a few thousand sessions
+ * are built the way the websocket endpoint builds them, each with its own
+ * drain, trace and pod, and put in rooms of {@link #ROOM_SIZE} players.
+ * The heap is measured (after GC) before and after, and the difference is
+ * divided by the number of sessions. This is done twice: with local rooms,
+ * and with players visiting rooms through a room proxy. The websocket
+ * container's own per-connection state is not included.
+ * </p>
+ * Thread stacks live outside the heap, so the number of threads started
+ * while sessions are added is counted separately: drains share an executor,
+ * so this should not grow with the number of sessions.
+ * <p>
+ * Run with {@code ./gradlew :mediator-bench:footprint} (part of {@code check}),
+ * which fails if either result is over {@code footprint.budget} bytes, or
+ * more than {@code footprint.threads} threads were started.
+ * </p>
+ */
+public class SessionFootprint {
+
+    static final int ROOM_SIZE = 20;
+
+    /** Most threads started while adding sessions, in any run */
+    static int threadsStarted = 0;
+
+    public static void main(String[] args) throws Exception {
+        int sessions = Integer.getInteger("footprint.sessions", 2000);
+        long budget = Long.getLong("footprint.budget", 3072);
+        int threadBudget = Integer.getInteger("footprint.threads", 4);
+
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "bench-scheduler");
+            t.setDaemon(true);
+            return t;
+        });
+
+        long local = perSession(false, sessions, scheduler);
+        long proxied = perSession(true, sessions, scheduler);
+        scheduler.shutdownNow();
+
+        System.out.println("Idle session, local room:    " + local + " bytes");
+        System.out.println("Idle session, room visitor:  " + proxied + " bytes");
+        System.out.println("Budget:                      " + budget + " bytes");
+        System.out.println("Threads started:             " + threadsStarted + " (budget " + threadBudget + ")");
+
+        if ( local > budget || proxied > budget ) {
+            System.err.println("Idle sessions are over budget");
+            System.exit(1);
+        }
+        if ( threadsStarted > threadBudget ) {
+            System.err.println("Sessions are starting threads");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @param proxied true if players visit rooms through a room proxy
+     * @param count number of sessions to create
+     * @param scheduler used by the nexus for reconnect grace periods
+     * @return bytes retained per session
+     */
+    static long perSession(boolean proxied, int count, ScheduledExecutorService scheduler) throws InterruptedException {
+        BenchFixture fixture = new BenchFixture(Runnable::run);
+        fixture.nexus.setScheduler(scheduler);
+        fixture.builder.proxied = proxied;
+
+        // warm up: classes loaded, shared state created
+        List<ClientMediator> clients = new ArrayList<>(count);
+        populate(fixture, "warm", ROOM_SIZE * 2, clients);
+        clients.clear();
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long before = usedHeap();
+        int threadsBefore = threads.getThreadCount();
+        populate(fixture, "idle", count, clients);
+        threadsStarted = Math.max(threadsStarted, threads.getThreadCount() - threadsBefore);
+        long after = usedHeap();
+
+        long result = (after - before) / count;
+        clients.forEach(ClientMediator::destroy);
+        return result;
+    }
+
+    static void populate(BenchFixture fixture, String prefix, int count, List<ClientMediator> clients) throws InterruptedException {
+        for ( int i = 0; i < count; i++ ) {
+            String roomId = prefix + "-room" + (i / ROOM_SIZE);
+            if ( fixture.builder.proxied ) {
+                // rooms without connection details: the proxy's delegate is an empty room
+                ((BenchFixture.InMemoryMapClient) fixture.builder.mapClient).sites.putIfAbsent(roomId, new Site(roomId));
+            }
+            ClientMediator client = fixture.newSession(prefix + "-player" + i, idleSession());
+            fixture.nexus.join(client, roomId, "bench");
+            clients.add(client);
+        }
+
+        // let the drains write out the hellos, so their queues are empty again
+        for ( WSDrain drain : fixture.builder.drainMonitor.drains ) {
+            while ( drain.queueDepth() > 0 ) {
+                Thread.sleep(1);
+            }
+        }
+    }
+
+    static long usedHeap() throws InterruptedException {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for ( int i = 0; i < 3; i++ ) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    /** An open websocket session that accepts (and drops) whatever is written to it */
+    static Session idleSession() {
+        RemoteEndpoint.Async async = (RemoteEndpoint.Async) Proxy.newProxyInstance(SessionFootprint.class.getClassLoader(),
+                new Class<?>[] { RemoteEndpoint.Async.class },
+                (proxy, method, args) -> {
+                    if ( "sendObject".equals(method.getName()) ) {
+                        ((SendHandler) args[1]).onResult(new SendResult());
+                    }
+                    return null;
+                });
+
+        return (Session) Proxy.newProxyInstance(SessionFootprint.class.getClassLoader(),
+                new Class<?>[] { Session.class },
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "isOpen" :
+                            return true;
+                        case "getAsyncRemote" :
+                            return async;
+                        case "getId" :
+                            return "idle";
+                        default :
+                            return null;
+                    }
+                });
+    }
+}
@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.websocket.RemoteEndpoint;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+
+import org.gameontext.mediator.RoutedMessage.FlowTarget;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Hand-off through a drain: enqueue on the caller's thread, dequeue and
+ * write from a task on the shared drain executor. The websocket session
+ * just counts (and encodes) what it is given, and completes each write
+ * right away.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class WSDrainBenchmark {
+
+    static final int BURST = 100;
+
+    final LongAdder written = new LongAdder();
+    final RoutedMessage message = RoutedMessage.createMessage(FlowTarget.player, "*",
+            "{\"type\":\"chat\",\"username\":\"bench\",\"content\":\"drain\",\"bookmark\":1}");
+
+    WSDrain drain;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        drain = new WSDrain("bench");
+        drain.setExecutor(BenchFixture.DRAINS);
+        drain.start(countingSession());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        drain.stop();
+    }
+
+    /** A burst of messages, then wait for the drain to catch up */
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public long burst() {
+        long target = written.sum() + BURST;
+        for ( int i = 0; i < BURST; i++ ) {
+            drain.send(message);
+        }
+        return await(target);
+    }
+
+    /** Enqueue, and wait for the drain to write the message */
+    @Benchmark
+    public long roundTrip() {
+        long target = written.sum() + 1;
+        drain.send(message);
+        return await(target);
+    }
+
+    private long await(long target) {
+        long current;
+        while ( (current = written.sum()) < target ) {
+            Thread.yield();
+        }
+        return current;
+    }
+
+    private Session countingSession() {
+        RemoteEndpoint.Async async = (RemoteEndpoint.Async) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { RemoteEndpoint.Async.class },
+                (proxy, method, args) -> {
+                    if ( "sendObject".equals(method.getName()) ) {
+                        if ( args[0].toString() != null ) {
+                            written.increment();
+                        }
+                        ((SendHandler) args[1]).onResult(new SendResult());
+                    }
+                    return null;
+                });
+
+        return (Session) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { Session.class },
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "isOpen" :
+                            return true;
+                        case "getAsyncRemote" :
+                            return async;
+                        case "getId" :
+                            return "bench";
+                        default :
+                            return null;
+                    }
+                });
+    }
+}
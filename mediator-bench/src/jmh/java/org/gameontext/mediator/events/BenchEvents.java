@@ -0,0 +1,29 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator.events;
+
+import rx.subscriptions.Subscriptions;
+
+/**
+ * Player events that never arrive: no kafka required.
+ */
+public class BenchEvents extends MediatorEvents {
+
+    @Override
+    public EventSubscription subscribeToPlayerEvents(String userId, PlayerEventHandler peh) {
+        return new EventSubscription(Subscriptions.empty());
+    }
+}
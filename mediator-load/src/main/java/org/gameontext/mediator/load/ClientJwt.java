@@ -0,0 +1,63 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator.load;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+
+/**
+ * Signs player JWTs with the key the mediator trusts (the same keystore
+ * the mediator is configured with: see {@code jwtKeyStore} in server.xml).
+ */
+public class ClientJwt {
+
+    final PrivateKey key;
+
+    public ClientJwt(String keyStore, String password, String alias) throws GeneralSecurityException, IOException {
+        KeyStore ks = KeyStore.getInstance("PKCS12");
+        try (InputStream in = new FileInputStream(keyStore)) {
+            ks.load(in, password.toCharArray());
+        }
+
+        key = (PrivateKey) ks.getKey(alias, password.toCharArray());
+        if ( key == null ) {
+            throw new GeneralSecurityException("No private key with alias " + alias + " in " + keyStore);
+        }
+    }
+
+    public String forPlayer(String userId) {
+        long now = System.currentTimeMillis();
+        return Jwts.builder()
+                .setHeaderParam("kid", "playerssl")
+                .setSubject(userId)
+                .setAudience("client")
+                .claim("id", userId)
+                .claim("name", userId)
+                .setIssuedAt(new Date(now))
+                .setExpiration(new Date(now + TimeUnit.HOURS.toMillis(2)))
+                .signWith(key, SignatureAlgorithm.RS256)
+                .compact();
+    }
+}
@@ -0,0 +1,213 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator.load;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Just enough of the map and player services for the mediator:
+ * <ul>
+ * <li>{@code GET /map/v1/sites/{id}} returns a site for one of the simulated
+ *     rooms. Rooms form a ring: north goes to the next room, south to the previous
+ *     one. {@code firstroom} has a north exit to the first simulated room.</li>
+ * <li>{@code GET /map/v1/sites?...} (room lists) returns an empty list.</li>
+ * <li>{@code PUT /players/v1/accounts/{id}/location} always succeeds.</li>
+ * <li>{@code GET /players/v1/accounts/{id}} returns a shared secret.</li>
+ * </ul>
+ * Request signatures are not checked.
+ */
+public class FakeServices {
+
+    static final String MAP_PATH = "/map/v1/sites";
+    static final String PLAYER_PATH = "/players/v1/accounts";
+    static final String FIRST_ROOM = "firstroom";
+
+    final HttpServer server;
+    final int roomCount;
+    final String roomEndpoint;
+
+    final ConcurrentHashMap<String, String> locations = new ConcurrentHashMap<>();
+    final LongAdder siteRequests = new LongAdder();
+    final LongAdder locationUpdates = new LongAdder();
+
+    /**
+     * @param port port for the fake services
+     * @param roomCount number of simulated rooms
+     * @param roomEndpoint websocket url prefix for simulated rooms (the room id is appended)
+     */
+    public FakeServices(int port, int roomCount, String roomEndpoint) throws IOException {
+        this.roomCount = roomCount;
+        this.roomEndpoint = roomEndpoint;
+
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext(MAP_PATH, this::handleMap);
+        server.createContext(PLAYER_PATH, this::handlePlayer);
+        server.setExecutor(Executors.newCachedThreadPool());
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    public String mapUrl() {
+        return "http://localhost:" + server.getAddress().getPort() + MAP_PATH;
+    }
+
+    public String playerUrl() {
+        return "http://localhost:" + server.getAddress().getPort() + PLAYER_PATH;
+    }
+
+    static String roomId(int i) {
+        return "load-" + i;
+    }
+
+    private void handleMap(HttpExchange exchange) throws IOException {
+        String id = trailingSegment(exchange, MAP_PATH);
+
+        if ( id.isEmpty() ) {
+            respond(exchange, 200, "[]");
+        } else if ( FIRST_ROOM.equals(id) ) {
+            siteRequests.increment();
+            JsonObject exits = Json.createObjectBuilder()
+                    .add("n", exit(0, "n"))
+                    .build();
+            respond(exchange, 200, Json.createObjectBuilder()
+                    .add("_id", FIRST_ROOM)
+                    .add("info", Json.createObjectBuilder().add("name", FIRST_ROOM).add("fullName", "The First Room"))
+                    .add("exits", exits)
+                    .build().toString());
+        } else {
+            int index = indexOf(id);
+            if ( index < 0 ) {
+                respond(exchange, 404, "{}");
+                return;
+            }
+
+            siteRequests.increment();
+            JsonObject exits = Json.createObjectBuilder()
+                    .add("n", exit((index + 1) % roomCount, "n"))
+                    .add("s", exit((index + roomCount - 1) % roomCount, "s"))
+                    .build();
+            respond(exchange, 200, Json.createObjectBuilder()
+                    .add("_id", id)
+                    .add("owner", "load")
+                    .add("info", info(index))
+                    .add("exits", exits)
+                    .build().toString());
+        }
+    }
+
+    private void handlePlayer(HttpExchange exchange) throws IOException {
+        String path = trailingSegment(exchange, PLAYER_PATH);
+
+        if ( path.endsWith("/location") && "PUT".equals(exchange.getRequestMethod()) ) {
+            String playerId = path.substring(0, path.length() - "/location".length());
+            JsonObject request = Json.createReader(new StringReader(readBody(exchange))).readObject();
+            String newLocation = request.getString("newLocation", FIRST_ROOM);
+
+            locations.put(playerId, newLocation);
+            locationUpdates.increment();
+            respond(exchange, 200, Json.createObjectBuilder().add("location", newLocation).build().toString());
+        } else if ( !path.isEmpty() ) {
+            respond(exchange, 200, Json.createObjectBuilder()
+                    .add("_id", path)
+                    .add("name", path)
+                    .add("location", locations.getOrDefault(path, FIRST_ROOM))
+                    .add("credentials", Json.createObjectBuilder().add("sharedSecret", "load-secret"))
+                    .build().toString());
+        } else {
+            respond(exchange, 404, "{}");
+        }
+    }
+
+    private JsonObjectBuilder info(int index) {
+        return Json.createObjectBuilder()
+                .add("name", roomId(index))
+                .add("fullName", "Load room " + index)
+                .add("description", "A simulated room")
+                .add("connectionDetails", Json.createObjectBuilder()
+                        .add("type", "websocket")
+                        .add("target", roomEndpoint + roomId(index)));
+    }
+
+    private JsonObjectBuilder exit(int index, String direction) {
+        return Json.createObjectBuilder()
+                .add("_id", roomId(index))
+                .add("name", roomId(index))
+                .add("fullName", "Load room " + index)
+                .add("door", "A door marked " + direction.toUpperCase())
+                .add("connectionDetails", Json.createObjectBuilder()
+                        .add("type", "websocket")
+                        .add("target", roomEndpoint + roomId(index)));
+    }
+
+    private int indexOf(String id) {
+        if ( !id.startsWith("load-") )
+            return -1;
+        try {
+            int i = Integer.parseInt(id.substring(5));
+            return i < roomCount ? i : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String trailingSegment(HttpExchange exchange, String prefix) {
+        String path = exchange.getRequestURI().getPath().substring(prefix.length());
+        return path.startsWith("/") ? path.substring(1) : path;
+    }
+
+    private static String readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int n;
+            while ( (n = in.read(buffer)) > 0 ) {
+                out.write(buffer, 0, n);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
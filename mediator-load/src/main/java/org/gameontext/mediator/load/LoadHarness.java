@@ -0,0 +1,257 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator.load;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.json.Json;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonValue;
+
+import org.glassfish.tyrus.client.ClientManager;
+import org.glassfish.tyrus.server.Server;
+
+/**
+ * Local end-to-end load for a mediator running in Liberty.
+ * <p>
+ * Starts fake map and player services and a set of simulated rooms,
+ * connects simulated players to the mediator, and lets them chat and
+ * move around. Reports connect latency, room switch latency, message
+ * rates, and the mediator's thread count and heap (from mpMetrics).
+ * </p>
+ * The mediator has to be pointed at the fake services: start the harness
+ * with {@code --wait}, and it will print the environment to use before
+ * waiting for the mediator to be started.
+ *
+ * @see #usage()
+ */
+public class LoadHarness {
+
+    final Map<String, String> options;
+
+    final int clientCount;
+    final int roomCount;
+    final long durationSeconds;
+    final long rampSeconds;
+    final long thinkMillis;
+
+    Stats stats;
+
+    public LoadHarness(Map<String, String> options) {
+        this.options = options;
+        this.clientCount = intOption("clients", 100);
+        this.roomCount = intOption("rooms", 10);
+        this.durationSeconds = intOption("duration", 60);
+        this.rampSeconds = intOption("ramp", 10);
+        this.thinkMillis = intOption("think", 1000);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for ( String arg : args ) {
+            if ( !arg.startsWith("--") ) {
+                usage();
+                return;
+            }
+            int eq = arg.indexOf('=');
+            if ( eq < 0 ) {
+                options.put(arg.substring(2), "true");
+            } else {
+                options.put(arg.substring(2, eq), arg.substring(eq + 1));
+            }
+        }
+        if ( options.containsKey("help") ) {
+            usage();
+            return;
+        }
+
+        new LoadHarness(options).run();
+    }
+
+    static void usage() {
+        System.out.println("LoadHarness [options]\n"
+                + "  --clients=100        simulated players\n"
+                + "  --rooms=10           simulated rooms\n"
+                + "  --duration=60        seconds of steady load (after ramp up)\n"
+                + "  --ramp=10            seconds over which players connect\n"
+                + "  --think=1000         milliseconds between actions for each player\n"
+                + "  --go=15              percent of actions that are /go\n"
+                + "  --sos=2              percent of actions that are /sos\n"
+                + "  --mediator=ws://localhost:9080/mediator/ws/\n"
+                + "  --metrics=http://localhost:9080/metrics/base\n"
+                + "  --servicePort=9099   port for the fake map and player services\n"
+                + "  --roomPort=9098      port for the simulated rooms\n"
+                + "  --keystore=mediator-wlpcfg/servers/gameon-mediator/resources/security/key.pkcs12\n"
+                + "  --storepass=gameontext-keys\n"
+                + "  --alias=default\n"
+                + "  --json=<file>        also write results as JSON\n"
+                + "  --wait               print mediator environment, wait for enter before connecting");
+    }
+
+    public void run() throws Exception {
+        stats = new Stats(roomCount, intOption("go", 15), intOption("sos", 2));
+
+        int roomPort = intOption("roomPort", 9098);
+        Server rooms = new Server("localhost", roomPort, "/", null, SimulatedRoom.class);
+        rooms.start();
+
+        FakeServices services = new FakeServices(intOption("servicePort", 9099), roomCount,
+                "ws://localhost:" + roomPort + "/rooms/");
+        services.start();
+
+        System.out.println("Fake services and " + roomCount + " rooms started. Mediator environment:");
+        System.out.println("  MAP_SERVICE_URL=" + services.mapUrl());
+        System.out.println("  PLAYER_SERVICE_URL=" + services.playerUrl());
+        if ( options.containsKey("wait") ) {
+            System.out.println("Start the mediator, then press enter.");
+            System.in.read();
+        }
+
+        ClientJwt jwts = new ClientJwt(
+                option("keystore", "mediator-wlpcfg/servers/gameon-mediator/resources/security/key.pkcs12"),
+                option("storepass", "gameontext-keys"),
+                option("alias", "default"));
+        String mediatorUrl = option("mediator", "ws://localhost:9080/mediator/ws/");
+
+        JsonObject before = mediatorMetrics();
+        ClientManager container = ClientManager.createClient();
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+        List<SimulatedClient> clients = new ArrayList<>(clientCount);
+
+        try {
+            // Ramp up: connect players evenly over the ramp period
+            long gapMicros = TimeUnit.SECONDS.toMicros(rampSeconds) / Math.max(1, clientCount);
+            for ( int i = 0; i < clientCount; i++ ) {
+                SimulatedClient client = new SimulatedClient("load.player" + i, stats);
+                clients.add(client);
+                scheduler.schedule(() -> {
+                    try {
+                        client.connect(container, mediatorUrl, jwts.forPlayer(client.userId));
+                    } catch (Exception e) {
+                        stats.errors.increment();
+                        System.err.println("Connect failed for " + client.userId + ": " + e);
+                    }
+                }, gapMicros * i, TimeUnit.MICROSECONDS);
+
+                long jitter = ThreadLocalRandom.current().nextLong(thinkMillis);
+                scheduler.scheduleAtFixedRate(client::act,
+                        TimeUnit.SECONDS.toMillis(rampSeconds) + jitter, thinkMillis, TimeUnit.MILLISECONDS);
+            }
+            TimeUnit.SECONDS.sleep(rampSeconds);
+
+            // Steady state
+            long sent = stats.sent.sum();
+            long received = stats.received.sum();
+            long start = System.nanoTime();
+            TimeUnit.SECONDS.sleep(durationSeconds);
+            double elapsed = (System.nanoTime() - start) / 1e9;
+
+            JsonObject during = mediatorMetrics();
+            JsonObject results = Json.createObjectBuilder()
+                    .add("clients", clientCount)
+                    .add("rooms", roomCount)
+                    .add("durationSeconds", elapsed)
+                    .add("connectedClients", clients.stream().filter(c -> c.connected).count())
+                    .add("connectLatencyMicros", Stats.percentiles(stats.connectLatency))
+                    .add("switchLatencyMicros", Stats.percentiles(stats.switchLatency))
+                    .add("clientMessagesSentPerSecond", (stats.sent.sum() - sent) / elapsed)
+                    .add("clientMessagesReceivedPerSecond", (stats.received.sum() - received) / elapsed)
+                    .add("roomMessagesReceived", SimulatedRoom.received.sum())
+                    .add("roomConnections", SimulatedRoom.connections.sum())
+                    .add("locationUpdates", services.locationUpdates.sum())
+                    .add("errors", stats.errors.sum())
+                    .add("mediator", Json.createObjectBuilder()
+                            .add("before", summary(before))
+                            .add("during", summary(during)))
+                    .build();
+
+            report(results);
+        } finally {
+            scheduler.shutdownNow();
+            clients.forEach(SimulatedClient::close);
+            services.stop();
+            rooms.stop();
+        }
+    }
+
+    private void report(JsonObject results) throws IOException {
+        System.out.println();
+        System.out.println("== Results ==");
+        results.forEach((k, v) -> System.out.println(String.format("%-34s %s", k, v)));
+
+        String json = options.get("json");
+        if ( json != null ) {
+            try (Writer w = new FileWriter(json)) {
+                w.write(results.toString());
+            }
+            System.out.println("Results written to " + json);
+        }
+    }
+
+    /**
+     * Thread count and heap from the mediator's base metrics
+     */
+    private JsonObject mediatorMetrics() {
+        String metrics = option("metrics", "http://localhost:9080/metrics/base");
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(metrics).openConnection();
+            connection.setRequestProperty("Accept", "application/json");
+            connection.setConnectTimeout(2000);
+            connection.setReadTimeout(5000);
+            try (InputStream in = connection.getInputStream()) {
+                return Json.createReader(in).readObject();
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Unable to read mediator metrics from " + metrics + ": " + e);
+            return Json.createObjectBuilder().build();
+        }
+    }
+
+    private JsonObjectBuilder summary(JsonObject metrics) {
+        JsonObjectBuilder summary = Json.createObjectBuilder();
+        for ( String key : new String[] { "thread.count", "thread.max.count", "memory.usedHeap", "memory.committedHeap" } ) {
+            JsonValue value = metrics.get(key);
+            if ( value instanceof JsonNumber ) {
+                summary.add(key, ((JsonNumber) value).longValue());
+            }
+        }
+        return summary;
+    }
+
+    private String option(String name, String defaultValue) {
+        return options.getOrDefault(name, defaultValue);
+    }
+
+    private int intOption(String name, int defaultValue) {
+        String value = options.get(name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+}
@@ -0,0 +1,143 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator.load;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.URI;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.websocket.ClientEndpoint;
+import javax.websocket.CloseReason;
+import javax.websocket.DeploymentException;
+import javax.websocket.OnClose;
+import javax.websocket.OnMessage;
+import javax.websocket.Session;
+import javax.websocket.WebSocketContainer;
+
+/**
+ * A player: connects, sends ready, then chats and moves around.
+ * Room switches (/go and /sos) are timed from the request to the
+ * ack for the new room.
+ */
+@ClientEndpoint
+public class SimulatedClient {
+
+    final String userId;
+    final Stats stats;
+
+    volatile Session session;
+    volatile String roomId;
+
+    /** Start of the pending connect or room switch (0 if none) */
+    volatile long pendingSince = 0;
+    volatile boolean connected = false;
+
+    public SimulatedClient(String userId, Stats stats) {
+        this.userId = userId;
+        this.stats = stats;
+    }
+
+    public void connect(WebSocketContainer container, String mediatorUrl, String jwt) throws DeploymentException, IOException {
+        pendingSince = System.nanoTime();
+        session = container.connectToServer(this, URI.create(mediatorUrl + userId + "?jwt=" + jwt));
+        send("ready," + Json.createObjectBuilder()
+                .add("userId", userId)
+                .add("username", userId)
+                .add("roomId", FakeServices.roomId(ThreadLocalRandom.current().nextInt(stats.rooms)))
+                .build());
+    }
+
+    /**
+     * Do something: mostly chat, sometimes move.
+     */
+    public void act() {
+        if ( !connected || pendingSince != 0 || roomId == null )
+            return;
+
+        int roll = ThreadLocalRandom.current().nextInt(100);
+        if ( roll < stats.sosPercent ) {
+            pendingSince = System.nanoTime();
+            send("sos,*,{}");
+        } else if ( roll < stats.sosPercent + stats.goPercent ) {
+            pendingSince = System.nanoTime();
+            sendToRoom(ThreadLocalRandom.current().nextBoolean() ? "/go N" : "/go S");
+        } else if ( FakeServices.FIRST_ROOM.equals(roomId) ) {
+            // leave the first room as soon as we can
+            pendingSince = System.nanoTime();
+            sendToRoom("/go N");
+        } else {
+            sendToRoom("Hello from " + userId);
+        }
+    }
+
+    @OnMessage
+    public void onMessage(String message) {
+        stats.received.increment();
+
+        if ( message.startsWith("ack,") ) {
+            JsonObject ack = Json.createReader(new StringReader(message.substring(4))).readObject();
+            String newRoom = ack.getString("roomId", null);
+            long start = pendingSince;
+
+            if ( !connected ) {
+                connected = true;
+                stats.connectLatency.recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+                pendingSince = 0;
+            } else if ( start != 0 && newRoom != null && !newRoom.equals(roomId) ) {
+                stats.switchLatency.recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+                pendingSince = 0;
+            }
+            roomId = newRoom;
+        }
+    }
+
+    @OnClose
+    public void onClose(CloseReason reason) {
+        connected = false;
+        if ( reason.getCloseCode() != CloseReason.CloseCodes.NORMAL_CLOSURE ) {
+            stats.errors.increment();
+        }
+    }
+
+    public void close() {
+        try {
+            if ( session != null && session.isOpen() )
+                session.close();
+        } catch (IOException e) {
+            // going away anyway
+        }
+    }
+
+    private void sendToRoom(String content) {
+        send("room," + roomId + "," + Json.createObjectBuilder()
+                .add("userId", userId)
+                .add("username", userId)
+                .add("content", content)
+                .build());
+    }
+
+    private void send(String message) {
+        Session s = session;
+        if ( s != null && s.isOpen() ) {
+            s.getAsyncRemote().sendText(message);
+            stats.sent.increment();
+        }
+    }
+}
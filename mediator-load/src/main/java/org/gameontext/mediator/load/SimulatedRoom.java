@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator.load;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.websocket.OnMessage;
+import javax.websocket.OnOpen;
+import javax.websocket.Session;
+import javax.websocket.server.PathParam;
+import javax.websocket.server.ServerEndpoint;
+
+/**
+ * A room speaking the Game On! room protocol, as little as possible:
+ * <ul>
+ * <li>sends an ack with supported versions when the mediator connects</li>
+ * <li>answers roomHello/roomJoin with a location message</li>
+ * <li>answers {@code /go <dir>} with a playerLocation (exit) message</li>
+ * <li>broadcasts everything else as chat</li>
+ * </ul>
+ */
+@ServerEndpoint("/rooms/{roomId}")
+public class SimulatedRoom {
+
+    static final LongAdder received = new LongAdder();
+    static final LongAdder connections = new LongAdder();
+    static final AtomicLong bookmark = new AtomicLong();
+
+    @OnOpen
+    public void onOpen(@PathParam("roomId") String roomId, Session session) throws IOException {
+        connections.increment();
+        session.getUserProperties().put("roomId", roomId);
+        session.getBasicRemote().sendText("ack,{\"version\":[1,2]}");
+    }
+
+    @OnMessage
+    public void onMessage(@PathParam("roomId") String roomId, String message, Session session) throws IOException {
+        received.increment();
+
+        int first = message.indexOf(',');
+        int second = message.indexOf(',', first + 1);
+        if ( first < 0 || second < 0 )
+            return;
+
+        String flowTarget = message.substring(0, first);
+        JsonObject body = Json.createReader(new StringReader(message.substring(second + 1))).readObject();
+        String userId = body.getString("userId", "");
+
+        switch (flowTarget) {
+            case "roomHello" :
+            case "roomJoin" :
+                send(session, "player," + userId + "," + Json.createObjectBuilder()
+                        .add("type", "location")
+                        .add("name", roomId)
+                        .add("fullName", "Load room " + roomId)
+                        .add("description", "A simulated room")
+                        .build());
+                break;
+            case "room" :
+                String content = body.getString("content", "");
+                if ( content.startsWith("/go ") ) {
+                    String direction = content.substring(4).trim().toUpperCase();
+                    send(session, "playerLocation," + userId + "," + Json.createObjectBuilder()
+                            .add("type", "exit")
+                            .add("exitId", direction)
+                            .add("content", "You head " + direction)
+                            .build());
+                } else {
+                    String chat = "player,*," + Json.createObjectBuilder()
+                            .add("type", "chat")
+                            .add("username", body.getString("username", userId))
+                            .add("content", content)
+                            .add("bookmark", bookmark.incrementAndGet())
+                            .build();
+                    // The mediator connects to the room once per player: tell everyone in this room
+                    for ( Session s : session.getOpenSessions() ) {
+                        if ( roomId.equals(s.getUserProperties().get("roomId")) ) {
+                            send(s, chat);
+                        }
+                    }
+                }
+                break;
+            default :
+                // roomGoodbye, roomPart: nothing to say
+                break;
+        }
+    }
+
+    private void send(Session session, String message) {
+        if ( session.isOpen() ) {
+            session.getAsyncRemote().sendText(message);
+        }
+    }
+}
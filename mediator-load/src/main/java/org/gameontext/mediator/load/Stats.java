@@ -0,0 +1,56 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator.load;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+/**
+ * What the simulated clients saw. Latencies are in microseconds.
+ */
+public class Stats {
+
+    final int rooms;
+    final int goPercent;
+    final int sosPercent;
+
+    final Histogram connectLatency = new ConcurrentHistogram(3);
+    final Histogram switchLatency = new ConcurrentHistogram(3);
+    final LongAdder sent = new LongAdder();
+    final LongAdder received = new LongAdder();
+    final LongAdder errors = new LongAdder();
+
+    public Stats(int rooms, int goPercent, int sosPercent) {
+        this.rooms = rooms;
+        this.goPercent = goPercent;
+        this.sosPercent = sosPercent;
+    }
+
+    static JsonObjectBuilder percentiles(Histogram h) {
+        return Json.createObjectBuilder()
+                .add("count", h.getTotalCount())
+                .add("p50", h.getValueAtPercentile(50))
+                .add("p90", h.getValueAtPercentile(90))
+                .add("p99", h.getValueAtPercentile(99))
+                .add("p999", h.getValueAtPercentile(99.9))
+                .add("max", h.getMaxValue());
+    }
+}